@@ -0,0 +1,66 @@
+package com.nestvision.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Снимает устаревшее check-ограничение на ingestion_jobs.job_type до запуска Hibernate
+ *
+ * Hibernate создавал для enum-колонки check со списком типов заданий на момент создания таблицы,
+ * а ddl-auto=update его не обновляет - в старую таблицу не вставлялись бы новые типы (FOLDER_FILE, FASTSTART).
+ * Ограничение удаляется только если оно есть: для существующей таблицы ddl-auto=update его не создает заново,
+ * поэтому DDL выполняется один раз на базу (в новой базе check сразу содержит все текущие типы).
+ */
+@Component
+public class IngestionJobSchemaInitializer implements InitializingBean {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IngestionJobSchemaInitializer.class);
+    
+    private static final String JOB_TYPE_CHECK = "ingestion_jobs_job_type_check";
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @Override
+    public void afterPropertiesSet() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (!constraintExists(statement)) {
+                return;
+            }
+            statement.execute("alter table ingestion_jobs drop constraint if exists " + JOB_TYPE_CHECK);
+            logger.info("Снято ограничение {} на типы заданий", JOB_TYPE_CHECK);
+        } catch (SQLException e) {
+            logger.error("Не удалось снять ограничение на типы заданий", e);
+        }
+    }
+    
+    private boolean constraintExists(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("select exists (select 1 from pg_constraint where conname = '"
+                + JOB_TYPE_CHECK + "' and conrelid = to_regclass('ingestion_jobs'))")) {
+            resultSet.next();
+            return resultSet.getBoolean(1);
+        }
+    }
+    
+    /**
+     * Пока ограничение не снято, ddl-auto=update не должен начинать работу с таблицей
+     */
+    @Component
+    public static class EntityManagerFactoryDependency extends EntityManagerFactoryDependsOnPostProcessor {
+        
+        public EntityManagerFactoryDependency() {
+            super(IngestionJobSchemaInitializer.class);
+        }
+    }
+}
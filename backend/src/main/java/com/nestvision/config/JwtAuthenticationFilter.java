@@ -1,5 +1,6 @@
 package com.nestvision.config;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -18,34 +19,52 @@ import java.io.IOException;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
     
+    // Подписанные ссылки на поток проверяются StreamUrlSigner, JWT для них не нужен
+    public static final String SIGNED_STREAM_PATH = "/api/videos/stream/";
+    
     @Autowired
     private JwtUtil jwtUtil;
     
     @Autowired
     private UserDetailsService userDetailsService;
     
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + SIGNED_STREAM_PATH);
+    }
+    
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
             throws ServletException, IOException {
         
         final String authorizationHeader = request.getHeader("Authorization");
         
-        String username = null;
-        String jwt = null;
-        
-        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
-            try {
-                username = jwtUtil.extractUsername(jwt);
-            } catch (Exception e) {
-                // Invalid token, continue without authentication
+        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            String jwt = authorizationHeader.substring(7);
+            
+            // Токен уже проверялся - без разбора и без БД
+            UserDetails userDetails = jwtUtil.getCachedPrincipal(jwt);
+            
+            if (userDetails == null) {
+                Claims claims = null;
+                try {
+                    // Подпись и срок действия проверяются один раз при разборе
+                    claims = jwtUtil.extractAllClaims(jwt);
+                } catch (Exception e) {
+                    // Invalid token, continue without authentication
+                }
+                
+                if (claims != null) {
+                    userDetails = jwtUtil.toPrincipal(jwt, claims);
+                    if (userDetails == null) {
+                        // Токены, выданные до появления claims пользователя
+                        userDetails = this.userDetailsService.loadUserByUsername(claims.getSubject());
+                    }
+                }
             }
-        }
-        
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
             
-            if (jwtUtil.validateToken(jwt, userDetails)) {
+            if (userDetails != null) {
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                         userDetails, null, userDetails.getAuthorities());
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -56,4 +75,3 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         chain.doFilter(request, response);
     }
 }
-
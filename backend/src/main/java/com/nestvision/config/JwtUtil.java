@@ -1,8 +1,11 @@
 package com.nestvision.config;
 
+import com.nestvision.entity.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -11,21 +14,47 @@ import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Function;
 
 @Component
 public class JwtUtil {
     
+    // Claims с данными пользователя - фильтру не нужно читать пользователя из БД
+    private static final String CLAIM_USER_ID = "uid";
+    private static final String CLAIM_ROLE = "role";
+    private static final String CLAIM_KINDERGARTEN = "kindergarten";
+    
     @Value("${jwt.secret}")
     private String secret;
     
     @Value("${jwt.expiration}")
     private Long expiration;
     
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+    @Value("${jwt.cache.max-size:10000}")
+    private int cacheMaxSize;
+    
+    // Ключ и парсер неизменяемы и потокобезопасны - создаем один раз
+    private SecretKey signingKey;
+    
+    private JwtParser parser;
+    
+    // Уже проверенные токены: повторный запрос с тем же токеном не проверяет подпись заново
+    // LRU по порядку доступа, не больше jwt.cache.max-size записей; доступ - под synchronized (verifiedTokens)
+    private final Map<String, VerifiedToken> verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+            return size() > cacheMaxSize;
+        }
+    };
+    
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
     }
     
     public String extractUsername(String token) {
@@ -41,12 +70,12 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
     
-    private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    /**
+     * Проверяет подпись и срок действия токена и возвращает его claims
+     * @throws io.jsonwebtoken.JwtException если токен недействителен или истек
+     */
+    public Claims extractAllClaims(String token) {
+        return parser.parseSignedClaims(token).getPayload();
     }
     
     private Boolean isTokenExpired(String token) {
@@ -55,6 +84,11 @@ public class JwtUtil {
     
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
+        if (userDetails instanceof User user) {
+            claims.put(CLAIM_USER_ID, user.getId());
+            claims.put(CLAIM_ROLE, user.getRole());
+            claims.put(CLAIM_KINDERGARTEN, user.getKindergartenName());
+        }
         return createToken(claims, userDetails.getUsername());
     }
     
@@ -64,7 +98,7 @@ public class JwtUtil {
                 .subject(subject)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
     
@@ -72,5 +106,59 @@ public class JwtUtil {
         final String username = extractUsername(token);
         return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
     }
+    
+    /**
+     * Пользователь из ранее проверенного и еще не истекшего токена, или null
+     * Каждый вызов возвращает новый объект: в кэше хранятся только неизменяемые данные из claims
+     */
+    public User getCachedPrincipal(String token) {
+        VerifiedToken verified;
+        synchronized (verifiedTokens) {
+            verified = verifiedTokens.get(token);
+            if (verified == null) {
+                return null;
+            }
+            if (verified.expiresAt() <= System.currentTimeMillis()) {
+                verifiedTokens.remove(token);
+                return null;
+            }
+        }
+        return verified.toUser();
+    }
+    
+    /**
+     * Собирает пользователя из claims проверенного токена и запоминает токен как проверенный
+     * @return пользователь или null для старых токенов без claims пользователя
+     */
+    public User toPrincipal(String token, Claims claims) {
+        Long userId = claims.get(CLAIM_USER_ID, Long.class);
+        String role = claims.get(CLAIM_ROLE, String.class);
+        if (userId == null || role == null) {
+            return null;
+        }
+        
+        VerifiedToken verified = new VerifiedToken(userId, claims.getSubject(), role,
+                claims.get(CLAIM_KINDERGARTEN, String.class), claims.getExpiration().getTime());
+        if (cacheMaxSize > 0) {
+            synchronized (verifiedTokens) {
+                verifiedTokens.put(token, verified);
+            }
+        }
+        return verified.toUser();
+    }
+    
+    /**
+     * Данные пользователя из claims проверенного токена
+     */
+    private record VerifiedToken(Long userId, String username, String role, String kindergartenName, long expiresAt) {
+        
+        User toUser() {
+            User user = new User();
+            user.setId(userId);
+            user.setUsername(username);
+            user.setRole(role);
+            user.setKindergartenName(kindergartenName);
+            return user;
+        }
+    }
 }
-
@@ -0,0 +1,30 @@
+package com.nestvision.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
+
+/**
+ * Разбор multipart/form-data контейнером для всех запросов, кроме потоковой загрузки
+ * Тело /api/videos/upload-stream читает сам контроллер: если контейнер разберет форму
+ * раньше, файл окажется в его временной папке, а поток запроса - пустым
+ */
+@Configuration
+public class MultipartConfig {
+    
+    public static final String UPLOAD_STREAM_PATH = "/api/videos/upload-stream";
+    
+    @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+    public MultipartResolver multipartResolver() {
+        return new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                String path = request.getRequestURI().substring(request.getContextPath().length());
+                return !path.equals(UPLOAD_STREAM_PATH) && super.isMultipart(request);
+            }
+        };
+    }
+}
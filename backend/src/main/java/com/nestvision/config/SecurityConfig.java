@@ -33,7 +33,8 @@ public class SecurityConfig {
             .cors(cors -> cors.configurationSource(corsConfigurationSource()))
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/api/auth/**").permitAll()
-                .requestMatchers("/api/videos/scan-folder").permitAll() // Разрешаем сканирование без авторизации для тестирования
+                .requestMatchers("/api/videos/scan-folder", "/api/videos/scan-folder/progress").permitAll() // Разрешаем сканирование без авторизации для тестирования
+                .requestMatchers(JwtAuthenticationFilter.SIGNED_STREAM_PATH + "**").permitAll() // Доступ проверяется подписью ссылки
                 .requestMatchers("/api/telegram/**").permitAll() // Разрешаем проверку статуса Telegram без авторизации
                 .anyRequest().authenticated()
             )
@@ -76,6 +77,8 @@ public class SecurityConfig {
         configuration.setAllowedOrigins(allowedOrigins);
         configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
         configuration.setAllowedHeaders(Arrays.asList("*"));
+        // Заголовки возобновляемой загрузки (tus), которые клиент читает из ответа
+        configuration.setExposedHeaders(Arrays.asList("Location", "Upload-Offset", "Upload-Length", "Tus-Resumable"));
         configuration.setAllowCredentials(true);
         configuration.setMaxAge(3600L); // Cache preflight requests for 1 hour
         
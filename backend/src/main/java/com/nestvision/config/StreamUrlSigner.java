@@ -0,0 +1,103 @@
+package com.nestvision.config;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Подписанные короткоживущие ссылки на поток видео
+ *
+ * Токен содержит id видео и время истечения, подписанные HMAC-SHA256; путь к файлу в ссылку не попадает,
+ * его находит сервер по id. Проверка - только вычисление HMAC, без JWT и без загрузки пользователя,
+ * поэтому Range-запросы плеера при перемотке обходятся дешево.
+ */
+@Component
+public class StreamUrlSigner {
+    
+    private static final String ALGORITHM = "HmacSHA256";
+    
+    @Value("${video.stream.signing-secret:${jwt.secret}}")
+    private String secret;
+    
+    @Value("${video.stream.url-ttl-seconds:3600}")
+    private long ttlSeconds;
+    
+    private SecretKeySpec key;
+    
+    // Mac не потокобезопасен - держим по экземпляру на поток
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    
+    @PostConstruct
+    public void init() {
+        key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+    
+    /**
+     * Подписывает ссылку на поток видео
+     * @return токен вида base64url(payload).base64url(hmac)
+     */
+    public String sign(Long videoId, Instant expiresAt) {
+        String payload = videoId + "\n" + expiresAt.getEpochSecond();
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payloadBytes) + "." + encoder.encodeToString(hmac(payloadBytes));
+    }
+    
+    public Instant newExpiry() {
+        return Instant.now().plusSeconds(ttlSeconds);
+    }
+    
+    /**
+     * Проверяет подпись и срок действия токена
+     * @return id видео или null, если токен поддельный, поврежден или истек
+     */
+    public Long verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payloadBytes = decoder.decode(token.substring(0, dot));
+            byte[] signature = decoder.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(hmac(payloadBytes), signature)) {
+                return null;
+            }
+            
+            String[] parts = new String(payloadBytes, StandardCharsets.UTF_8).split("\n");
+            if (parts.length != 2) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(parts[1]);
+            if (Instant.now().getEpochSecond() > expiresAt) {
+                return null;
+            }
+            return Long.valueOf(parts[0]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private byte[] hmac(byte[] data) {
+        Mac mac = macs.get();
+        return mac.doFinal(data);
+    }
+    
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialize " + ALGORITHM, e);
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package com.nestvision.config;
 
+import com.nestvision.service.TelegramBackfillProgress;
+import com.nestvision.service.TelegramChannelListener;
 import com.nestvision.service.TelegramService;
-import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 /**
- * Инициализирует Telegram бота при старте приложения
+ * Инициализирует Telegram бота после старта приложения
  * Загружает все видео из канала и запускает слушатель новых сообщений
+ *
+ * Работа идет в фоновом потоке: HTTP сервер уже отвечает и отдает существующие видео,
+ * а ход загрузки виден через /api/telegram/backfill
  */
 @Component
 public class TelegramBotInitializer {
@@ -20,34 +26,62 @@ public class TelegramBotInitializer {
     @Autowired
     private TelegramService telegramService;
     
-    @PostConstruct
+    @Autowired
+    private TelegramChannelListener telegramChannelListener;
+    
+    @Value("${telegram.listener.enabled:false}")
+    private boolean listenerEnabled;
+    
+    @EventListener(ApplicationReadyEvent.class)
     public void initialize() {
+        Thread bootstrapThread = new Thread(this::bootstrap, "telegram-bootstrap");
+        bootstrapThread.setDaemon(true);
+        bootstrapThread.start();
+        logger.info("Инициализация Telegram бота запущена в фоне");
+    }
+    
+    private void bootstrap() {
         logger.info("=== Инициализация Telegram бота ===");
+        TelegramBackfillProgress progress = telegramService.getBackfillProgress();
+        progress.setState(TelegramBackfillProgress.State.INITIALIZING);
         
         try {
             // Инициализируем бота
             telegramService.initializeBot();
             
             // Проверяем, что бот инициализирован
-            if (telegramService.isBotInitialized()) {
+            if (telegramService.isBotInitialized() && telegramService.isWebhookMode()) {
+                // Обновления присылает Telegram, getUpdates в этом режиме недоступен
+                progress.setState(TelegramBackfillProgress.State.SKIPPED);
+                if (telegramService.configureWebhook()) {
+                    logger.info("=== Telegram бот успешно инициализирован (webhook) ===");
+                }
+            } else if (telegramService.isBotInitialized()) {
+                // Снимаем webhook, если он остался от режима webhook
+                telegramService.deleteWebhook();
+                
                 // Загружаем все существующие видео из канала
                 logger.info("Загружаем все видео из канала...");
-                int loadedCount = telegramService.loadAllVideosFromChannel();
+                int loadedCount = telegramService.reloadChannel().run().await();
                 logger.info("Загружено видео при старте: {}", loadedCount);
                 
                 // Запускаем слушатель новых сообщений
-                // ВРЕМЕННО ОТКЛЮЧЕНО - используется Node.js скрипт для пересылки сообщений
-                // logger.info("Запускаем слушатель канала...");
-                // telegramService.startListeningChannel();
-                logger.info("Слушатель канала отключен (используется Node.js скрипт для автоматической пересылки)");
+                // По умолчанию отключен - используется Node.js скрипт для пересылки сообщений
+                if (listenerEnabled) {
+                    logger.info("Запускаем слушатель канала...");
+                    telegramChannelListener.start();
+                } else {
+                    logger.info("Слушатель канала отключен (используется Node.js скрипт для автоматической пересылки)");
+                }
                 
                 logger.info("=== Telegram бот успешно инициализирован ===");
             } else {
+                progress.setState(TelegramBackfillProgress.State.DISABLED);
                 logger.warn("Telegram бот не инициализирован. Проверьте настройки в application.properties");
             }
         } catch (Exception e) {
+            progress.fail(e.getMessage());
             logger.error("Ошибка при инициализации Telegram бота", e);
         }
     }
 }
-
@@ -0,0 +1,70 @@
+package com.nestvision.config;
+
+import com.nestvision.entity.Video;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Готовит последовательность videos_seq для id видео до запуска Hibernate
+ *
+ * Раньше id выдавались через IDENTITY. Если таблица videos уже есть, а последовательности еще нет,
+ * создаем ее со стартом после максимального id, чтобы новые id не пересеклись со старыми.
+ * В новой базе последовательность создаст сам Hibernate (ddl-auto=update).
+ */
+@Component
+public class VideoIdSequenceInitializer implements InitializingBean {
+    
+    private static final Logger logger = LoggerFactory.getLogger(VideoIdSequenceInitializer.class);
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @Override
+    public void afterPropertiesSet() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (!relationExists(statement, "videos") || relationExists(statement, "videos_seq")) {
+                return;
+            }
+            
+            long start;
+            try (ResultSet resultSet = statement.executeQuery("select coalesce(max(id), 0) + 1 from videos")) {
+                resultSet.next();
+                start = resultSet.getLong(1);
+            }
+            statement.execute("create sequence if not exists videos_seq start with " + start
+                    + " increment by " + Video.ID_ALLOCATION_SIZE);
+            logger.info("Создана последовательность videos_seq, первый id: {}", start);
+        } catch (SQLException e) {
+            logger.error("Не удалось подготовить последовательность videos_seq", e);
+        }
+    }
+    
+    private boolean relationExists(Statement statement, String name) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("select to_regclass('" + name + "') is not null")) {
+            resultSet.next();
+            return resultSet.getBoolean(1);
+        }
+    }
+    
+    /**
+     * Hibernate проверяет последовательность при старте, поэтому EntityManagerFactory создается после нас
+     */
+    @Component
+    public static class EntityManagerFactoryDependency extends EntityManagerFactoryDependsOnPostProcessor {
+        
+        public EntityManagerFactoryDependency() {
+            super(VideoIdSequenceInitializer.class);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.nestvision.controller;
 
 import com.nestvision.dto.ErrorResponse;
+import com.nestvision.service.UploadException;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -30,5 +32,17 @@ public class GlobalExceptionHandler {
         ErrorResponse errorResponse = new ErrorResponse(message, "VALIDATION_ERROR");
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse);
     }
+    
+    /**
+     * Ошибки загрузки; клиенту tus (он присылает Tus-Resumable) заголовок возвращается и в ответе с ошибкой
+     */
+    @ExceptionHandler(UploadException.class)
+    public ResponseEntity<ErrorResponse> handleUploadException(UploadException ex, HttpServletRequest request) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(ex.getStatus());
+        if (request.getHeader("Tus-Resumable") != null) {
+            response.header("Tus-Resumable", VideoController.TUS_VERSION);
+        }
+        return response.body(new ErrorResponse(ex.getMessage(), ex.getError()));
+    }
 }
 
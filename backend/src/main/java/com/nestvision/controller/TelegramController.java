@@ -1,11 +1,23 @@
 package com.nestvision.controller;
 
+import com.nestvision.dto.TelegramVideoRequest;
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.service.IngestionJobService;
+import com.nestvision.service.JobCoordinator;
+import com.nestvision.service.TelegramChannelListener;
+import com.nestvision.service.TelegramDownloadPool;
 import com.nestvision.service.TelegramService;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.utility.BotUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -16,14 +28,48 @@ public class TelegramController {
     @Autowired
     private TelegramService telegramService;
     
+    @Autowired
+    private TelegramDownloadPool telegramDownloadPool;
+    
+    @Autowired
+    private TelegramChannelListener telegramChannelListener;
+    
+    @Autowired
+    private IngestionJobService ingestionJobService;
+    
+    @Autowired
+    private JobCoordinator jobCoordinator;
+    
+    @Value("${ingestion.jobs.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+    
     @GetMapping("/status")
     public ResponseEntity<Map<String, Object>> getStatus() {
         Map<String, Object> status = new HashMap<>();
         status.put("botInitialized", telegramService.isBotInitialized());
+        status.put("backfillState", telegramService.getBackfillProgress().getState());
         status.put("timestamp", java.time.LocalDateTime.now().toString());
         return ResponseEntity.ok(status);
     }
     
+    /**
+     * Прогресс загрузки видео из канала: состояние, позиция (offset) и скорость
+     */
+    @GetMapping("/backfill")
+    public ResponseEntity<Map<String, Object>> getBackfillProgress() {
+        Map<String, Object> progress = telegramService.getBackfillProgress().toMap();
+        progress.put("downloads", telegramDownloadPool.getStats());
+        return ResponseEntity.ok(progress);
+    }
+    
+    /**
+     * Метрики слушателя канала: опросы, ошибки, задержка от сообщения до вставки в базу
+     */
+    @GetMapping("/listener")
+    public ResponseEntity<Map<String, Object>> getListenerMetrics() {
+        return ResponseEntity.ok(telegramChannelListener.getMetrics());
+    }
+    
     @GetMapping("/bot-info")
     public ResponseEntity<Map<String, Object>> getBotInfo() {
         return ResponseEntity.ok(telegramService.getBotInfo());
@@ -39,8 +85,13 @@ public class TelegramController {
         return ResponseEntity.ok(telegramService.getChannelsList());
     }
     
+    /**
+     * Загрузка видео из канала. Одновременно идет не больше одной загрузки: повторный запрос
+     * присоединяется к текущей. wait=false - не ждать завершения, ход смотреть в /reload/progress
+     */
     @PostMapping("/reload")
-    public ResponseEntity<Map<String, Object>> reloadVideos() {
+    public ResponseEntity<Map<String, Object>> reloadVideos(
+            @RequestParam(value = "wait", defaultValue = "true") boolean wait) {
         Map<String, Object> response = new HashMap<>();
         try {
             if (!telegramService.isBotInitialized()) {
@@ -49,7 +100,15 @@ public class TelegramController {
                 return ResponseEntity.ok(response);
             }
             
-            int loadedCount = telegramService.loadAllVideosFromChannel();
+            JobCoordinator.Submission submission = telegramService.reloadChannel();
+            if (!wait) {
+                response.putAll(submission.toMap());
+                response.put("success", true);
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+            }
+            
+            int loadedCount = submission.run().await();
+            response.putAll(submission.toMap());
             response.put("success", true);
             response.put("loadedCount", loadedCount);
             response.put("message", "Загружено новых видео: " + loadedCount);
@@ -62,13 +121,64 @@ public class TelegramController {
         }
     }
     
+    /**
+     * Ход последней загрузки видео из канала: просмотрено, добавлено, пропущено
+     */
+    @GetMapping("/reload/progress")
+    public ResponseEntity<Map<String, Object>> getReloadProgress() {
+        JobCoordinator.Run run = jobCoordinator.getLastRun(JobCoordinator.TELEGRAM_RELOAD);
+        if (run == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(run.toMap());
+    }
+    
+    /**
+     * Webhook для обновлений Telegram (telegram.ingestion.mode=webhook)
+     * Видео из обновления сохраняется заданием в ingestion_jobs до ответа, поэтому 200 означает, что оно не потеряется.
+     * При переполненной очереди - 429 с Retry-After: Telegram повторит доставку позже
+     */
+    @PostMapping("/webhook")
+    public ResponseEntity<Void> receiveWebhook(
+            @RequestHeader(value = "X-Telegram-Bot-Api-Secret-Token", required = false) String secretToken,
+            @RequestBody String body) {
+        if (!telegramService.isWebhookMode() || !telegramService.isBotInitialized()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!telegramService.isValidWebhookSecret(secretToken)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        
+        Update update;
+        try {
+            update = BotUtils.parseUpdate(body);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (update == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        TelegramVideoRequest video = telegramService.webhookVideo(update);
+        if (video == null) {
+            return ResponseEntity.ok().build();
+        }
+        if (ingestionJobService.submitTelegramBatch(List.of(video)) == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+        return ResponseEntity.ok().build();
+    }
+    
     /**
      * Endpoint для обработки видео из Node.js скрипта
-     * Принимает file_id из Telegram и обрабатывает его
+     * Принимает file_id из Telegram и ставит задание на загрузку (202 Accepted),
+     * при переполненной очереди отвечает 429 с заголовком Retry-After
      */
     @PostMapping("/process-video")
     public ResponseEntity<Map<String, Object>> processVideoFromNode(
             @RequestParam("fileId") String fileId,
+            @RequestParam(value = "fileUniqueId", required = false) String fileUniqueId,
             @RequestParam("fileName") String fileName,
             @RequestParam(value = "messageId", required = false) Long messageId,
             @RequestParam(value = "category", required = false) String categoryStr,
@@ -81,20 +191,113 @@ public class TelegramController {
                 return ResponseEntity.ok(response);
             }
             
-            boolean added = telegramService.processVideoFromFileId(fileId, fileName, messageId, categoryStr, recordedDateTimeStr);
-            if (added) {
-                response.put("success", true);
-                response.put("message", "Видео успешно обработано и добавлено в базу данных");
-            } else {
+            // Скачивание идет в фоне - отвечаем сразу, статус доступен по /jobs/{id}
+            IngestionJob job = ingestionJobService.submitTelegramJob(
+                    fileId, fileUniqueId, fileName, messageId, categoryStr, recordedDateTimeStr);
+            if (job == null) {
                 response.put("success", false);
-                response.put("message", "Видео уже существует или ошибка при обработке");
+                response.put("message", "Слишком много видео в обработке, повторите позже");
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                        .body(response);
             }
+            response.put("success", true);
+            response.put("jobId", job.getId());
+            response.put("status", job.getStatus());
+            response.put("message", "Видео принято в обработку");
             response.put("timestamp", java.time.LocalDateTime.now().toString());
-            return ResponseEntity.ok(response);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Ошибка: " + e.getMessage());
             return ResponseEntity.ok(response);
         }
     }
+    
+    /**
+     * Пакетный вариант /process-video для догрузки канала: JSON-массив видео за один запрос.
+     * Дубликаты отсеиваются сразу, по остальным создаются задания (202 Accepted);
+     * если новые задания не помещаются в очередь - 429 с заголовком Retry-After
+     */
+    @PostMapping("/process-videos")
+    public ResponseEntity<Map<String, Object>> processVideosFromNode(@RequestBody List<TelegramVideoRequest> videos) {
+        Map<String, Object> response = new HashMap<>();
+        if (!telegramService.isBotInitialized()) {
+            response.put("success", false);
+            response.put("message", "Telegram бот не инициализирован");
+            return ResponseEntity.ok(response);
+        }
+        
+        for (TelegramVideoRequest video : videos) {
+            if (video == null || isBlank(video.getFileId()) || isBlank(video.getFileName())) {
+                response.put("success", false);
+                response.put("message", "Для каждого видео обязательны fileId и fileName");
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
+        if (videos.size() > ingestionJobService.getMaxPending()) {
+            response.put("success", false);
+            response.put("message", "В пакете не больше " + ingestionJobService.getMaxPending() + " видео");
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(response);
+        }
+        
+        IngestionJobService.BatchSubmission submission = ingestionJobService.submitTelegramBatch(videos);
+        if (submission == null) {
+            response.put("success", false);
+            response.put("message", "Слишком много видео в обработке, повторите позже");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(response);
+        }
+        
+        List<Map<String, Object>> jobs = submission.jobs().stream()
+                .map(job -> {
+                    Map<String, Object> item = new HashMap<>();
+                    item.put("jobId", job.getId());
+                    item.put("fileId", job.getTelegramFileId());
+                    item.put("status", job.getStatus());
+                    return item;
+                })
+                .toList();
+        response.put("success", true);
+        response.put("jobs", jobs);
+        response.put("duplicates", submission.duplicates().stream().map(TelegramVideoRequest::getFileId).toList());
+        response.put("message", "Принято в обработку: " + jobs.size() + ", уже есть: " + submission.duplicates().size());
+        response.put("timestamp", java.time.LocalDateTime.now().toString());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+    
+    /**
+     * Очередь заданий загрузки: глубина по типам и статусам, время ожидания и выполнения
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> getJobQueueStats() {
+        return ResponseEntity.ok(ingestionJobService.getQueueStats());
+    }
+    
+    /**
+     * Статус задания на загрузку видео, принятого через /process-video
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable Long id) {
+        IngestionJob job = ingestionJobService.getJob(id).orElse(null);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", job.getId());
+        response.put("type", job.getType());
+        response.put("status", job.getStatus());
+        response.put("fileName", job.getFileName());
+        response.put("attempts", job.getAttempts());
+        response.put("error", job.getError());
+        response.put("createdAt", job.getCreatedAt());
+        response.put("startedAt", job.getStartedAt());
+        response.put("finishedAt", job.getFinishedAt());
+        return ResponseEntity.ok(response);
+    }
+    
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
 }
@@ -1,19 +1,33 @@
 package com.nestvision.controller;
 
+import com.nestvision.config.StreamUrlSigner;
+import com.nestvision.dto.ErrorResponse;
+import com.nestvision.dto.VideoPageResponse;
 import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.UploadSession;
 import com.nestvision.entity.VideoCategory;
+import com.nestvision.service.JobCoordinator;
+import com.nestvision.service.UploadException;
+import com.nestvision.service.UploadSessionService;
 import com.nestvision.service.VideoService;
 import com.nestvision.service.VideoFolderScanner;
+import com.nestvision.service.VideoStreamService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +43,20 @@ public class VideoController {
     @Autowired
     private VideoFolderScanner videoFolderScanner;
     
+    @Autowired
+    private VideoStreamService videoStreamService;
+    
+    @Autowired
+    private JobCoordinator jobCoordinator;
+    
+    @Autowired
+    private StreamUrlSigner streamUrlSigner;
+    
+    @Autowired
+    private UploadSessionService uploadSessionService;
+    
+    static final String TUS_VERSION = "1.0.0";
+    
     @GetMapping
     public ResponseEntity<List<VideoResponse>> getAllVideos() {
         List<VideoResponse> videos = videoService.getAllVideos();
@@ -41,20 +69,77 @@ public class VideoController {
         return ResponseEntity.ok(videos);
     }
     
+    /**
+     * Постраничный список видео с курсором (keyset-пагинация по recorded_at, id)
+     * Для следующей страницы передайте nextCursor из предыдущего ответа
+     */
+    @GetMapping("/page")
+    public ResponseEntity<?> getVideosPage(
+            @RequestParam(value = "category", required = false) VideoCategory category,
+            @RequestParam(value = "from", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(value = "to", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size) {
+        try {
+            VideoPageResponse page = videoService.getVideosPage(category, from, to, cursor, size);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            ErrorResponse errorResponse = new ErrorResponse(e.getMessage(), "INVALID_CURSOR");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+    }
+    
     @GetMapping("/{id}")
     public ResponseEntity<VideoResponse> getVideoById(@PathVariable Long id) {
         VideoResponse video = videoService.getVideoById(id);
         return ResponseEntity.ok(video);
     }
     
+    /**
+     * Поток видео с поддержкой Range-запросов (перемотка в плеере)
+     */
     @GetMapping("/{id}/stream")
-    public ResponseEntity<Resource> streamVideo(@PathVariable Long id) {
-        Resource resource = videoService.getVideoResource(id);
+    public void streamVideo(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        VideoResponse video = videoService.getVideoById(id);
+        videoStreamService.stream(Paths.get(video.getFilePath()), request, response);
+    }
+    
+    /**
+     * Выдает подписанную ссылку на поток видео с ограниченным сроком действия
+     * Запросы по этой ссылке не проходят проверку JWT; путь к файлу берется по id из каталога видео
+     */
+    @GetMapping("/{id}/stream-url")
+    public ResponseEntity<Map<String, Object>> getStreamUrl(@PathVariable Long id) {
+        VideoResponse video = videoService.getVideoById(id);
+        Instant expiresAt = streamUrlSigner.newExpiry();
+        String token = streamUrlSigner.sign(video.getId(), expiresAt);
         
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("video/mp4"))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                .body(resource);
+        Map<String, Object> response = new HashMap<>();
+        response.put("url", "/api/videos/stream/" + token);
+        response.put("expiresAt", expiresAt.toString());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Поток видео по подписанной ссылке из /{id}/stream-url
+     */
+    @GetMapping("/stream/{token}")
+    public void streamSignedVideo(@PathVariable String token, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Long videoId = streamUrlSigner.verify(token);
+        if (videoId == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid or expired stream link");
+            return;
+        }
+        VideoResponse video = videoService.findVideoById(videoId);
+        if (video == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Video not found");
+            return;
+        }
+        videoStreamService.stream(Paths.get(video.getFilePath()), request, response);
     }
     
     @PostMapping("/upload")
@@ -77,18 +162,158 @@ public class VideoController {
         return ResponseEntity.status(HttpStatus.CREATED).body(video);
     }
     
+    /**
+     * Потоковая загрузка: форма та же, что у /upload (file, category, recordedAt), но тело
+     * разбирается по ходу чтения и файл пишется сразу в хранилище, без временного файла контейнера
+     * Параметры передаются только частями формы: контейнер этот запрос не разбирает (см. MultipartConfig)
+     */
+    @PostMapping(value = "/upload-stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<VideoResponse> uploadVideoStream(HttpServletRequest request) throws IOException {
+        VideoResponse video = videoService.uploadVideoStream(request.getContentType(), request.getInputStream());
+        return ResponseEntity.status(HttpStatus.CREATED).body(video);
+    }
+    
+    /**
+     * Создает возобновляемую загрузку (tus) для больших файлов
+     * Upload-Length - полный размер файла, Upload-Metadata - пары "ключ base64(значение)" через запятую:
+     * filename, category (обязательно), recordedAt, sha256 (hex, проверяется после последнего куска)
+     * Куски отправляются PATCH на адрес из Location
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<Void> createUpload(
+            @RequestHeader("Upload-Length") long uploadLength,
+            @RequestHeader(value = "Upload-Metadata", required = false) String uploadMetadata) {
+        Map<String, String> metadata = parseUploadMetadata(uploadMetadata);
+        VideoCategory category;
+        try {
+            category = VideoCategory.valueOf(metadata.getOrDefault("category", ""));
+        } catch (IllegalArgumentException e) {
+            throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_CATEGORY",
+                    "Unknown category: " + metadata.get("category"));
+        }
+        LocalDateTime recordedAt = null;
+        String recordedAtStr = metadata.get("recordedAt");
+        if (recordedAtStr != null && !recordedAtStr.isEmpty()) {
+            try {
+                recordedAt = LocalDateTime.parse(recordedAtStr);
+            } catch (Exception e) {
+                recordedAt = LocalDateTime.now();
+            }
+        }
+        
+        UploadSession session = uploadSessionService.create(uploadLength, metadata.get("filename"), category,
+                recordedAt, metadata.get("sha256"));
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header("Tus-Resumable", TUS_VERSION)
+                .header("Location", "/api/videos/uploads/" + session.getId())
+                .header("Upload-Offset", "0")
+                .build();
+    }
+    
+    /**
+     * Текущее смещение загрузки: с него клиент продолжает после обрыва
+     */
+    @RequestMapping(value = "/uploads/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getUploadOffset(@PathVariable String id) {
+        UploadSession session = uploadSessionService.resume(id);
+        return ResponseEntity.ok()
+                .header("Tus-Resumable", TUS_VERSION)
+                .header("Upload-Offset", String.valueOf(session.getUploadOffset()))
+                .header("Upload-Length", String.valueOf(session.getUploadLength()))
+                .header("Cache-Control", "no-store")
+                .build();
+    }
+    
+    /**
+     * Принимает кусок файла начиная с Upload-Offset (тело запроса пишется прямо в файл загрузки)
+     * После последнего куска файл проверяется по sha256 и добавляется как видео (id - в GET /uploads/{id})
+     */
+    @PatchMapping(value = "/uploads/{id}", consumes = "application/offset+octet-stream")
+    public ResponseEntity<Void> patchUpload(@PathVariable String id,
+                                         @RequestHeader("Upload-Offset") long uploadOffset,
+                                         HttpServletRequest request) throws IOException {
+        UploadSession session = uploadSessionService.patch(id, uploadOffset, request.getContentLengthLong(),
+                request.getInputStream());
+        return ResponseEntity.noContent()
+                .header("Tus-Resumable", TUS_VERSION)
+                .header("Upload-Offset", String.valueOf(session.getUploadOffset()))
+                .build();
+    }
+    
+    /**
+     * Состояние загрузки: смещение, статус и id созданного видео
+     */
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<Map<String, Object>> getUpload(@PathVariable String id) {
+        UploadSession session = uploadSessionService.resume(id);
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", session.getId());
+        response.put("status", session.getStatus());
+        response.put("fileName", session.getFileName());
+        response.put("uploadLength", session.getUploadLength());
+        response.put("uploadOffset", session.getUploadOffset());
+        response.put("videoId", session.getVideoId());
+        return ResponseEntity.ok().header("Cache-Control", "no-store").body(response);
+    }
+    
+    /**
+     * Разбирает Upload-Metadata: "ключ base64,ключ base64"
+     */
+    private Map<String, String> parseUploadMetadata(String header) {
+        Map<String, String> metadata = new HashMap<>();
+        if (header == null || header.isBlank()) {
+            return metadata;
+        }
+        for (String pair : header.split(",")) {
+            String[] parts = pair.trim().split(" ", 2);
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            try {
+                String value = parts.length > 1 ? new String(Base64.getDecoder().decode(parts[1].trim()), StandardCharsets.UTF_8) : "";
+                metadata.put(parts[0], value);
+            } catch (IllegalArgumentException e) {
+                throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_METADATA",
+                        "Upload-Metadata value for " + parts[0] + " is not base64");
+            }
+        }
+        return metadata;
+    }
+    
     /**
      * Сканирует папку с видео и добавляет новые файлы в базу данных
      * Полезно, если вы добавили видео напрямую в папку
      * Также можно использовать для тестирования перед автоматическим запуском в 00:00
+     * Одновременно идет не больше одного сканирования: повторный запрос присоединяется к текущему.
+     * wait=false - не ждать завершения, ход смотреть в /scan-folder/progress
      */
     @PostMapping("/scan-folder")
-    public ResponseEntity<Map<String, Object>> scanFolder() {
-        int addedCount = videoFolderScanner.scanAndAddVideos();
-        Map<String, Object> response = new HashMap<>();
+    public ResponseEntity<Map<String, Object>> scanFolder(
+            @RequestParam(value = "wait", defaultValue = "true") boolean wait) {
+        JobCoordinator.Submission submission = videoFolderScanner.requestScan();
+        Map<String, Object> response = new HashMap<>(submission.toMap());
+        if (!wait) {
+            response.put("message", "Сканирование запущено");
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        }
+        
+        int addedCount = submission.run().await();
+        response.putAll(submission.toMap());
         response.put("message", "Сканирование завершено");
         response.put("addedCount", addedCount);
         response.put("timestamp", java.time.LocalDateTime.now().toString());
         return ResponseEntity.ok(response);
     }
+    
+    /**
+     * Ход последнего сканирования папки: просмотрено, добавлено, пропущено
+     */
+    @GetMapping("/scan-folder/progress")
+    public ResponseEntity<Map<String, Object>> getScanProgress() {
+        JobCoordinator.Run run = jobCoordinator.getLastRun(JobCoordinator.FOLDER_SCAN);
+        if (run == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(run.toMap());
+    }
 }
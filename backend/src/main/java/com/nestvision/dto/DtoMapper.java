@@ -24,7 +24,11 @@ public class DtoMapper {
             video.getRecordedAt(),
             video.getUploadedAt(),
             video.getDuration(),
-            video.getSize()
+            video.getSize(),
+            video.getWidth(),
+            video.getHeight(),
+            video.getVideoCodec(),
+            video.getBitrate()
         );
     }
 }
@@ -0,0 +1,29 @@
+package com.nestvision.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Одно видео из канала в пакетном запросе Node.js скрипта (POST /api/telegram/process-videos)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TelegramVideoRequest {
+    
+    @NotBlank(message = "fileId is required")
+    private String fileId;
+    
+    private String fileUniqueId;
+    
+    @NotBlank(message = "fileName is required")
+    private String fileName;
+    
+    private Long messageId;
+    
+    private String category;
+    
+    private String recordedDateTime;
+}
@@ -0,0 +1,16 @@
+package com.nestvision.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VideoPageResponse {
+    private List<VideoResponse> items;
+    private String nextCursor;
+    private boolean hasMore;
+}
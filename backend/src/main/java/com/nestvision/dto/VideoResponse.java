@@ -19,5 +19,9 @@ public class VideoResponse {
     private LocalDateTime uploadedAt;
     private Long duration;
     private Long size;
+    private Integer width;
+    private Integer height;
+    private String videoCodec;
+    private Long bitrate;
 }
 
@@ -0,0 +1,87 @@
+package com.nestvision.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
+
+/**
+ * Задание на загрузку видео (файл из Telegram или из папки категории)
+ * Очередь общая для всех экземпляров backend: задание забирает тот, кто первым захватит
+ * аренду (lease_owner, lease_until); просроченная аренда означает, что исполнитель упал
+ */
+@Entity
+@Table(name = "ingestion_jobs",
+    indexes = {
+        @Index(name = "idx_ingestion_jobs_status", columnList = "status"),
+        @Index(name = "idx_ingestion_jobs_status_next_attempt", columnList = "status, next_attempt_at")
+    })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionJob {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ingestion_jobs_seq")
+    @SequenceGenerator(name = "ingestion_jobs_seq", sequenceName = "ingestion_jobs_seq", allocationSize = 50)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @ColumnDefault("'TELEGRAM_FILE'")
+    @Column(name = "job_type", nullable = false, length = 20)
+    private IngestionJobType type;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private IngestionJobStatus status;
+    
+    @Column(name = "telegram_file_id")
+    private String telegramFileId;
+    
+    @Column(name = "telegram_file_unique_id")
+    private String telegramFileUniqueId;
+    
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+    
+    // Для FOLDER_FILE - путь к файлу в папке категории
+    @Column(name = "file_path", length = 1000)
+    private String filePath;
+    
+    @Column(name = "telegram_message_id")
+    private Long telegramMessageId;
+    
+    @Column(length = 64)
+    private String category;
+    
+    @Column(name = "recorded_date_time", length = 64)
+    private String recordedDateTime;
+    
+    @Column(nullable = false)
+    private int attempts;
+    
+    @Column(length = 1000)
+    private String error;
+    
+    // Не раньше этого времени задание берется повторно после ошибки
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+    
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+    
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+    
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,9 @@
+package com.nestvision.entity;
+
+public enum IngestionJobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    DUPLICATE,
+    FAILED
+}
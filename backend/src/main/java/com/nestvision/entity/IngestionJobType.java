@@ -0,0 +1,10 @@
+package com.nestvision.entity;
+
+public enum IngestionJobType {
+    // Видео из Telegram по file_id (Node.js скрипт)
+    TELEGRAM_FILE,
+    // Файл, появившийся в папке категории
+    FOLDER_FILE,
+    // Перенос moov в начало файла из ContentStore (faststart)
+    FASTSTART
+}
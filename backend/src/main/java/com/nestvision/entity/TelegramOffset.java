@@ -0,0 +1,30 @@
+package com.nestvision.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Последний обработанный update_id Telegram (getUpdates)
+ * Обновляется в той же транзакции, что и вставка видео пачки обновлений
+ */
+@Entity
+@Table(name = "telegram_offsets")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TelegramOffset {
+    
+    @Id
+    @Column(length = 64)
+    private String name;
+    
+    @Column(name = "last_update_id", nullable = false)
+    private Long lastUpdateId;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
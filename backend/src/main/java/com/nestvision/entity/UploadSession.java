@@ -0,0 +1,71 @@
+package com.nestvision.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Возобновляемая загрузка видео по частям (tus)
+ * Файл создается сразу полного размера во временной папке ContentStore, куски пишутся на свои смещения;
+ * upload_offset - сколько байт от начала файла уже принято и сброшено на диск
+ */
+@Entity
+@Table(name = "upload_sessions",
+    indexes = {
+        @Index(name = "idx_upload_sessions_updated_at", columnList = "updated_at")
+    })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+    
+    @Id
+    @Column(length = 36)
+    private String id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private UploadSessionStatus status;
+    
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private VideoCategory category;
+    
+    @Column(name = "recorded_at")
+    private LocalDateTime recordedAt;
+    
+    @Column(name = "upload_length", nullable = false)
+    private long uploadLength;
+    
+    @Column(name = "upload_offset", nullable = false)
+    private long uploadOffset;
+    
+    // SHA-256 всего файла от клиента (hex), проверяется после последнего куска
+    @Column(name = "expected_sha256", length = 64)
+    private String expectedSha256;
+    
+    @Column(name = "temp_path", length = 1000)
+    private String tempPath;
+    
+    // Хэш и путь blob сохраняются до переноса файла и создания видео, чтобы оборванное завершение можно было повторить
+    @Column(name = "content_sha256", length = 64)
+    private String contentSha256;
+    
+    @Column(name = "blob_path", length = 1000)
+    private String blobPath;
+    
+    @Column(name = "video_id")
+    private Long videoId;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
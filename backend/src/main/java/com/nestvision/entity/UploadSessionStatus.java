@@ -0,0 +1,7 @@
+package com.nestvision.entity;
+
+public enum UploadSessionStatus {
+    IN_PROGRESS,
+    COMPLETED,
+    FAILED
+}
@@ -8,14 +8,31 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "videos")
+@Table(name = "videos",
+    uniqueConstraints = {
+        @UniqueConstraint(name = "uk_videos_telegram_file_id", columnNames = "telegram_file_id"),
+        @UniqueConstraint(name = "uk_videos_telegram_file_unique_id", columnNames = "telegram_file_unique_id"),
+        @UniqueConstraint(name = "uk_videos_file_path", columnNames = "file_path"),
+        @UniqueConstraint(name = "uk_videos_content_sha256", columnNames = "content_sha256")
+    },
+    indexes = {
+        @Index(name = "idx_videos_telegram_message_id", columnList = "telegram_message_id"),
+        @Index(name = "idx_videos_file_name_size", columnList = "file_name, file_size"),
+        // Индексы под keyset-пагинацию по (recorded_at, id)
+        @Index(name = "idx_videos_recorded_at_id", columnList = "recorded_at, id"),
+        @Index(name = "idx_videos_category_recorded_at_id", columnList = "category, recorded_at, id")
+    })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class Video {
     
+    public static final int ID_ALLOCATION_SIZE = 50;
+    
+    // Последовательность с выделением блоками (pooled-lo) - в отличие от IDENTITY не отключает JDBC batching
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "videos_seq")
+    @SequenceGenerator(name = "videos_seq", sequenceName = "videos_seq", allocationSize = Video.ID_ALLOCATION_SIZE)
     private Long id;
     
     @Column(name = "file_name", nullable = false)
@@ -40,12 +57,30 @@ public class Video {
     @Column(name = "file_size")
     private Long size; // в байтах
     
+    @Column(name = "width")
+    private Integer width; // размер кадра в пикселях (с учетом поворота)
+    
+    @Column(name = "height")
+    private Integer height;
+    
+    @Column(name = "video_codec", length = 16)
+    private String videoCodec; // формат из stsd: avc1, hvc1, ...
+    
+    @Column(name = "bitrate")
+    private Long bitrate; // средний битрейт файла, бит/с
+    
     @Column(name = "telegram_file_id")
     private String telegramFileId; // ID файла в Telegram для проверки дубликатов
     
+    @Column(name = "telegram_file_unique_id")
+    private String telegramFileUniqueId; // file_unique_id из Telegram - не меняется между ботами и со временем
+    
     @Column(name = "telegram_message_id")
     private Long telegramMessageId; // ID сообщения в Telegram
     
+    @Column(name = "content_sha256", length = 64)
+    private String contentSha256; // SHA-256 содержимого - одинаковые ролики из разных источников хранятся один раз
+    
     @PrePersist
     protected void onCreate() {
         if (uploadedAt == null) {
@@ -0,0 +1,95 @@
+package com.nestvision.repository;
+
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.entity.IngestionJobStatus;
+import com.nestvision.entity.IngestionJobType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+    
+    long countByTypeAndStatusIn(IngestionJobType type, Collection<IngestionJobStatus> statuses);
+    
+    /**
+     * Advisory-блокировка PostgreSQL до конца текущей транзакции (вызывать только внутри нее)
+     */
+    @Query(value = "select 1 from (select pg_advisory_xact_lock(:key)) as locked", nativeQuery = true)
+    int lockTransaction(@Param("key") long key);
+    
+    /**
+     * Захватывает до limit готовых к выполнению заданий одним запросом: ожидающие (с наступившим
+     * next_attempt_at) и выполняющиеся с просроченной арендой. SKIP LOCKED пропускает строки,
+     * которые в этот момент захватывает другой экземпляр, поэтому задание достается ровно одному
+     */
+    @Transactional
+    @Query(value = "update ingestion_jobs set status = 'RUNNING', lease_owner = :owner, lease_until = :leaseUntil, " +
+                   "started_at = :now, attempts = attempts + 1 " +
+                   "where id in (select id from ingestion_jobs " +
+                   "where (status = 'QUEUED' and (next_attempt_at is null or next_attempt_at <= :now)) " +
+                   "or (status = 'RUNNING' and (lease_until is null or lease_until < :now)) " +
+                   "order by id limit :limit for update skip locked) " +
+                   "returning *",
+           nativeQuery = true)
+    List<IngestionJob> claim(@Param("owner") String owner,
+                             @Param("now") LocalDateTime now,
+                             @Param("leaseUntil") LocalDateTime leaseUntil,
+                             @Param("limit") int limit);
+    
+    @Modifying
+    @Transactional
+    @Query("update IngestionJob j set j.leaseUntil = :leaseUntil where j.id in :ids and j.leaseOwner = :owner")
+    int extendLeases(@Param("ids") Collection<Long> ids,
+                     @Param("owner") String owner,
+                     @Param("leaseUntil") LocalDateTime leaseUntil);
+    
+    /**
+     * Завершает задание, если аренда все еще наша (иначе его уже перехватил другой экземпляр)
+     */
+    @Modifying
+    @Transactional
+    @Query("update IngestionJob j set j.status = :status, j.error = :error, j.finishedAt = :finishedAt, " +
+           "j.leaseOwner = null, j.leaseUntil = null where j.id = :id and j.leaseOwner = :owner")
+    int complete(@Param("id") Long id,
+                 @Param("owner") String owner,
+                 @Param("status") IngestionJobStatus status,
+                 @Param("error") String error,
+                 @Param("finishedAt") LocalDateTime finishedAt);
+    
+    @Modifying
+    @Transactional
+    @Query("update IngestionJob j set j.status = com.nestvision.entity.IngestionJobStatus.QUEUED, j.error = :error, " +
+           "j.nextAttemptAt = :nextAttemptAt, j.leaseOwner = null, j.leaseUntil = null " +
+           "where j.id = :id and j.leaseOwner = :owner")
+    int retryLater(@Param("id") Long id,
+                   @Param("owner") String owner,
+                   @Param("error") String error,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+    
+    /**
+     * Возвращает в очередь задания этого экземпляра при остановке - не дожидаясь истечения аренды
+     */
+    @Modifying
+    @Transactional
+    @Query("update IngestionJob j set j.status = com.nestvision.entity.IngestionJobStatus.QUEUED, " +
+           "j.leaseOwner = null, j.leaseUntil = null " +
+           "where j.leaseOwner = :owner and j.status = com.nestvision.entity.IngestionJobStatus.RUNNING")
+    int releaseLeases(@Param("owner") String owner);
+    
+    @Query("select j.type as type, j.status as status, count(j) as count from IngestionJob j group by j.type, j.status")
+    List<StatusCount> countByTypeAndStatus();
+    
+    interface StatusCount {
+        IngestionJobType getType();
+        IngestionJobStatus getStatus();
+        long getCount();
+    }
+}
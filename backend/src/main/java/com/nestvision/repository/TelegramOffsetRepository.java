@@ -0,0 +1,29 @@
+package com.nestvision.repository;
+
+import com.nestvision.entity.TelegramOffset;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface TelegramOffsetRepository extends JpaRepository<TelegramOffset, String> {
+    
+    /**
+     * Сдвигает offset вперед одним запросом (upsert): строка создается при первой фиксации,
+     * а параллельные фиксации не откатывают друг друга - остается наибольший last_update_id
+     */
+    @Modifying
+    @Query(value = "insert into telegram_offsets (name, last_update_id, updated_at) " +
+                   "values (:name, :lastUpdateId, :updatedAt) " +
+                   "on conflict (name) do update set " +
+                   "last_update_id = greatest(telegram_offsets.last_update_id, excluded.last_update_id), " +
+                   "updated_at = excluded.updated_at",
+           nativeQuery = true)
+    int advance(@Param("name") String name,
+                @Param("lastUpdateId") long lastUpdateId,
+                @Param("updatedAt") LocalDateTime updatedAt);
+}
@@ -0,0 +1,32 @@
+package com.nestvision.repository;
+
+import com.nestvision.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    
+    List<UploadSession> findByUpdatedAtBefore(LocalDateTime cutoff);
+    
+    /**
+     * Сдвигает смещение, только если оно не изменилось с начала записи куска
+     * (кусок по тому же смещению не могли принять дважды, например на другом экземпляре)
+     */
+    @Modifying
+    @Transactional
+    @Query("update UploadSession s set s.uploadOffset = :offset, s.updatedAt = :updatedAt " +
+           "where s.id = :id and s.uploadOffset = :expectedOffset " +
+           "and s.status = com.nestvision.entity.UploadSessionStatus.IN_PROGRESS")
+    int advanceOffset(@Param("id") String id,
+                      @Param("expectedOffset") long expectedOffset,
+                      @Param("offset") long offset,
+                      @Param("updatedAt") LocalDateTime updatedAt);
+}
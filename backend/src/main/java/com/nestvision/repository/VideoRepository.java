@@ -1,15 +1,143 @@
 package com.nestvision.repository;
 
+import com.nestvision.dto.VideoResponse;
 import com.nestvision.entity.Video;
 import com.nestvision.entity.VideoCategory;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface VideoRepository extends JpaRepository<Video, Long> {
-    List<Video> findByCategoryOrderByRecordedAtDesc(VideoCategory category);
-    List<Video> findAllByOrderByRecordedAtDesc();
+    
+    // Списки читаются сразу в VideoResponse: без managed-сущностей в persistence context и без dirty checking
+    String VIDEO_RESPONSE_SELECT = "select new com.nestvision.dto.VideoResponse(v.id, v.fileName, v.filePath, " +
+            "v.category, v.recordedAt, v.uploadedAt, v.duration, v.size, v.width, v.height, v.videoCodec, v.bitrate) " +
+            "from Video v ";
+    
+    @Query(VIDEO_RESPONSE_SELECT + "order by v.recordedAt desc, v.id desc")
+    List<VideoResponse> findAllResponses();
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.category = :category order by v.recordedAt desc, v.id desc")
+    List<VideoResponse> findResponsesByCategory(@Param("category") VideoCategory category);
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.id = :id")
+    Optional<VideoResponse> findResponseById(@Param("id") Long id);
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.filePath = :filePath")
+    Optional<VideoResponse> findResponseByFilePath(@Param("filePath") String filePath);
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.contentSha256 = :contentSha256")
+    Optional<VideoResponse> findResponseByContentSha256(@Param("contentSha256") String contentSha256);
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.id > :id order by v.id")
+    List<VideoResponse> findResponsesByIdGreaterThan(@Param("id") long id);
+    
+    // Число строк и наибольший id - по ним VideoCatalog замечает видео других экземпляров
+    @Query("select count(v) as count, max(v.id) as maxId from Video v")
+    CatalogStats getCatalogStats();
+    
+    // Потоковое чтение всей таблицы для VideoCatalog - требует открытой транзакции
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query(VIDEO_RESPONSE_SELECT + "order by v.recordedAt, v.id")
+    Stream<VideoResponse> streamAllResponsesOrderByRecordedAt();
+    
+    /**
+     * Страница видео после курсора (cursorAt, cursorId) в порядке recorded_at desc, id desc
+     * Условие по курсору раскрыто так, чтобы использовался индекс (recorded_at, id)
+     */
+    @Query(VIDEO_RESPONSE_SELECT + "where v.recordedAt >= :from and v.recordedAt < :to " +
+           "and v.recordedAt <= :cursorAt and (v.recordedAt < :cursorAt or v.id < :cursorId) " +
+           "order by v.recordedAt desc, v.id desc")
+    List<VideoResponse> findPage(@Param("from") LocalDateTime from,
+                                 @Param("to") LocalDateTime to,
+                                 @Param("cursorAt") LocalDateTime cursorAt,
+                                 @Param("cursorId") Long cursorId,
+                                 Limit limit);
+    
+    @Query(VIDEO_RESPONSE_SELECT + "where v.category = :category " +
+           "and v.recordedAt >= :from and v.recordedAt < :to " +
+           "and v.recordedAt <= :cursorAt and (v.recordedAt < :cursorAt or v.id < :cursorId) " +
+           "order by v.recordedAt desc, v.id desc")
+    List<VideoResponse> findPageByCategory(@Param("category") VideoCategory category,
+                                           @Param("from") LocalDateTime from,
+                                           @Param("to") LocalDateTime to,
+                                           @Param("cursorAt") LocalDateTime cursorAt,
+                                           @Param("cursorId") Long cursorId,
+                                           Limit limit);
+    
+    // Проверки дубликатов при загрузке - каждая опирается на индекс из Video
+    boolean existsByTelegramFileId(String telegramFileId);
+    boolean existsByTelegramFileUniqueId(String telegramFileUniqueId);
+    boolean existsByTelegramMessageId(Long telegramMessageId);
+    boolean existsByFileNameAndSize(String fileName, Long size);
+    boolean existsByFilePath(String filePath);
+    boolean existsByContentSha256(String contentSha256);
+    
+    /**
+     * Какие из переданных путей уже есть в базе - одна проверка на пачку файлов при сканировании папки
+     */
+    @Query("select v.filePath from Video v where v.filePath in :filePaths")
+    List<String> findExistingFilePaths(@Param("filePaths") Collection<String> filePaths);
+    
+    @Query("select v.contentSha256 from Video v where v.contentSha256 in :hashes")
+    List<String> findExistingContentHashes(@Param("hashes") Collection<String> hashes);
+    
+    /**
+     * Telegram-идентификаторы уже сохраненных видео, совпадающих с пакетом по любому из ключей -
+     * одна проверка на весь пакет от Node.js скрипта
+     */
+    @Query("select v.telegramFileId as telegramFileId, v.telegramFileUniqueId as telegramFileUniqueId, " +
+           "v.telegramMessageId as telegramMessageId from Video v " +
+           "where v.telegramFileId in :fileIds or v.telegramFileUniqueId in :fileUniqueIds " +
+           "or v.telegramMessageId in :messageIds")
+    List<TelegramKeys> findExistingTelegramKeys(@Param("fileIds") Collection<String> fileIds,
+                                                @Param("fileUniqueIds") Collection<String> fileUniqueIds,
+                                                @Param("messageIds") Collection<Long> messageIds);
+    
+    /**
+     * Атомарная вставка: если запись с тем же telegram_file_unique_id, telegram_file_id,
+     * file_path или content_sha256 уже есть, ничего не делает.
+     * Нативный запрос: в JPQL нет on conflict, а id берется прямо из videos_seq - nextval резервирует
+     * целый блок pooled-lo, поэтому с id, которые Hibernate раздает из своих блоков, он не пересекается
+     * (остаток блока просто пропускается)
+     * @return 1 если запись добавлена, 0 если такое видео уже было в базе
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "insert into videos (id, file_name, file_path, category, recorded_at, uploaded_at, duration, " +
+           "file_size, width, height, video_codec, bitrate, " +
+           "telegram_file_id, telegram_file_unique_id, telegram_message_id, content_sha256) " +
+           "values (nextval('videos_seq'), :#{#video.fileName}, :#{#video.filePath}, :#{#video.category.name()}, " +
+           ":#{#video.recordedAt}, coalesce(:#{#video.uploadedAt}, localtimestamp), :#{#video.duration}, " +
+           ":#{#video.size}, :#{#video.width}, :#{#video.height}, :#{#video.videoCodec}, :#{#video.bitrate}, " +
+           ":#{#video.telegramFileId}, :#{#video.telegramFileUniqueId}, :#{#video.telegramMessageId}, " +
+           ":#{#video.contentSha256}) " +
+           "on conflict do nothing", nativeQuery = true)
+    int insertIfAbsent(@Param("video") Video video);
+    
+    interface TelegramKeys {
+        String getTelegramFileId();
+        String getTelegramFileUniqueId();
+        Long getTelegramMessageId();
+    }
+    
+    interface CatalogStats {
+        long getCount();
+        Long getMaxId();
+    }
 }
-
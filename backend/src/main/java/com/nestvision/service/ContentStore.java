@@ -0,0 +1,269 @@
+package com.nestvision.service;
+
+import com.nestvision.repository.VideoRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище видео по содержимому: blobs/ab/cd/<sha256>.<ext>
+ *
+ * Байты хэшируются SHA-256 в том же проходе, в котором пишутся на диск (во временный файл),
+ * затем файл атомарно переносится под имя своего хэша. Одинаковое содержимое хранится один раз,
+ * а разные ролики с одним именем файла больше не перезаписывают друг друга.
+ * Хэш - от содержимого в том виде, в каком оно пришло: FaststartRewriter может потом переставить
+ * боксы MP4 в файле, но имя и content_sha256 остаются прежними.
+ * Запись в videos ссылается на blob через file_path и content_sha256 (уникальный индекс).
+ * Расширение входит в имя blob (по нему определяется Content-Type при отдаче), поэтому одно содержимое
+ * с разными расширениями дает второй blob - он удаляется, когда вставка видео упирается в content_sha256.
+ * При старте из tmp удаляются брошенные временные файлы старше video.storage.tmp-max-age-hours.
+ */
+@Component
+public class ContentStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+    
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final Pattern EXTENSION = Pattern.compile("[a-z0-9]{1,8}");
+    private static final String DEFAULT_EXTENSION = "mp4";
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Value("${video.storage.path}")
+    private String storagePath;
+    
+    @Value("${video.storage.tmp-max-age-hours:24}")
+    private long tmpMaxAgeHours;
+    
+    // Временные файлы загрузок tus живут, пока жива сессия - их не трогаем раньше
+    @Value("${video.upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+    
+    private Path blobsPath;
+    
+    private Path tmpPath;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        blobsPath = Paths.get(storagePath, "blobs").toAbsolutePath();
+        tmpPath = blobsPath.resolve("tmp");
+        Files.createDirectories(tmpPath);
+        sweepTemp();
+    }
+    
+    /**
+     * Удаляет временные файлы (.tmp, .part, .ranges), брошенные упавшими загрузками и скачиваниями
+     * Свежие файлы остаются: по .part докачка продолжается после перезапуска, а хранилище может
+     * быть общим с другим экземпляром, который пишет в него прямо сейчас
+     */
+    void sweepTemp() {
+        Instant staleBefore = Instant.now().minus(Duration.ofHours(Math.max(tmpMaxAgeHours, sessionTtlHours)));
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpPath, "*.{tmp,part,ranges}")) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(staleBefore) && Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Не удалось удалить временный файл {}: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось очистить {}: {}", tmpPath, e.getMessage());
+        }
+        if (removed > 0) {
+            logger.info("Удалено брошенных временных файлов: {}", removed);
+        }
+    }
+    
+    /**
+     * Сохраняет поток в хранилище, вычисляя хэш по ходу записи
+     */
+    public Blob store(InputStream in, String fileName) throws IOException {
+        MessageDigest digest = newDigest();
+        Path tmp = newTempFile();
+        try {
+            long size = 0;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    size += read;
+                }
+                channel.force(true);
+            }
+            return commit(tmp, digest, size, fileName);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    
+    /**
+     * Переносит готовый временный файл под имя его хэша
+     * Если такое содержимое уже хранится, временный файл удаляется, а возвращается существующий blob
+     */
+    public Blob commit(Path tmp, MessageDigest digest, long size, String fileName) throws IOException {
+        return commit(tmp, HexFormat.of().formatHex(digest.digest()), size, fileName);
+    }
+    
+    /**
+     * То же для уже посчитанного хэша; повторный вызов после успешного переноса возвращает готовый blob
+     */
+    public Blob commit(Path tmp, String sha256, long size, String fileName) throws IOException {
+        Path target = pathFor(sha256, fileName);
+        if (Files.exists(target)) {
+            Files.deleteIfExists(tmp);
+            return new Blob(sha256, target, size, true);
+        }
+        
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target);
+        } catch (FileAlreadyExistsException e) {
+            // Тот же ролик параллельно пришел другим путем
+            Files.deleteIfExists(tmp);
+            return new Blob(sha256, target, size, true);
+        }
+        return new Blob(sha256, target, size, false);
+    }
+    
+    /**
+     * Удаляет только что сохраненный blob, если ни одно видео на него не ссылается
+     * (запись в videos не создана - видео оказалось дубликатом по другому ключу)
+     */
+    public void discardIfUnreferenced(Blob blob) {
+        if (blob != null && !blob.existing()) {
+            discardIfUnreferenced(blob.sha256(), blob.path());
+        }
+    }
+    
+    /**
+     * Проверяется ссылка именно на этот файл: видео с тем же content_sha256 может ссылаться
+     * на blob с другим расширением, и тогда этот файл - лишняя копия
+     */
+    public void discardIfUnreferenced(String sha256, Path path) {
+        if (sha256 == null || !contains(path) || videoRepository.existsByFilePath(path.toString())) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить неиспользуемый blob {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * true, если файл лежит в хранилище (а не в папке категории)
+     */
+    public boolean contains(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(blobsPath);
+    }
+    
+    /**
+     * SHA-256 файла, который уже лежит на диске (файлы из папок категорий)
+     */
+    public String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        updateDigest(digest, file, Long.MAX_VALUE);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    /**
+     * Дополняет хэш первыми length байтами файла (докачка: уже скачанная часть)
+     */
+    public void updateDigest(MessageDigest digest, Path file, long length) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+    
+    /**
+     * Временный файл в том же разделе, что и blobs (для атомарного переноса)
+     */
+    public Path newTempFile() throws IOException {
+        return Files.createFile(tmpPath.resolve(UUID.randomUUID() + ".tmp"));
+    }
+    
+    /**
+     * Временный файл с постоянным именем - для докачки после обрыва или перезапуска
+     */
+    public Path partFile(String key) {
+        return tmpPath.resolve(key.replaceAll("[^A-Za-z0-9_-]", "_") + ".part");
+    }
+    
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+    
+    /**
+     * Путь, под которым commit сохранит содержимое с этим хэшем
+     */
+    public Path pathFor(String sha256, String fileName) {
+        return blobPath(sha256, extension(fileName));
+    }
+    
+    private Path blobPath(String sha256, String extension) {
+        return blobsPath.resolve(sha256.substring(0, 2))
+                .resolve(sha256.substring(2, 4))
+                .resolve(sha256 + "." + extension);
+    }
+    
+    private String extension(String fileName) {
+        int dot = fileName != null ? fileName.lastIndexOf('.') : -1;
+        if (dot < 0) {
+            return DEFAULT_EXTENSION;
+        }
+        String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return EXTENSION.matcher(extension).matches() ? extension : DEFAULT_EXTENSION;
+    }
+    
+    /**
+     * Сохраненное содержимое
+     * @param existing true, если такое содержимое уже было в хранилище до этого вызова
+     */
+    public record Blob(String sha256, Path path, long size, boolean existing) {
+    }
+}
@@ -0,0 +1,225 @@
+package com.nestvision.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Перестановка moov перед mdat (faststart) без перекодирования
+ *
+ * Камеры часто пишут moov в конец файла, и плееру перед началом воспроизведения приходится
+ * отдельным Range-запросом читать хвост файла. Здесь moov переносится в начало: боксы копируются
+ * через transferTo во временный файл (данные не проходят через heap), смещения чанков в stco/co64
+ * сдвигаются на размер moov, готовый файл сбрасывается на диск и атомарно заменяет исходный.
+ *
+ * Файл в ContentStore остается под хэшем исходного содержимого: этот хэш - ключ дедупликации
+ * входящих файлов, и повторная загрузка того же ролика по-прежнему находит существующее видео.
+ */
+@Component
+public class FaststartRewriter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FaststartRewriter.class);
+    
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private VideoStreamService videoStreamService;
+    
+    /**
+     * true, если moov лежит после mdat и файл можно переписать
+     */
+    public boolean needsRewrite(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return layout(channel) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Переписывает файл в faststart-раскладку
+     * @return true если файл перезаписан, false если перестановка не нужна или невозможна
+     */
+    public boolean rewrite(Path file) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Layout layout;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            layout = layout(in);
+            if (layout == null) {
+                return false;
+            }
+            
+            ByteBuffer moov = ByteBuffer.allocate((int) layout.moov().size());
+            while (moov.hasRemaining()) {
+                if (in.read(moov, layout.moov().offset() + moov.position()) < 0) {
+                    throw new EOFException("Файл укоротился во время чтения moov: " + file);
+                }
+            }
+            ByteBuffer content = moov.slice(layout.moov().headerSize(), moov.capacity() - layout.moov().headerSize());
+            // Сдвигаются только данные между первым mdat и moov - они окажутся за moov
+            if (!shiftChunkOffsets(content, layout.firstMdat().offset(), layout.moov().offset(), layout.moov().size())) {
+                logger.info("Faststart пропущен для {}: смещения не помещаются в stco или moov сжат", file.getFileName());
+                return false;
+            }
+            
+            Path tmp = contentStore.newTempFile();
+            try {
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    long position = 0;
+                    // Боксы до первого mdat (ftyp, ...), затем moov, затем остальные в прежнем порядке
+                    for (Mp4MetadataReader.TopLevelBox box : layout.boxes()) {
+                        if (box.offset() < layout.firstMdat().offset()) {
+                            position += transfer(in, box, out, position);
+                        }
+                    }
+                    moov.clear();
+                    while (moov.hasRemaining()) {
+                        position += out.write(moov, position);
+                    }
+                    for (Mp4MetadataReader.TopLevelBox box : layout.boxes()) {
+                        if (box.offset() >= layout.firstMdat().offset() && box != layout.moov()) {
+                            position += transfer(in, box, out, position);
+                        }
+                    }
+                    if (position != in.size()) {
+                        throw new IOException("Размер после перестановки " + position + " не совпадает с исходным " + in.size());
+                    }
+                    out.force(true);
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        
+        // Закэшированный канал смотрит на старый файл
+        videoStreamService.evict(file);
+        logger.info("Faststart: moov ({} байт) перенесен в начало {} за {} ms",
+                layout.moov().size(), file.getFileName(), System.currentTimeMillis() - startTime);
+        return true;
+    }
+    
+    /**
+     * Раскладка файла, если moov лежит после первого mdat; null если перестановка не нужна
+     */
+    private Layout layout(FileChannel channel) throws IOException {
+        List<Mp4MetadataReader.TopLevelBox> boxes = Mp4MetadataReader.topLevelBoxes(channel);
+        if (boxes == null) {
+            return null;
+        }
+        Mp4MetadataReader.TopLevelBox moov = null;
+        Mp4MetadataReader.TopLevelBox firstMdat = null;
+        for (Mp4MetadataReader.TopLevelBox box : boxes) {
+            switch (box.type()) {
+                case "moov" -> {
+                    if (moov == null) {
+                        moov = box;
+                    }
+                }
+                case "mdat" -> {
+                    if (firstMdat == null) {
+                        firstMdat = box;
+                    }
+                }
+                // Во фрагментированном файле смещения в moof могут быть абсолютными - не трогаем
+                case "moof" -> {
+                    return null;
+                }
+                default -> {
+                }
+            }
+        }
+        if (moov == null || firstMdat == null || moov.offset() < firstMdat.offset() || moov.size() > MAX_MOOV_SIZE) {
+            return null;
+        }
+        // Хвост файла без заголовка бокса при перестановке потерялся бы
+        Mp4MetadataReader.TopLevelBox last = boxes.get(boxes.size() - 1);
+        if (last.offset() + last.size() != channel.size()) {
+            return null;
+        }
+        return new Layout(boxes, moov, firstMdat);
+    }
+    
+    /**
+     * Сдвигает смещения чанков из [from, to) на shift во всех stco/co64 внутри контейнера
+     * @return false, если смещение не помещается в 32-битный stco или moov сжат (cmov)
+     */
+    private boolean shiftChunkOffsets(ByteBuffer container, long from, long to, long shift) {
+        Mp4MetadataReader.Box box;
+        while ((box = Mp4MetadataReader.nextBox(container)) != null) {
+            ByteBuffer content = box.content();
+            switch (box.type()) {
+                case "trak", "mdia", "minf", "stbl" -> {
+                    if (!shiftChunkOffsets(content, from, to, shift)) {
+                        return false;
+                    }
+                }
+                case "stco" -> {
+                    int count = content.getInt(4);
+                    for (int i = 0; i < count; i++) {
+                        int index = 8 + i * 4;
+                        long offset = content.getInt(index) & 0xFFFFFFFFL;
+                        if (offset >= from && offset < to) {
+                            if (offset + shift > 0xFFFFFFFFL) {
+                                return false;
+                            }
+                            content.putInt(index, (int) (offset + shift));
+                        }
+                    }
+                }
+                case "co64" -> {
+                    int count = content.getInt(4);
+                    for (int i = 0; i < count; i++) {
+                        int index = 8 + i * 8;
+                        long offset = content.getLong(index);
+                        if (offset >= from && offset < to) {
+                            content.putLong(index, offset + shift);
+                        }
+                    }
+                }
+                case "cmov" -> {
+                    return false;
+                }
+                default -> {
+                }
+            }
+        }
+        return true;
+    }
+    
+    private long transfer(FileChannel in, Mp4MetadataReader.TopLevelBox box, FileChannel out, long position)
+            throws IOException {
+        long copied = 0;
+        while (copied < box.size()) {
+            long count = in.transferTo(box.offset() + copied, box.size() - copied, out.position(position + copied));
+            if (count <= 0) {
+                throw new EOFException("Файл укоротился во время перестановки");
+            }
+            copied += count;
+        }
+        return copied;
+    }
+    
+    private record Layout(List<Mp4MetadataReader.TopLevelBox> boxes, Mp4MetadataReader.TopLevelBox moov,
+                          Mp4MetadataReader.TopLevelBox firstMdat) {
+    }
+}
@@ -0,0 +1,526 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.TelegramVideoRequest;
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.entity.IngestionJobStatus;
+import com.nestvision.entity.IngestionJobType;
+import com.nestvision.repository.IngestionJobRepository;
+import com.nestvision.repository.VideoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Очередь заданий на загрузку видео в таблице ingestion_jobs
+ *
+ * Задания ставятся в базу (Node.js скрипт, наблюдатель папок, faststart новых видео) и выполняются фоновым исполнителем.
+ * Исполнитель захватывает готовые задания через SELECT ... FOR UPDATE SKIP LOCKED и держит на них аренду,
+ * поэтому очередь можно разделить между несколькими экземплярами backend, а задания упавшего экземпляра
+ * подхватываются после истечения аренды. Ошибки повторяются с экспоненциальной задержкой
+ * до ingestion.jobs.max-attempts попыток.
+ */
+@Service
+public class IngestionJobService implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IngestionJobService.class);
+    
+    private static final int MAX_ERROR_LENGTH = 1000;
+    
+    private static final Set<IngestionJobStatus> UNFINISHED = EnumSet.of(IngestionJobStatus.QUEUED, IngestionJobStatus.RUNNING);
+    
+    // Ключ advisory-блокировки, под которой считается и пополняется очередь заданий Telegram
+    private static final long TELEGRAM_SUBMIT_LOCK = 0x4e56_5447_4a4f_4253L;
+    
+    @Autowired
+    private IngestionJobRepository ingestionJobRepository;
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Autowired
+    private TelegramService telegramService;
+    
+    @Autowired
+    private VideoFolderScanner videoFolderScanner;
+    
+    @Autowired
+    private FaststartRewriter faststartRewriter;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Value("${video.faststart.enabled:true}")
+    private boolean faststartEnabled;
+    
+    @Value("${ingestion.jobs.max-pending:100}")
+    private int maxPending;
+    
+    @Value("${ingestion.jobs.concurrency:4}")
+    private int concurrency;
+    
+    @Value("${ingestion.jobs.max-attempts:5}")
+    private int maxAttempts;
+    
+    @Value("${ingestion.jobs.retry-backoff-ms:5000}")
+    private long retryBackoffMs;
+    
+    @Value("${ingestion.jobs.retry-backoff-max-ms:300000}")
+    private long retryBackoffMaxMs;
+    
+    @Value("${ingestion.jobs.lease-seconds:300}")
+    private long leaseSeconds;
+    
+    @Value("${ingestion.jobs.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+    
+    // Уникален для каждого запуска: после перезапуска старые аренды не считаются своими
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ingestion-job-", 0).factory());
+    
+    // Задания, выполняющиеся в этом экземпляре - для продления аренды
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    
+    private final Semaphore wakeups = new Semaphore(0);
+    
+    private final Map<IngestionJobType, StageTimings> timings = new ConcurrentHashMap<>();
+    
+    private Semaphore workers;
+    
+    private volatile boolean running;
+    
+    private volatile Thread pollThread;
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        workers = new Semaphore(concurrency);
+        running = true;
+        pollThread = Thread.ofVirtual().name("ingestion-jobs-poller").start(this::pollLoop);
+        logger.info("Исполнитель очереди загрузки запущен: {}", owner);
+    }
+    
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Thread thread = pollThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        // Незавершенные задания сразу возвращаем в очередь - другой экземпляр не ждет истечения аренды
+        try {
+            int released = ingestionJobRepository.releaseLeases(owner);
+            if (released > 0) {
+                logger.info("Возвращено в очередь незавершенных заданий: {}", released);
+            }
+        } catch (Exception e) {
+            logger.warn("Не удалось вернуть задания в очередь: {}", e.getMessage());
+        }
+        executor.shutdownNow();
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Ставит в очередь загрузку видео из Telegram
+     * @return задание или null, если очередь переполнена
+     */
+    @Transactional
+    public IngestionJob submitTelegramJob(String fileId, String fileUniqueId, String fileName, Long messageId,
+                                          String category, String recordedDateTime) {
+        if (!hasTelegramCapacity(1)) {
+            return null;
+        }
+        IngestionJob job = ingestionJobRepository.save(
+                newTelegramJob(fileId, fileUniqueId, fileName, messageId, category, recordedDateTime));
+        wakeUpAfterCommit();
+        return job;
+    }
+    
+    /**
+     * Ставит в очередь добавление файла из папки категории (без ограничения очереди - файл уже на диске)
+     */
+    public IngestionJob submitFolderFile(Path filePath) {
+        IngestionJob job = newJob(IngestionJobType.FOLDER_FILE, filePath.getFileName().toString());
+        job.setFilePath(filePath.toString());
+        job = ingestionJobRepository.save(job);
+        wakeUp();
+        return job;
+    }
+    
+    /**
+     * Новое видео из ContentStore с moov в конце файла - ставит в очередь его перестановку (faststart)
+     * Файлы из папок категорий не трогаем: это файлы пользователя, и сканер узнает их по пути
+     * Событие обрабатывается после коммита вставки видео (без транзакции - сразу). Чтение файла и запись
+     * задания идут в потоке исполнителя: добавивший видео поток не ждет диска, а задание пишется
+     * в собственной транзакции, а не в уже завершенной транзакции вставки
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVideoInserted(VideoInsertedEvent event) {
+        if (!faststartEnabled || event.video().getFilePath() == null) {
+            return;
+        }
+        Path filePath = Paths.get(event.video().getFilePath());
+        String fileName = event.video().getFileName();
+        try {
+            executor.execute(() -> enqueueFaststart(filePath, fileName));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Исполнитель остановлен, faststart для {} не поставлен", filePath);
+        }
+    }
+    
+    private void enqueueFaststart(Path filePath, String fileName) {
+        try {
+            if (!contentStore.contains(filePath) || !faststartRewriter.needsRewrite(filePath)) {
+                return;
+            }
+            IngestionJob job = newJob(IngestionJobType.FASTSTART, fileName);
+            job.setFilePath(filePath.toString());
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transaction.executeWithoutResult(status -> ingestionJobRepository.save(job));
+            wakeUp();
+        } catch (Exception e) {
+            // Видео уже добавлено; без перестановки оно просто начнет играть чуть позже
+            logger.warn("Не удалось поставить faststart для {}: {}", filePath, e.getMessage());
+        }
+    }
+    
+    /**
+     * Пакетная постановка заданий: дубликаты отсеиваются одним запросом к videos,
+     * все задания пакета сохраняются в одной транзакции
+     * @return результат или null, если новые задания пакета не помещаются в очередь
+     */
+    @Transactional
+    public BatchSubmission submitTelegramBatch(List<TelegramVideoRequest> requests) {
+        Set<String> fileIds = new HashSet<>();
+        Set<String> fileUniqueIds = new HashSet<>();
+        Set<Long> messageIds = new HashSet<>();
+        for (TelegramVideoRequest request : requests) {
+            fileIds.add(request.getFileId());
+            if (request.getFileUniqueId() != null) {
+                fileUniqueIds.add(request.getFileUniqueId());
+            }
+            if (request.getMessageId() != null) {
+                messageIds.add(request.getMessageId());
+            }
+        }
+        
+        Set<String> knownFiles = new HashSet<>();
+        Set<Long> knownMessages = new HashSet<>();
+        for (VideoRepository.TelegramKeys keys : videoRepository.findExistingTelegramKeys(fileIds, fileUniqueIds, messageIds)) {
+            knownFiles.add(keys.getTelegramFileId());
+            knownFiles.add(keys.getTelegramFileUniqueId());
+            knownMessages.add(keys.getTelegramMessageId());
+        }
+        knownFiles.remove(null);
+        knownMessages.remove(null);
+        
+        // Уже сохраненные видео и повторы внутри пакета (один ролик, пересланный дважды) пропускаем
+        List<IngestionJob> jobs = new ArrayList<>();
+        List<TelegramVideoRequest> duplicates = new ArrayList<>();
+        for (TelegramVideoRequest request : requests) {
+            String key = Objects.requireNonNullElse(request.getFileUniqueId(), request.getFileId());
+            boolean duplicate = knownFiles.contains(request.getFileId())
+                    || knownFiles.contains(key)
+                    || (request.getMessageId() != null && knownMessages.contains(request.getMessageId()));
+            if (duplicate) {
+                duplicates.add(request);
+                continue;
+            }
+            knownFiles.add(key);
+            knownFiles.add(request.getFileId());
+            if (request.getMessageId() != null) {
+                knownMessages.add(request.getMessageId());
+            }
+            jobs.add(newTelegramJob(request.getFileId(), request.getFileUniqueId(), request.getFileName(),
+                    request.getMessageId(), request.getCategory(), request.getRecordedDateTime()));
+        }
+        
+        if (jobs.isEmpty()) {
+            return new BatchSubmission(jobs, duplicates);
+        }
+        if (!hasTelegramCapacity(jobs.size())) {
+            return null;
+        }
+        
+        List<IngestionJob> saved = ingestionJobRepository.saveAll(jobs);
+        wakeUpAfterCommit();
+        return new BatchSubmission(saved, duplicates);
+    }
+    
+    public Optional<IngestionJob> getJob(Long id) {
+        return ingestionJobRepository.findById(id);
+    }
+    
+    public int getMaxPending() {
+        return maxPending;
+    }
+    
+    /**
+     * Глубина очереди по типам и статусам и время этапов (ожидание в очереди, выполнение) в этом экземпляре
+     */
+    public Map<String, Object> getQueueStats() {
+        Map<String, Map<String, Long>> depth = new LinkedHashMap<>();
+        for (IngestionJobRepository.StatusCount count : ingestionJobRepository.countByTypeAndStatus()) {
+            depth.computeIfAbsent(String.valueOf(count.getType()), type -> new LinkedHashMap<>())
+                    .put(count.getStatus().name(), count.getCount());
+        }
+        
+        Map<String, Object> stages = new LinkedHashMap<>();
+        timings.forEach((type, stageTimings) -> stages.put(type.name(), stageTimings.toMap()));
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("owner", owner);
+        stats.put("running", running);
+        stats.put("inFlight", inFlight.size());
+        stats.put("concurrency", concurrency);
+        stats.put("maxPending", maxPending);
+        stats.put("depth", depth);
+        stats.put("stages", stages);
+        return stats;
+    }
+    
+    /**
+     * Помещаются ли еще count заданий Telegram (лимит max-pending касается только их:
+     * задания папок и faststart ставятся без ограничения)
+     * Вызывается в транзакции постановки: advisory-блокировка держится до ее коммита, поэтому
+     * параллельные постановки, в том числе с других экземпляров, считают очередь по одной и вместе
+     * не превышают лимит. Подсчет - отдельным запросом после блокировки, чтобы увидеть задания,
+     * вставленные до нее
+     */
+    private boolean hasTelegramCapacity(int count) {
+        ingestionJobRepository.lockTransaction(TELEGRAM_SUBMIT_LOCK);
+        return ingestionJobRepository.countByTypeAndStatusIn(IngestionJobType.TELEGRAM_FILE, UNFINISHED) + count <= maxPending;
+    }
+    
+    /**
+     * Исполнитель читает задания из базы, поэтому будим его только после коммита
+     */
+    private void wakeUpAfterCommit() {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wakeUp();
+            }
+        });
+    }
+    
+    private void wakeUp() {
+        wakeups.release();
+    }
+    
+    static IngestionJob newJob(IngestionJobType type, String fileName) {
+        IngestionJob job = new IngestionJob();
+        job.setType(type);
+        job.setStatus(IngestionJobStatus.QUEUED);
+        job.setFileName(fileName);
+        job.setCreatedAt(LocalDateTime.now());
+        return job;
+    }
+    
+    static IngestionJob newTelegramJob(String fileId, String fileUniqueId, String fileName, Long messageId,
+                                       String category, String recordedDateTime) {
+        IngestionJob job = newJob(IngestionJobType.TELEGRAM_FILE, fileName);
+        job.setTelegramFileId(fileId);
+        job.setTelegramFileUniqueId(fileUniqueId);
+        job.setTelegramMessageId(messageId);
+        job.setCategory(category);
+        job.setRecordedDateTime(recordedDateTime);
+        return job;
+    }
+    
+    private void pollLoop() {
+        while (running) {
+            try {
+                renewLeases();
+                
+                int free = workers.availablePermits();
+                int claimed = 0;
+                if (free > 0) {
+                    LocalDateTime now = LocalDateTime.now();
+                    List<IngestionJob> jobs = ingestionJobRepository.claim(owner, now, now.plusSeconds(leaseSeconds), free);
+                    for (IngestionJob job : jobs) {
+                        workers.acquire();
+                        inFlight.add(job.getId());
+                        executor.execute(() -> run(job));
+                    }
+                    claimed = jobs.size();
+                }
+                
+                // Забрали все свободные места - сразу пробуем еще; иначе ждем новое задание или освободившегося воркера
+                if (claimed == 0 || claimed < free) {
+                    wakeups.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                    wakeups.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Ошибка при захвате заданий загрузки: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void renewLeases() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        ingestionJobRepository.extendLeases(List.copyOf(inFlight), owner, LocalDateTime.now().plusSeconds(leaseSeconds));
+    }
+    
+    private void run(IngestionJob job) {
+        LocalDateTime startedAt = job.getStartedAt() != null ? job.getStartedAt() : LocalDateTime.now();
+        LocalDateTime readyAt = job.getNextAttemptAt() != null && job.getNextAttemptAt().isAfter(job.getCreatedAt())
+                ? job.getNextAttemptAt() : job.getCreatedAt();
+        StageTimings stageTimings = timings.computeIfAbsent(job.getType(), type -> new StageTimings());
+        stageTimings.queueWait.record(Math.max(0, Duration.between(readyAt, startedAt).toMillis()));
+        
+        long runStart = System.nanoTime();
+        try {
+            boolean added = execute(job);
+            ingestionJobRepository.complete(job.getId(), owner,
+                    added ? IngestionJobStatus.SUCCEEDED : IngestionJobStatus.DUPLICATE, null, LocalDateTime.now());
+        } catch (Exception e) {
+            if (!running) {
+                return;
+            }
+            fail(job, e);
+        } finally {
+            stageTimings.run.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart));
+            inFlight.remove(job.getId());
+            workers.release();
+            wakeUp();
+        }
+    }
+    
+    /**
+     * @return true если видео добавлено (для FASTSTART - задание выполнено), false если добавлять нечего (дубликат)
+     */
+    private boolean execute(IngestionJob job) throws Exception {
+        return switch (job.getType()) {
+            case TELEGRAM_FILE -> telegramService.processVideoFromFileId(
+                    job.getTelegramFileId(), job.getTelegramFileUniqueId(), job.getFileName(),
+                    job.getTelegramMessageId(), job.getCategory(), job.getRecordedDateTime());
+            case FOLDER_FILE -> videoFolderScanner.ingestFile(Paths.get(job.getFilePath()));
+            case FASTSTART -> {
+                faststartRewriter.rewrite(Paths.get(job.getFilePath()));
+                yield true;
+            }
+        };
+    }
+    
+    private void fail(IngestionJob job, Exception e) {
+        String error = truncate(e.getMessage());
+        try {
+            if (job.getAttempts() >= maxAttempts) {
+                logger.error("Задание загрузки {} не выполнено за {} попыток", job.getId(), job.getAttempts(), e);
+                ingestionJobRepository.complete(job.getId(), owner, IngestionJobStatus.FAILED, error, LocalDateTime.now());
+                return;
+            }
+            long delayMs = Math.min(retryBackoffMaxMs, retryBackoffMs << Math.min(job.getAttempts() - 1, 20));
+            logger.warn("Ошибка в задании загрузки {} (попытка {}), повтор через {} мс: {}",
+                    job.getId(), job.getAttempts(), delayMs, e.getMessage());
+            ingestionJobRepository.retryLater(job.getId(), owner, error, LocalDateTime.now().plus(Duration.ofMillis(delayMs)));
+        } catch (Exception updateError) {
+            logger.error("Не удалось обновить задание загрузки {}", job.getId(), updateError);
+        }
+    }
+    
+    private String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+    
+    public record BatchSubmission(List<IngestionJob> jobs, List<TelegramVideoRequest> duplicates) {
+    }
+    
+    private static final class StageTimings {
+        private final Timer queueWait = new Timer();
+        private final Timer run = new Timer();
+        
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("queueWait", queueWait.toMap());
+            map.put("run", run.toMap());
+            return map;
+        }
+    }
+    
+    private static final class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+        
+        private void record(long millis) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+        
+        private Map<String, Object> toMap() {
+            long n = count.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", n);
+            map.put("avgMillis", n > 0 ? totalMillis.get() / n : null);
+            map.put("maxMillis", n > 0 ? maxMillis.get() : null);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.nestvision.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Не больше одного запуска тяжелой операции каждого типа (загрузка истории канала, полное сканирование папки)
+ *
+ * Повторный вызов во время выполнения не запускает операцию заново, а присоединяется к текущему запуску.
+ * После успешного завершения в течение cooldown возвращается результат последнего запуска.
+ */
+@Component
+public class JobCoordinator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JobCoordinator.class);
+    
+    public static final String TELEGRAM_RELOAD = "telegram-reload";
+    public static final String FOLDER_SCAN = "folder-scan";
+    
+    private final Map<String, Run> lastRuns = new ConcurrentHashMap<>();
+    
+    private final AtomicLong runIds = new AtomicLong();
+    
+    /**
+     * Запускает операцию или присоединяется к текущему (недавнему) запуску того же типа
+     */
+    public synchronized Submission submit(String type, Duration cooldown, ToIntFunction<Progress> task) {
+        Run last = lastRuns.get(type);
+        if (last != null && (last.isRunning() || last.isCoolingDown(cooldown))) {
+            last.attachedCallers.incrementAndGet();
+            logger.info("Операция {} уже {} (запуск {}), новый запуск не нужен",
+                    type, last.isRunning() ? "выполняется" : "недавно завершена", last.id);
+            return new Submission(last, true);
+        }
+        
+        Run run = new Run(runIds.incrementAndGet(), type);
+        lastRuns.put(type, run);
+        Thread.ofVirtual().name("job-" + type + "-" + run.id).start(() -> run.execute(task));
+        return new Submission(run, false);
+    }
+    
+    /**
+     * Последний запуск операции или null, если ее еще не запускали
+     */
+    public Run getLastRun(String type) {
+        return lastRuns.get(type);
+    }
+    
+    public record Submission(Run run, boolean coalesced) {
+        
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = run.toMap();
+            map.put("coalesced", coalesced);
+            return map;
+        }
+    }
+    
+    /**
+     * Счетчики хода операции: просмотрено, добавлено, пропущено (уже есть), с ошибкой
+     */
+    public static final class Progress {
+        private final AtomicLong seen = new AtomicLong();
+        private final AtomicLong added = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        
+        public void addSeen(long count) {
+            seen.addAndGet(count);
+        }
+        
+        public void addAdded(long count) {
+            added.addAndGet(count);
+        }
+        
+        public void addSkipped(long count) {
+            skipped.addAndGet(count);
+        }
+        
+        public void addFailed(long count) {
+            failed.addAndGet(count);
+        }
+    }
+    
+    public static final class Run {
+        
+        public enum State { RUNNING, COMPLETED, FAILED }
+        
+        private final long id;
+        private final String type;
+        private final Progress progress = new Progress();
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        private final AtomicInteger attachedCallers = new AtomicInteger();
+        private final Instant startedAt = Instant.now();
+        private volatile Instant finishedAt;
+        private volatile State state = State.RUNNING;
+        private volatile String error;
+        
+        private Run(long id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+        
+        private void execute(ToIntFunction<Progress> task) {
+            try {
+                int value = task.applyAsInt(progress);
+                finishedAt = Instant.now();
+                state = State.COMPLETED;
+                result.complete(value);
+            } catch (Throwable e) {
+                // Error тоже завершает запуск, иначе await() ждал бы вечно, а новый запуск не стартовал бы
+                logger.error("Ошибка при выполнении операции {}", type, e);
+                finishedAt = Instant.now();
+                error = e.getMessage();
+                state = State.FAILED;
+                result.completeExceptionally(e);
+                if (e instanceof Error fatal) {
+                    throw fatal;
+                }
+            }
+        }
+        
+        private boolean isRunning() {
+            return state == State.RUNNING;
+        }
+        
+        // Cooldown только после успешного запуска - после ошибки можно сразу повторить
+        private boolean isCoolingDown(Duration cooldown) {
+            return state == State.COMPLETED && finishedAt.plus(cooldown).isAfter(Instant.now());
+        }
+        
+        public long getId() {
+            return id;
+        }
+        
+        /**
+         * Ждет завершения запуска
+         * @return результат операции (например, количество добавленных видео)
+         */
+        public int await() {
+            return result.join();
+        }
+        
+        public Map<String, Object> toMap() {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("jobId", id);
+            map.put("type", type);
+            map.put("state", state);
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("durationMillis", Duration.between(startedAt, end).toMillis());
+            map.put("seen", progress.seen.get());
+            map.put("added", progress.added.get());
+            map.put("skipped", progress.skipped.get());
+            map.put("failed", progress.failed.get());
+            map.put("attachedCallers", attachedCallers.get());
+            map.put("error", error);
+            return map;
+        }
+    }
+}
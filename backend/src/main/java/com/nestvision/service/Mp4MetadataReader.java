@@ -0,0 +1,265 @@
+package com.nestvision.service;
+
+import com.nestvision.entity.Video;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Метаданные MP4/MOV без декодирования: длительность, разрешение, кодек и средний битрейт
+ *
+ * Верхнеуровневые боксы (ftyp, mdat, ...) пропускаются по заголовкам, отображается в память только moov;
+ * из него читаются mvhd (длительность), а у видеодорожки - tkhd (размер кадра с учетом поворота),
+ * hdlr (тип дорожки) и stsd (кодек). Сами данные ролика не читаются, поэтому размер файла на время
+ * разбора не влияет.
+ */
+@Component
+public class Mp4MetadataReader {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Mp4MetadataReader.class);
+    
+    // moov обычно занимает килобайты или единицы мегабайт; больший размер - признак битого файла
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+    
+    // Боксы, с которых может начинаться MP4/MOV; по первому боксу отсекаются файлы других форматов
+    private static final Set<String> FIRST_BOX_TYPES = Set.of("ftyp", "moov", "mdat", "free", "skip", "wide", "pnot", "styp");
+    
+    /**
+     * Заполняет длительность, разрешение, кодек и битрейт видео по его файлу
+     * Если файл не MP4/MOV или его не удалось разобрать, поля остаются как были
+     */
+    public void fill(Video video, Path file) {
+        Metadata metadata = read(file);
+        if (metadata == null) {
+            return;
+        }
+        if (metadata.durationSeconds() != null) {
+            video.setDuration(metadata.durationSeconds());
+        }
+        if (metadata.width() != null) {
+            video.setWidth(metadata.width());
+            video.setHeight(metadata.height());
+        }
+        if (metadata.videoCodec() != null) {
+            video.setVideoCodec(metadata.videoCodec());
+        }
+        if (metadata.bitrate() != null) {
+            video.setBitrate(metadata.bitrate());
+        }
+    }
+    
+    /**
+     * @return метаданные или null, если это не MP4/MOV или в файле нет moov (например, он еще пишется)
+     */
+    public Metadata read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            logger.debug("Не удалось прочитать метаданные {}: {}", file, e.toString());
+            return null;
+        }
+    }
+    
+    private Metadata read(FileChannel channel) throws IOException {
+        List<TopLevelBox> boxes = topLevelBoxes(channel);
+        if (boxes == null) {
+            return null;
+        }
+        for (TopLevelBox box : boxes) {
+            if (box.type().equals("moov")) {
+                if (box.size() > MAX_MOOV_SIZE) {
+                    return null;
+                }
+                ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY,
+                        box.offset() + box.headerSize(), box.size() - box.headerSize());
+                return parseMoov(moov, channel.size());
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Верхнеуровневые боксы файла по их заголовкам (содержимое не читается)
+     * @return боксы по порядку или null, если это не MP4/MOV или файл обрезан
+     */
+    static List<TopLevelBox> topLevelBoxes(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        List<TopLevelBox> boxes = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                // дочитываем заголовок бокса
+            }
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            String type = fourcc(header);
+            int headerSize = 8;
+            if (size == 1) {
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (position == 0 && !FIRST_BOX_TYPES.contains(type)) {
+                return null;
+            }
+            if (size < headerSize || size > fileSize - position) {
+                return null;
+            }
+            boxes.add(new TopLevelBox(type, position, size, headerSize));
+            position += size;
+        }
+        return boxes;
+    }
+    
+    private Metadata parseMoov(ByteBuffer moov, long fileSize) {
+        long timescale = 0;
+        long duration = 0;
+        Track videoTrack = null;
+        Box box;
+        while ((box = nextBox(moov)) != null) {
+            if (box.type().equals("mvhd")) {
+                ByteBuffer mvhd = box.content();
+                if (mvhd.get(0) == 1) {
+                    timescale = mvhd.getInt(20) & 0xFFFFFFFFL;
+                    duration = mvhd.getLong(24);
+                } else {
+                    timescale = mvhd.getInt(12) & 0xFFFFFFFFL;
+                    duration = mvhd.getInt(16) & 0xFFFFFFFFL;
+                }
+            } else if (box.type().equals("trak") && videoTrack == null) {
+                Track track = parseTrak(box.content());
+                if (track != null) {
+                    videoTrack = track;
+                }
+            }
+        }
+        
+        // Нулевая или "неизвестная" (все единицы) длительность - фрагментированный файл или запись не завершена
+        boolean hasDuration = timescale > 0 && duration > 0 && duration != 0xFFFFFFFFL && duration != -1;
+        Long durationSeconds = hasDuration ? (duration + timescale / 2) / timescale : null;
+        Long bitrate = hasDuration ? Math.round(fileSize * 8.0 * timescale / duration) : null;
+        if (videoTrack == null) {
+            return new Metadata(durationSeconds, null, null, null, bitrate);
+        }
+        return new Metadata(durationSeconds, videoTrack.width(), videoTrack.height(), videoTrack.codec(), bitrate);
+    }
+    
+    /**
+     * Видеодорожка: размер кадра и кодек; null для остальных дорожек (звук, субтитры)
+     */
+    private Track parseTrak(ByteBuffer trak) {
+        ByteBuffer tkhd = findBox(trak.duplicate(), "tkhd");
+        ByteBuffer hdlr = findBox(trak.duplicate(), "mdia", "hdlr");
+        if (tkhd == null || hdlr == null || !"vide".equals(fourcc(hdlr.position(8)))) {
+            return null;
+        }
+        
+        // tkhd: после длительности - 8 байт резерва, layer, alternate_group, volume, резерв и матрица 3x3
+        int matrixOffset = tkhd.get(0) == 1 ? 36 + 16 : 24 + 16;
+        int width = tkhd.getInt(matrixOffset + 36) >>> 16;
+        int height = tkhd.getInt(matrixOffset + 40) >>> 16;
+        // Матрица поворота на 90/270 градусов (ролики с телефона): a = 0, b = +-1.0
+        if (tkhd.getInt(matrixOffset) == 0 && Math.abs(tkhd.getInt(matrixOffset + 4)) == 0x10000) {
+            int rotated = width;
+            width = height;
+            height = rotated;
+        }
+        
+        String codec = null;
+        ByteBuffer stsd = findBox(trak.duplicate(), "mdia", "minf", "stbl", "stsd");
+        if (stsd != null && stsd.getInt(4) > 0) {
+            // Первая запись описания: размер, формат (avc1, hvc1, ...), затем поля VisualSampleEntry
+            codec = fourcc(stsd.position(12));
+            if (width == 0 || height == 0) {
+                width = stsd.getShort(40) & 0xFFFF;
+                height = stsd.getShort(42) & 0xFFFF;
+            }
+        }
+        return new Track(width > 0 && height > 0 ? width : null, width > 0 && height > 0 ? height : null, codec);
+    }
+    
+    /**
+     * Содержимое бокса по пути из типов вложенных боксов или null
+     */
+    private static ByteBuffer findBox(ByteBuffer parent, String... path) {
+        ByteBuffer current = parent;
+        for (String type : path) {
+            Box box;
+            while ((box = nextBox(current)) != null && !box.type().equals(type)) {
+                // пропускаем соседние боксы
+            }
+            if (box == null) {
+                return null;
+            }
+            current = box.content();
+        }
+        return current;
+    }
+    
+    /**
+     * Следующий бокс с текущей позиции буфера; позиция переходит за него
+     */
+    static Box nextBox(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int start = buffer.position();
+        long size = buffer.getInt() & 0xFFFFFFFFL;
+        String type = fourcc(buffer);
+        int headerSize = 8;
+        if (size == 1) {
+            if (buffer.remaining() < 8) {
+                return null;
+            }
+            size = buffer.getLong();
+            headerSize = 16;
+        } else if (size == 0) {
+            size = buffer.limit() - start;
+        }
+        if (size < headerSize || size > buffer.limit() - start) {
+            return null;
+        }
+        buffer.position(start + (int) size);
+        return new Box(type, buffer.slice(start + headerSize, (int) size - headerSize));
+    }
+    
+    private static String fourcc(ByteBuffer buffer) {
+        byte[] type = new byte[4];
+        buffer.get(type);
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * @param durationSeconds длительность в секундах
+     * @param videoCodec формат первой записи stsd видеодорожки (avc1, hvc1, mp4v, ...)
+     * @param bitrate средний битрейт файла, бит/с
+     */
+    public record Metadata(Long durationSeconds, Integer width, Integer height, String videoCodec, Long bitrate) {
+    }
+    
+    private record Track(Integer width, Integer height, String codec) {
+    }
+    
+    /**
+     * Вложенный бокс; content - срез буфера родителя (запись в него меняет родителя)
+     */
+    record Box(String type, ByteBuffer content) {
+    }
+    
+    record TopLevelBox(String type, long offset, long size, int headerSize) {
+    }
+}
@@ -0,0 +1,296 @@
+package com.nestvision.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Потоковый разбор multipart/form-data прямо из тела запроса
+ *
+ * Части читаются по очереди, тело каждой отдается как InputStream, который заканчивается на
+ * следующем разделителе. Файл не буферизуется ни в памяти, ни во временном файле контейнера:
+ * его байты идут из сокета сразу туда, куда их пишет вызывающий код.
+ */
+public class MultipartStreamReader {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE = 8 * 1024;
+    private static final int MAX_HEADERS = 32;
+    private static final int MAX_TEXT_FIELD = 8 * 1024;
+    
+    private final InputStream in;
+    
+    // CRLF + "--" + boundary: так разделитель выглядит перед каждой частью, кроме первой
+    private final byte[] delimiter;
+    
+    private final long maxSize;
+    
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    
+    private int pos;
+    
+    private int limit;
+    
+    private boolean eof;
+    
+    private long totalRead;
+    
+    private PartInputStream current;
+    
+    private boolean finished;
+    
+    /**
+     * @param maxSize наибольший размер тела запроса; при превышении чтение прерывается SizeLimitExceededException
+     */
+    public MultipartStreamReader(InputStream in, String boundary, long maxSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxSize = maxSize;
+        // Перед первым разделителем CRLF может не быть - добавляем его, чтобы искать один и тот же шаблон
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+    
+    /**
+     * Граница из Content-Type или null, если это не multipart/form-data
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("boundary")) {
+                String boundary = unquote(pair[1].trim());
+                return boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Переходит к следующей части; непрочитанный остаток предыдущей пропускается
+     * @return часть или null, если части закончились
+     */
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Преамбула до первого разделителя пропускается так же, как тело части
+        PartInputStream previous = current != null ? current : new PartInputStream();
+        previous.skip(Long.MAX_VALUE);
+        pos += delimiter.length;
+        
+        if (!fill(2)) {
+            throw new EOFException("Unexpected end of multipart body");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        // Остаток строки разделителя (допускаются пробелы перед CRLF)
+        if (!readLine().isBlank()) {
+            throw new IOException("Malformed multipart delimiter");
+        }
+        
+        String name = null;
+        String fileName = null;
+        String contentType = null;
+        for (int count = 0; ; count++) {
+            String line = readLine();
+            if (line.isEmpty()) {
+                break;
+            }
+            if (count >= MAX_HEADERS) {
+                throw new IOException("Too many multipart headers");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed multipart header");
+            }
+            String header = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (header.equals("content-disposition")) {
+                for (String parameter : value.split(";")) {
+                    String[] pair = parameter.trim().split("=", 2);
+                    if (pair.length != 2) {
+                        continue;
+                    }
+                    String key = pair[0].trim().toLowerCase(Locale.ROOT);
+                    if (key.equals("name")) {
+                        name = unquote(pair[1].trim());
+                    } else if (key.equals("filename")) {
+                        fileName = baseName(unquote(pair[1].trim()));
+                    }
+                }
+            } else if (header.equals("content-type")) {
+                contentType = value;
+            }
+        }
+        
+        current = new PartInputStream();
+        return new Part(name, fileName, contentType, current);
+    }
+    
+    /**
+     * Читает текстовое поле формы целиком (не больше 8 КБ)
+     */
+    public static String readText(Part part) throws IOException {
+        byte[] value = part.body().readNBytes(MAX_TEXT_FIELD + 1);
+        if (value.length > MAX_TEXT_FIELD) {
+            throw new IOException("Form field " + part.name() + " is too long");
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Добивается, чтобы в буфере было не меньше needed байт (если поток не закончился раньше)
+     */
+    private boolean fill(int needed) throws IOException {
+        if (limit - pos >= needed) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < needed && !eof) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                eof = true;
+                break;
+            }
+            limit += read;
+            totalRead += read;
+            if (totalRead > maxSize) {
+                throw new SizeLimitExceededException("Request body exceeds " + maxSize + " bytes");
+            }
+        }
+        return limit - pos >= needed;
+    }
+    
+    private String readLine() throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = pos + scanned; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    String line = new String(buffer, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + 2;
+                    return line;
+                }
+            }
+            int available = limit - pos;
+            if (available >= MAX_HEADER_LINE) {
+                throw new IOException("Multipart header line is too long");
+            }
+            scanned = Math.max(0, available - 1);
+            if (!fill(available + 1)) {
+                throw new EOFException("Unexpected end of multipart body");
+            }
+        }
+    }
+    
+    private int indexOfDelimiter() {
+        outer:
+        for (int i = pos; i <= limit - delimiter.length; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+        return value;
+    }
+    
+    /**
+     * Некоторые клиенты присылают полный путь файла - оставляем только имя
+     */
+    private static String baseName(String fileName) {
+        int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        return slash >= 0 ? fileName.substring(slash + 1) : fileName;
+    }
+    
+    /**
+     * Часть формы; body читается до следующего разделителя
+     * @param fileName имя файла или null для обычного поля
+     */
+    public record Part(String name, String fileName, String contentType, InputStream body) {
+    }
+    
+    /**
+     * Тело запроса больше допустимого размера
+     */
+    public static class SizeLimitExceededException extends IOException {
+        
+        public SizeLimitExceededException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * Тело текущей части: отдает байты буфера до разделителя; хвост буфера длиной в разделитель
+     * придерживается, пока не станет ясно, что это не начало разделителя
+     */
+    private class PartInputStream extends InputStream {
+        
+        private boolean done;
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || current != this && current != null) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            fill(delimiter.length);
+            int found = indexOfDelimiter();
+            int available;
+            if (found >= 0) {
+                available = found - pos;
+                if (available == 0) {
+                    done = true;
+                    return -1;
+                }
+            } else if (eof) {
+                throw new EOFException("Unexpected end of multipart body");
+            } else {
+                available = limit - pos - (delimiter.length - 1);
+            }
+            int count = Math.min(len, available);
+            System.arraycopy(buffer, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipBuffer = new byte[BUFFER_SIZE];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skipped))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nestvision.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Состояние и прогресс загрузки видео из Telegram канала (backfill)
+ * Обновляется потоком загрузки, читается эндпоинтом статуса
+ */
+public class TelegramBackfillProgress {
+    
+    public enum State {
+        PENDING,
+        INITIALIZING,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        DISABLED,
+        // Режим webhook: история через getUpdates не загружается
+        SKIPPED
+    }
+    
+    private volatile State state = State.PENDING;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long offset;
+    private volatile String lastError;
+    
+    private final AtomicLong updatesProcessed = new AtomicLong();
+    private final AtomicLong videosFound = new AtomicLong();
+    private final AtomicLong videosAdded = new AtomicLong();
+    private final AtomicLong alreadyExists = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    
+    public State getState() {
+        return state;
+    }
+    
+    public void setState(State state) {
+        this.state = state;
+    }
+    
+    public boolean isRunning() {
+        return state == State.RUNNING;
+    }
+    
+    /**
+     * Начало нового прохода: счетчики сбрасываются
+     */
+    public void start() {
+        updatesProcessed.set(0);
+        videosFound.set(0);
+        videosAdded.set(0);
+        alreadyExists.set(0);
+        errors.set(0);
+        offset = 0;
+        lastError = null;
+        finishedAt = null;
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+    
+    public void finish(State finalState) {
+        finishedAt = Instant.now();
+        state = finalState;
+    }
+    
+    public void fail(String error) {
+        lastError = error;
+        finish(State.FAILED);
+    }
+    
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+    
+    public void addUpdates(int count) {
+        updatesProcessed.addAndGet(count);
+    }
+    
+    public void onVideoFound() {
+        videosFound.incrementAndGet();
+    }
+    
+    /**
+     * Пачка обновлений зафиксирована вместе с offset
+     */
+    public void onBatchStored(int added, int existing, int failed, String error) {
+        videosAdded.addAndGet(added);
+        alreadyExists.addAndGet(existing);
+        errors.addAndGet(failed);
+        if (error != null) {
+            lastError = error;
+        }
+    }
+    
+    public void onError(String error) {
+        errors.incrementAndGet();
+        lastError = error;
+    }
+    
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("state", state);
+        result.put("offset", offset);
+        result.put("updatesProcessed", updatesProcessed.get());
+        result.put("videosFound", videosFound.get());
+        result.put("videosAdded", videosAdded.get());
+        result.put("alreadyExists", alreadyExists.get());
+        result.put("errors", errors.get());
+        result.put("lastError", lastError);
+        
+        Instant started = startedAt;
+        if (started != null) {
+            Instant finished = finishedAt;
+            double elapsedSeconds = Duration.between(started, finished != null ? finished : Instant.now()).toMillis() / 1000.0;
+            result.put("startedAt", started.toString());
+            result.put("finishedAt", finished != null ? finished.toString() : null);
+            result.put("elapsedSeconds", elapsedSeconds);
+            if (elapsedSeconds > 0) {
+                result.put("updatesPerSecond", updatesProcessed.get() / elapsedSeconds);
+                result.put("videosPerSecond", videosFound.get() / elapsedSeconds);
+            }
+        }
+        return result;
+    }
+}
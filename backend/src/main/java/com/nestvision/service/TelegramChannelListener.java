@@ -0,0 +1,191 @@
+package com.nestvision.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Слушатель новых сообщений канала (long polling getUpdates) на виртуальном потоке
+ *
+ * Запросы идут один за другим без пауз: Telegram сам держит запрос до telegram.listener.poll-timeout-seconds,
+ * пока нет обновлений. При ошибках - экспоненциальная задержка со случайным разбросом (jitter).
+ * Запускается TelegramBotInitializer после загрузки истории канала, останавливается вместе с приложением.
+ */
+@Component
+public class TelegramChannelListener implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TelegramChannelListener.class);
+    
+    @Autowired
+    private TelegramService telegramService;
+    
+    @Autowired
+    private TelegramUpdateStore telegramUpdateStore;
+    
+    @Value("${telegram.listener.poll-timeout-seconds:30}")
+    private int pollTimeoutSeconds;
+    
+    @Value("${telegram.listener.backoff-initial-ms:500}")
+    private long backoffInitialMs;
+    
+    @Value("${telegram.listener.backoff-max-ms:60000}")
+    private long backoffMaxMs;
+    
+    private volatile boolean running;
+    
+    private volatile Thread pollThread;
+    
+    // Метрики
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong updatesReceived = new AtomicLong();
+    private final AtomicLong videosInserted = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong insertLagTotalMillis = new AtomicLong();
+    private final AtomicLong insertLagMaxMillis = new AtomicLong();
+    private volatile long lastInsertLagMillis = -1;
+    private volatile int offset;
+    private volatile int consecutiveFailures;
+    private volatile Instant lastPollAt;
+    private volatile String lastError;
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (!telegramService.isBotInitialized()) {
+            logger.warn("Telegram бот не инициализирован. Пропускаем запуск слушателя.");
+            return;
+        }
+        running = true;
+        pollThread = Thread.ofVirtual().name("telegram-listener").start(this::pollLoop);
+        logger.info("Слушатель канала запущен");
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = pollThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        Thread thread = pollThread;
+        if (thread == null) {
+            callback.run();
+            return;
+        }
+        // Дожидаемся, пока текущая пачка зафиксируется или прервется, не блокируя остальное завершение
+        Thread.ofVirtual().start(() -> {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(pollTimeoutSeconds + 5L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                callback.run();
+            }
+        });
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Запуск после загрузки истории канала - из TelegramBotInitializer
+     */
+    @Override
+    public boolean isAutoStartup() {
+        return false;
+    }
+    
+    private void pollLoop() {
+        // Продолжаем с последнего зафиксированного обновления
+        offset = telegramUpdateStore.loadOffset();
+        
+        while (running) {
+            try {
+                TelegramService.PollResult result = telegramService.pollUpdates(offset, pollTimeoutSeconds);
+                record(result);
+                offset = result.nextOffset();
+                consecutiveFailures = 0;
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                errors.incrementAndGet();
+                lastError = e.getMessage();
+                consecutiveFailures++;
+                long delay = backoffDelay(consecutiveFailures);
+                logger.warn("Ошибка при прослушивании канала (подряд: {}), повтор через {} мс: {}", 
+                        consecutiveFailures, delay, e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        
+        running = false;
+        logger.info("Слушатель канала остановлен");
+    }
+    
+    /**
+     * Экспоненциальная задержка с разбросом: случайное значение из [ceiling/2, ceiling]
+     */
+    private long backoffDelay(int failures) {
+        long ceiling = Math.min(backoffMaxMs, backoffInitialMs << Math.min(failures - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+    
+    private void record(TelegramService.PollResult result) {
+        polls.incrementAndGet();
+        lastPollAt = Instant.now();
+        updatesReceived.addAndGet(result.updates());
+        if (result.batch() == null) {
+            return;
+        }
+        videosInserted.addAndGet(result.batch().added());
+        for (long lag : result.batch().insertLagsMillis()) {
+            lastInsertLagMillis = lag;
+            insertLagTotalMillis.addAndGet(lag);
+            insertLagMaxMillis.accumulateAndGet(lag, Math::max);
+        }
+    }
+    
+    public Map<String, Object> getMetrics() {
+        long inserted = videosInserted.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", running);
+        metrics.put("offset", offset);
+        metrics.put("polls", polls.get());
+        metrics.put("updatesReceived", updatesReceived.get());
+        metrics.put("videosInserted", inserted);
+        metrics.put("errors", errors.get());
+        metrics.put("consecutiveFailures", consecutiveFailures);
+        metrics.put("lastError", lastError);
+        metrics.put("lastPollAt", lastPollAt != null ? lastPollAt.toString() : null);
+        metrics.put("lastInsertLagMillis", lastInsertLagMillis >= 0 ? lastInsertLagMillis : null);
+        metrics.put("avgInsertLagMillis", inserted > 0 ? insertLagTotalMillis.get() / inserted : null);
+        metrics.put("maxInsertLagMillis", inserted > 0 ? insertLagMaxMillis.get() : null);
+        return metrics;
+    }
+}
@@ -0,0 +1,135 @@
+package com.nestvision.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул скачивания видео из Telegram на виртуальных потоках
+ *
+ * Одновременно выполняется не больше telegram.download.concurrency задач, еще до
+ * telegram.download.queue-capacity ждут очереди; когда очередь полна, submit блокирует
+ * читателя getUpdates (backpressure). Запросы к одному хосту дополнительно ограничены
+ * telegram.download.per-host-limit - это касается и скачиваний вне пула (Node.js скрипт).
+ * Вызовы методов Bot API (getUpdates при загрузке истории, getFile) разнесены во времени не меньше чем
+ * на telegram.api.min-interval-ms для всех потоков вместе.
+ */
+@Component
+public class TelegramDownloadPool {
+    
+    @Value("${telegram.download.concurrency:4}")
+    private int concurrency;
+    
+    @Value("${telegram.download.queue-capacity:32}")
+    private int queueCapacity;
+    
+    @Value("${telegram.download.per-host-limit:4}")
+    private int perHostLimit;
+    
+    @Value("${telegram.api.min-interval-ms:100}")
+    private long apiMinIntervalMs;
+    
+    private ExecutorService executor;
+    
+    // Места в пуле: выполняющиеся задачи + очередь
+    private Semaphore admission;
+    
+    private Semaphore workers;
+    
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    
+    // Момент (System.nanoTime), раньше которого не начинается следующий вызов Bot API к хосту
+    private final Map<String, AtomicLong> nextApiCalls = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("telegram-download-", 0).factory());
+        admission = new Semaphore(concurrency + queueCapacity);
+        workers = new Semaphore(concurrency);
+    }
+    
+    /**
+     * Ставит задачу в пул; блокирует вызывающий поток, пока в очереди нет места
+     */
+    public <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+        admission.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    workers.acquire();
+                    try {
+                        return task.call();
+                    } finally {
+                        workers.release();
+                    }
+                } finally {
+                    admission.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Выполняет запрос к хосту, соблюдая лимит одновременных соединений с ним; разрешение держится,
+     * пока выполняется call, поэтому чтение тела ответа должно происходить внутри него
+     */
+    public <T> T withHostPermit(String host, Callable<T> call) throws Exception {
+        Semaphore permits = hostPermits.computeIfAbsent(host, key -> new Semaphore(perHostLimit));
+        permits.acquire();
+        try {
+            return call.call();
+        } finally {
+            permits.release();
+        }
+    }
+    
+    /**
+     * Ждет очереди на вызов метода Bot API: каждый вызов занимает следующий свободный интервал,
+     * поэтому параллельные потоки вместе не превышают частоту telegram.api.min-interval-ms
+     */
+    public void throttleApiCall(String host) throws InterruptedException {
+        if (apiMinIntervalMs <= 0) {
+            return;
+        }
+        long interval = TimeUnit.MILLISECONDS.toNanos(apiMinIntervalMs);
+        long now = System.nanoTime();
+        AtomicLong nextCall = nextApiCalls.computeIfAbsent(host, key -> new AtomicLong(now));
+        long previous = nextCall.getAndAccumulate(now, (next, time) -> Math.max(next, time) + interval);
+        long wait = previous - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        int active = concurrency - workers.availablePermits();
+        int occupied = concurrency + queueCapacity - admission.availablePermits();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("concurrency", concurrency);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("active", active);
+        stats.put("queued", Math.max(0, occupied - active));
+        return stats;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
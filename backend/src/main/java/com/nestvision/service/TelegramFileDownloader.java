@@ -0,0 +1,461 @@
+package com.nestvision.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Скачивание файлов с докачкой и атомарной фиксацией
+ *
+ * Файл пишется в .part во временной папке ContentStore, после обрыва (или если данные не приходят
+ * дольше telegram.download.read-timeout-seconds) скачивание продолжается с места остановки через
+ * HTTP Range. SHA-256 считается по ходу скачивания (при докачке уже скачанная часть дочитывается
+ * один раз). Большие файлы при telegram.download.parallel-ranges > 1 скачиваются несколькими
+ * диапазонами параллельно и хэшируются после скачивания; докачанные позиции диапазонов сохраняются
+ * рядом с .part в файле .ranges, и повторная попытка запрашивает только недостающие байты. Готовый файл
+ * сбрасывается на диск (fsync) и атомарно переносится под имя своего хэша, поэтому читатели
+ * никогда не видят недокачанный файл.
+ */
+@Component
+public class TelegramFileDownloader {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TelegramFileDownloader.class);
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    @Autowired
+    private TelegramDownloadPool downloadPool;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Value("${telegram.download.max-retries:5}")
+    private int maxRetries;
+    
+    @Value("${telegram.download.retry-delay-ms:500}")
+    private long retryDelayMs;
+    
+    @Value("${telegram.download.connect-timeout-seconds:10}")
+    private int connectTimeoutSeconds;
+    
+    @Value("${telegram.download.read-timeout-seconds:30}")
+    private int readTimeoutSeconds;
+    
+    @Value("${telegram.download.parallel-ranges:1}")
+    private int parallelRanges;
+    
+    @Value("${telegram.download.parallel-threshold-mb:64}")
+    private long parallelThresholdMb;
+    
+    private HttpClient httpClient;
+    
+    // Чтение тела ответа идет в отдельном виртуальном потоке, чтобы его можно было прервать по таймауту
+    private ExecutorService readExecutor;
+    
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        readExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        readExecutor.shutdownNow();
+        httpClient.shutdownNow();
+    }
+    
+    /**
+     * Скачивает файл в хранилище по содержимому
+     * @param key постоянный ключ файла (file_unique_id) - по нему находится .part при докачке
+     * @param fileName исходное имя файла (из него берется расширение)
+     * @param expectedSize размер файла, если известен (проверяется после скачивания)
+     */
+    public ContentStore.Blob download(URI uri, String key, String fileName, Long expectedSize)
+            throws IOException, InterruptedException {
+        Path part = contentStore.partFile(key);
+        Path progress = rangesFile(part);
+        MessageDigest digest = contentStore.newDigest();
+        
+        long size;
+        if (expectedSize != null && parallelRanges > 1 && expectedSize >= parallelThresholdMb * 1024 * 1024) {
+            size = downloadInRanges(uri, part, progress, expectedSize);
+            // Диапазоны приходят не по порядку - хэшируем готовый файл
+            contentStore.updateDigest(digest, part, size);
+        } else {
+            if (Files.deleteIfExists(progress)) {
+                // .part остался от скачивания диапазонами и содержит пропуски - начинаем сначала
+                Files.deleteIfExists(part);
+            }
+            size = downloadSequentially(uri, part, digest);
+        }
+        
+        if (expectedSize != null && size != expectedSize) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(progress);
+            throw new IOException("Размер скачанного файла " + size + " не совпадает с ожидаемым " + expectedSize);
+        }
+        
+        return contentStore.commit(part, digest, size, fileName);
+    }
+    
+    /**
+     * Скачивает файл одним потоком; уже скачанная часть .part (в том числе от прошлой попытки) не перекачивается
+     */
+    private long downloadSequentially(URI uri, Path part, MessageDigest digest) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (int attempt = 0; ; attempt++) {
+                long position = channel.size();
+                // Хэш должен покрывать ровно то, что уже лежит в .part
+                digest.reset();
+                if (position > 0) {
+                    contentStore.updateDigest(digest, part, position);
+                }
+                try {
+                    Long total = fetch(uri, channel, position, digest);
+                    if (total == null || channel.size() >= total) {
+                        channel.force(true);
+                        return channel.size();
+                    }
+                    throw new IOException("Соединение закрыто на " + channel.size() + " из " + total + " байт");
+                } catch (IOException e) {
+                    if (attempt >= maxRetries) {
+                        throw e;
+                    }
+                    logger.warn("Обрыв скачивания {} на {} байт, докачиваем (попытка {}): {}",
+                            part.getFileName(), channel.size(), attempt + 1, e.getMessage());
+                    Thread.sleep(retryDelayMs * (attempt + 1));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Скачивает файл несколькими диапазонами параллельно; каждый диапазон докачивается независимо.
+     * Позиции диапазонов после каждой попытки сохраняются в progress, поэтому следующий вызов
+     * (после исчерпания попыток или перезапуска) продолжает с них, а не с нуля
+     */
+    private long downloadInRanges(URI uri, Path part, Path progress, long size) throws IOException, InterruptedException {
+        long rangeSize = (size + parallelRanges - 1) / parallelRanges;
+        int count = (int) ((size + rangeSize - 1) / rangeSize);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            RangeProgress ranges = RangeProgress.load(progress, size, rangeSize, count);
+            if (ranges == null) {
+                // Сохраненных позиций нет - содержимое .part (если есть) ничем не подтверждено
+                channel.truncate(0);
+                ranges = new RangeProgress(progress, size, rangeSize, count);
+            }
+            RangeProgress state = ranges;
+            
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                if (state.position(index) < state.end(index)) {
+                    tasks.add(executor.submit(() -> {
+                        downloadRange(uri, channel, state, index);
+                        return null;
+                    }));
+                }
+            }
+            // Остальные диапазоны не отменяются при ошибке одного: докачанное ими сохранится для следующей попытки
+            IOException failure = null;
+            for (Future<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            channel.force(true);
+            Files.deleteIfExists(progress);
+            return channel.size();
+        }
+    }
+    
+    private void downloadRange(URI uri, FileChannel channel, RangeProgress ranges, int index)
+            throws IOException, InterruptedException {
+        long end = ranges.end(index);
+        long[] position = {ranges.position(index)};
+        for (int attempt = 0; ; attempt++) {
+            try {
+                fetchRange(uri, channel, position, end);
+                if (position[0] >= end) {
+                    ranges.save(channel, index, position[0]);
+                    return;
+                }
+                throw new IOException("Диапазон " + ranges.start(index) + "-" + end + " оборван на " + position[0]);
+            } catch (IOException e) {
+                ranges.save(channel, index, position[0]);
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                logger.warn("Обрыв диапазона {}-{} на {} байт, докачиваем (попытка {}): {}",
+                        ranges.start(index), end, position[0], attempt + 1, e.getMessage());
+                Thread.sleep(retryDelayMs * (attempt + 1));
+            }
+        }
+    }
+    
+    /**
+     * Докачивает файл с позиции position до конца
+     * @return полный размер файла по ответу сервера или null, если сервер его не сообщил
+     */
+    private Long fetch(URI uri, FileChannel channel, long position, MessageDigest digest)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+        if (position > 0) {
+            request.header("Range", "bytes=" + position + "-");
+        }
+        long from = position;
+        return send(uri, request.build(), (response, body) -> {
+            long writeFrom = from;
+            int status = response.statusCode();
+            if (status == 416 && writeFrom > 0) {
+                // Файл уже скачан целиком
+                return writeFrom;
+            }
+            if (status == 200) {
+                // Сервер не поддерживает Range - начинаем сначала
+                channel.truncate(0);
+                digest.reset();
+                writeFrom = 0;
+            } else if (status != 206) {
+                throw new IOException("HTTP " + status + " при скачивании файла");
+            }
+            
+            Long total = totalSize(response, writeFrom);
+            long[] writePosition = {writeFrom};
+            copy(body, channel, writePosition, Long.MAX_VALUE, digest);
+            return total;
+        });
+    }
+    
+    private void fetchRange(URI uri, FileChannel channel, long[] position, long end) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Range", "bytes=" + position[0] + "-" + (end - 1))
+                .GET()
+                .build();
+        send(uri, request, (response, body) -> {
+            if (response.statusCode() != 206) {
+                throw new IOException("HTTP " + response.statusCode() + " на запрос диапазона");
+            }
+            copy(body, channel, position, end, null);
+            return null;
+        });
+    }
+    
+    /**
+     * Выполняет запрос и обрабатывает тело ответа, удерживая разрешение лимита по хосту до закрытия тела -
+     * per-host-limit ограничивает число одновременных передач, а не только отправку запросов
+     */
+    private <T> T send(URI uri, HttpRequest request, ResponseHandler<T> handler) throws IOException, InterruptedException {
+        try {
+            return downloadPool.withHostPermit(uri.getHost(), () -> {
+                HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = new IdleTimeoutInputStream(response.body())) {
+                    return handler.handle(response, body);
+                }
+            });
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+    
+    /**
+     * Пишет тело ответа в канал с позиции position[0] (позиционная запись - безопасно для параллельных диапазонов)
+     * и, если передан digest, хэширует те же байты
+     */
+    private void copy(InputStream body, FileChannel channel, long[] position, long end, MessageDigest digest)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while (position[0] < end && (read = body.read(buffer, 0, (int) Math.min(buffer.length, end - position[0]))) != -1) {
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+            while (data.hasRemaining()) {
+                position[0] += channel.write(data, position[0]);
+            }
+        }
+    }
+    
+    /**
+     * Полный размер файла из Content-Range (206) или Content-Length (200)
+     */
+    private Long totalSize(HttpResponse<?> response, long position) {
+        var contentRange = response.headers().firstValue("Content-Range");
+        if (contentRange.isPresent()) {
+            String value = contentRange.get();
+            int slash = value.lastIndexOf('/');
+            if (slash >= 0 && !value.endsWith("*")) {
+                try {
+                    return Long.parseLong(value.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+        var contentLength = response.headers().firstValueAsLong("Content-Length");
+        return contentLength.isPresent() ? position + contentLength.getAsLong() : null;
+    }
+    
+    private Path rangesFile(Path part) {
+        return part.resolveSibling(part.getFileName() + ".ranges");
+    }
+    
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(HttpResponse<InputStream> response, InputStream body) throws IOException, InterruptedException;
+    }
+    
+    /**
+     * Тело ответа с таймаутом простоя: если очередная порция данных не пришла за read-timeout-seconds,
+     * запрос обрывается (тело закрывается, чтение прерывается) и вызывающий код докачивает файл заново
+     */
+    private class IdleTimeoutInputStream extends FilterInputStream {
+        
+        IdleTimeoutInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            Future<Integer> read = readExecutor.submit(() -> in.read(buffer, offset, length));
+            try {
+                return read.get(readTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                read.cancel(true);
+                in.close();
+                throw new HttpTimeoutException("Нет данных дольше " + readTimeoutSeconds + " с");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                read.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Скачивание прервано");
+            }
+        }
+    }
+    
+    /**
+     * Позиции докачки диапазонов; сохраняются в файл только после fsync .part,
+     * поэтому сохраненная позиция никогда не опережает данные на диске
+     */
+    private static class RangeProgress {
+        
+        private final Path file;
+        private final long size;
+        private final long rangeSize;
+        private final AtomicLongArray positions;
+        
+        RangeProgress(Path file, long size, long rangeSize, int count) {
+            this.file = file;
+            this.size = size;
+            this.rangeSize = rangeSize;
+            this.positions = new AtomicLongArray(count);
+            for (int i = 0; i < count; i++) {
+                positions.set(i, start(i));
+            }
+        }
+        
+        /**
+         * Читает сохраненные позиции; null, если файла нет или он от другой разбивки файла
+         */
+        static RangeProgress load(Path file, long size, long rangeSize, int count) {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try {
+                List<String> lines = Files.readAllLines(file);
+                if (lines.size() != count + 1 || !lines.get(0).equals(size + " " + rangeSize)) {
+                    return null;
+                }
+                RangeProgress progress = new RangeProgress(file, size, rangeSize, count);
+                for (int i = 0; i < count; i++) {
+                    long position = Long.parseLong(lines.get(i + 1).trim());
+                    if (position < progress.start(i) || position > progress.end(i)) {
+                        return null;
+                    }
+                    progress.positions.set(i, position);
+                }
+                return progress;
+            } catch (IOException | NumberFormatException e) {
+                logger.warn("Не удалось прочитать {}: {}", file.getFileName(), e.getMessage());
+                return null;
+            }
+        }
+        
+        long start(int index) {
+            return index * rangeSize;
+        }
+        
+        long end(int index) {
+            return Math.min(start(index) + rangeSize, size);
+        }
+        
+        long position(int index) {
+            return positions.get(index);
+        }
+        
+        synchronized void save(FileChannel channel, int index, long position) throws IOException {
+            positions.set(index, position);
+            channel.force(false);
+            StringBuilder text = new StringBuilder().append(size).append(' ').append(rangeSize).append('\n');
+            for (int i = 0; i < positions.length(); i++) {
+                text.append(positions.get(i)).append('\n');
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, text);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.nestvision.service;
 
+import com.nestvision.dto.TelegramVideoRequest;
+import com.nestvision.entity.Video;
 import com.nestvision.entity.VideoCategory;
 import com.nestvision.repository.VideoRepository;
 import com.pengrad.telegrambot.TelegramBot;
@@ -7,9 +9,12 @@ import com.pengrad.telegrambot.model.File;
 import com.pengrad.telegrambot.model.Message;
 import com.pengrad.telegrambot.model.Update;
 import com.pengrad.telegrambot.model.User;
+import com.pengrad.telegrambot.request.DeleteWebhook;
 import com.pengrad.telegrambot.request.GetFile;
 import com.pengrad.telegrambot.request.GetMe;
 import com.pengrad.telegrambot.request.GetUpdates;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
 import com.pengrad.telegrambot.response.GetFileResponse;
 import com.pengrad.telegrambot.response.GetMeResponse;
 import com.pengrad.telegrambot.response.GetUpdatesResponse;
@@ -20,19 +25,23 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,9 +50,33 @@ public class TelegramService {
     
     private static final Logger logger = LoggerFactory.getLogger(TelegramService.class);
     
+    // Формат даты записи в заданиях TELEGRAM_FILE (как у Node.js скрипта)
+    private static final DateTimeFormatter RECORDED_DATE_TIME = DateTimeFormatter.ofPattern("dd-MM-yyyy_HH-mm-ss");
+    
     @Autowired
     private VideoRepository videoRepository;
     
+    @Autowired
+    private VideoCatalog videoCatalog;
+    
+    @Autowired
+    private TelegramDownloadPool downloadPool;
+    
+    @Autowired
+    private TelegramFileDownloader fileDownloader;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private Mp4MetadataReader mp4MetadataReader;
+    
+    @Autowired
+    private TelegramUpdateStore telegramUpdateStore;
+    
+    @Autowired
+    private JobCoordinator jobCoordinator;
+    
     @Value("${telegram.bot.token}")
     private String botToken;
     
@@ -53,10 +86,33 @@ public class TelegramService {
     @Value("${telegram.channel.id:}")
     private String channelId;
     
-    @Value("${video.storage.path}")
-    private String storagePath;
+    // Можно указать локальный Bot API сервер (без лимита 20 МБ на скачивание)
+    @Value("${telegram.api.base-url:https://api.telegram.org}")
+    private String apiBaseUrl;
+    
+    @Value("${telegram.download.max-attempts:3}")
+    private int downloadMaxAttempts;
+    
+    @Value("${telegram.reload.cooldown-seconds:30}")
+    private long reloadCooldownSeconds;
+    
+    // polling - getUpdates (история канала + слушатель), webhook - Telegram сам присылает обновления
+    @Value("${telegram.ingestion.mode:polling}")
+    private String ingestionMode;
+    
+    @Value("${telegram.webhook.url:}")
+    private String webhookUrl;
+    
+    @Value("${telegram.webhook.secret-token:}")
+    private String webhookSecretToken;
+    
+    private volatile TelegramBot bot;
     
-    private TelegramBot bot;
+    // Прогресс загрузки видео из канала, отдается через /api/telegram/backfill
+    private final TelegramBackfillProgress backfillProgress = new TelegramBackfillProgress();
+    
+    // Файлы, которые сейчас скачиваются (по file_unique_id или file_id)
+    private final Set<String> inFlightFiles = ConcurrentHashMap.newKeySet();
     
     /**
      * Инициализирует Telegram бота
@@ -71,7 +127,10 @@ public class TelegramService {
         logger.info("  - Token (первые 20 символов): {}", botToken.length() > 20 ? botToken.substring(0, 20) + "..." : botToken);
         logger.info("  - Token length: {}", botToken.length());
         
-        bot = new TelegramBot(botToken);
+        bot = new TelegramBot.Builder(botToken)
+                .apiUrl(apiBaseUrl + "/bot")
+                .fileApiUrl(apiBaseUrl + "/file/bot")
+                .build();
         
         // Проверяем, что бот работает
         try {
@@ -94,6 +153,10 @@ public class TelegramService {
         }
     }
     
+    public TelegramBackfillProgress getBackfillProgress() {
+        return backfillProgress;
+    }
+    
     /**
      * Проверяет, инициализирован ли бот
      */
@@ -315,19 +378,34 @@ public class TelegramService {
     }
     
     /**
-     * Загружает все видео из канала при старте приложения
+     * Запускает загрузку видео из канала или присоединяется к уже идущей
+     * (в течение telegram.reload.cooldown-seconds после завершения возвращается последний запуск)
+     */
+    public JobCoordinator.Submission reloadChannel() {
+        return jobCoordinator.submit(JobCoordinator.TELEGRAM_RELOAD, Duration.ofSeconds(reloadCooldownSeconds),
+                this::loadAllVideosFromChannel);
+    }
+    
+    /**
+     * Загружает все видео из канала (при старте приложения и по /api/telegram/reload)
      * @return количество загруженных видео
      */
-    public int loadAllVideosFromChannel() {
+    private int loadAllVideosFromChannel(JobCoordinator.Progress progress) {
         if (bot == null) {
             logger.warn("Telegram бот не инициализирован");
             return 0;
         }
+        if (isWebhookMode()) {
+            logger.warn("Режим webhook: getUpdates недоступен, загрузка истории пропущена");
+            return 0;
+        }
         
         logger.info("=== НАЧАЛО ЗАГРУЗКИ ВИДЕО ИЗ КАНАЛА ===");
         logger.info("Канал: @{}", channelUsername);
         int loadedCount = 0;
-        int offset = 0;
+        // Продолжаем с последнего зафиксированного обновления, а не со всей истории
+        int offset = telegramUpdateStore.loadOffset();
+        logger.info("Начальный offset: {}", offset);
         int batchSize = 100;
         int totalUpdates = 0;
         int updatesWithMessages = 0;
@@ -335,6 +413,7 @@ public class TelegramService {
         int updatesWithVideo = 0;
         int alreadyExists = 0;
         int errors = 0;
+        backfillProgress.start();
         
         try {
             while (true) {
@@ -343,6 +422,7 @@ public class TelegramService {
                         .offset(offset);
                 
                 logger.debug("Запрашиваем обновления с offset: {}", offset);
+                downloadPool.throttleApiCall(apiHost());
                 GetUpdatesResponse updatesResponse = bot.execute(getUpdates);
                 List<Update> updates = updatesResponse.updates();
                 
@@ -352,8 +432,11 @@ public class TelegramService {
                 }
                 
                 totalUpdates += updates.size();
+                backfillProgress.addUpdates(updates.size());
                 logger.info("Получено обновлений в этом батче: {}", updates.size());
                 
+                // Видео пачки скачиваются параллельно в пуле; submit блокирует, если очередь пула полна
+                List<Map.Entry<Message, Future<Video>>> pendingVideos = new ArrayList<>();
                 for (Update update : updates) {
                     try {
                         // Для каналов сообщения приходят в channel_post, а не в message
@@ -388,6 +471,8 @@ public class TelegramService {
                         }
                         
                         updatesWithVideo++;
+                        backfillProgress.onVideoFound();
+                        progress.addSeen(1);
                         logger.info("Обновление {}: НАЙДЕНО ВИДЕО! Название: {}, Размер: {} байт", 
                                 update.updateId(), 
                                 message.video().fileName() != null ? message.video().fileName() : "без имени",
@@ -396,24 +481,31 @@ public class TelegramService {
                         // УБРАНА ПРОВЕРКА КАНАЛА: обрабатываем видео из ЛЮБОГО канала
                         logger.info("  - Обрабатываем видео из канала: {}", message.chat() != null ? message.chat().title() : "N/A");
                         
-                        boolean added = processVideoMessage(message);
-                        if (added) {
-                            loadedCount++;
-                            logger.info("  - ✅ Видео успешно добавлено!");
-                        } else {
-                            alreadyExists++;
-                            logger.info("  - ⚠️ Видео уже существует в базе");
-                        }
+                        pendingVideos.add(Map.entry(message, downloadPool.submit(() -> prepareVideoMessage(message))));
+                    } catch (InterruptedException e) {
+                        throw e;
                     } catch (Exception e) {
                         errors++;
+                        backfillProgress.onError(e.getMessage());
+                        progress.addFailed(1);
                         logger.error("Ошибка при обработке обновления {}: {}", update.updateId(), e.getMessage(), e);
                     }
                 }
                 
-                offset = updates.get(updates.size() - 1).updateId() + 1;
+                // Видео пачки и новый offset фиксируются одной транзакцией
+                long lastUpdateId = updates.get(updates.size() - 1).updateId();
+                BatchResult result = commitPending(pendingVideos, lastUpdateId);
+                loadedCount += result.added();
+                alreadyExists += result.alreadyExists();
+                errors += result.errors();
+                backfillProgress.onBatchStored(result.added(), result.alreadyExists(), result.errors(), result.lastError());
+                progress.addAdded(result.added());
+                progress.addSkipped(result.alreadyExists());
+                progress.addFailed(result.errors());
                 
-                // Небольшая задержка, чтобы не превысить лимиты API
-                Thread.sleep(100);
+                // Следующий getUpdates с новым offset подтверждает Telegram получение пачки
+                offset = (int) lastUpdateId + 1;
+                backfillProgress.setOffset(offset);
             }
             
             logger.info("=== ИТОГИ ЗАГРУЗКИ ===");
@@ -425,7 +517,9 @@ public class TelegramService {
             logger.info("  - Ошибок: {}", errors);
             logger.info("  - ✅ Загружено новых видео: {}", loadedCount);
             logger.info("=== КОНЕЦ ЗАГРУЗКИ ===");
+            backfillProgress.finish(TelegramBackfillProgress.State.COMPLETED);
         } catch (Exception e) {
+            backfillProgress.fail(e.getMessage());
             logger.error("Критическая ошибка при загрузке видео из канала", e);
         }
         
@@ -433,152 +527,300 @@ public class TelegramService {
     }
     
     /**
-     * Начинает слушать канал на предмет новых видео
+     * Дожидается скачивания видео пачки и фиксирует их вместе с offset одной транзакцией
+     * Видео, которое не удалось скачать за telegram.download.max-attempts попыток, в той же транзакции
+     * ставится заданием в ingestion_jobs - offset сдвигается за него, но видео докачается из очереди
      */
-    public void startListeningChannel() {
-        if (bot == null) {
-            logger.warn("Telegram бот не инициализирован. Пропускаем запуск слушателя.");
-            return;
+    private BatchResult commitPending(List<Map.Entry<Message, Future<Video>>> pendingVideos, long lastUpdateId)
+            throws InterruptedException {
+        List<Video> prepared = new ArrayList<>();
+        List<TelegramVideoRequest> failed = new ArrayList<>();
+        Map<Video, Message> sourceMessages = new IdentityHashMap<>();
+        int alreadyExists = 0;
+        int errors = 0;
+        String lastError = null;
+        // Резерв подготовленных файлов держится до конца транзакции вставки
+        Runnable releaseClaims = () -> prepared.forEach(this::releaseFile);
+        List<Video> inserted;
+        try {
+            for (Map.Entry<Message, Future<Video>> pending : pendingVideos) {
+                Message message = pending.getKey();
+                try {
+                    Video video = awaitPrepared(message, pending.getValue());
+                    if (video != null) {
+                        prepared.add(video);
+                        sourceMessages.put(video, message);
+                    } else {
+                        alreadyExists++;
+                        logger.info("  - ⚠️ Видео из сообщения {} уже существует в базе", message.messageId());
+                    }
+                } catch (ExecutionException e) {
+                    errors++;
+                    lastError = e.getCause().getMessage();
+                    failed.add(toVideoRequest(message));
+                    logger.error("Ошибка при обработке видео из сообщения {}, ставим в очередь заданий: {}", 
+                            message.messageId(), e.getCause().getMessage(), e.getCause());
+                }
+            }
+            
+            inserted = telegramUpdateStore.commitBatch(prepared, failed, lastUpdateId, releaseClaims);
+        } catch (InterruptedException | RuntimeException e) {
+            // Пачка не зафиксирована: снимаем резерв и с уже подготовленных, и с еще скачивающихся видео
+            releaseClaims.run();
+            abandonPending(pendingVideos);
+            throw e;
         }
+        alreadyExists += prepared.size() - inserted.size();
         
-        logger.info("Запускаем слушатель канала: @{}", channelUsername);
+        // Задержка от даты сообщения в Telegram до фиксации видео в базе
+        long now = System.currentTimeMillis();
+        List<Long> insertLagsMillis = new ArrayList<>(inserted.size());
+        for (Video video : inserted) {
+            insertLagsMillis.add(now - sourceMessages.get(video).date() * 1000L);
+            logger.info("  - ✅ Видео добавлено: {} (категория: {})", video.getFileName(), video.getCategory());
+        }
+        return new BatchResult(inserted.size(), alreadyExists, errors, lastError, insertLagsMillis);
+    }
+    
+    /**
+     * Ждет скачивания видео; упавшую задачу повторяет до telegram.download.max-attempts раз
+     * @return видео для вставки или null, если оно уже существует
+     */
+    private Video awaitPrepared(Message message, Future<Video> future) throws InterruptedException, ExecutionException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (attempt >= downloadMaxAttempts) {
+                    throw e;
+                }
+                logger.warn("Повторяем обработку видео из сообщения {} (попытка {}): {}", 
+                        message.messageId(), attempt + 1, e.getCause().getMessage());
+                future = downloadPool.submit(() -> prepareVideoMessage(message));
+            }
+        }
+    }
+    
+    /**
+     * Отменяет недождавшиеся задачи пачки и снимает резерв с уже готовых
+     */
+    private void abandonPending(List<Map.Entry<Message, Future<Video>>> pendingVideos) {
+        for (Map.Entry<Message, Future<Video>> pending : pendingVideos) {
+            Future<Video> future = pending.getValue();
+            future.cancel(true);
+            if (future.state() == Future.State.SUCCESS && future.resultNow() != null) {
+                releaseFile(future.resultNow());
+            }
+        }
+    }
+    
+    /**
+     * Видео из сообщения в виде задания TELEGRAM_FILE (категория и дата записи - как при скачивании из пачки)
+     */
+    public TelegramVideoRequest toVideoRequest(Message message) {
+        com.pengrad.telegrambot.model.Video telegramVideo = message.video();
+        String fileName = telegramVideo.fileName();
+        if (fileName == null || fileName.isEmpty()) {
+            fileName = "video_" + message.messageId() + ".mp4";
+        }
+        LocalDateTime recordedAt = LocalDateTime.ofInstant(Instant.ofEpochSecond(message.date()), ZoneId.systemDefault());
+        return new TelegramVideoRequest(telegramVideo.fileId(), telegramVideo.fileUniqueId(), fileName,
+                (long) message.messageId(), detectCategoryFromMessage(message).name(), recordedAt.format(RECORDED_DATE_TIME));
+    }
+    
+    /**
+     * Итог пачки обновлений; insertLagsMillis - задержка от даты сообщения до вставки для каждого добавленного видео
+     */
+    public record BatchResult(int added, int alreadyExists, int errors, String lastError, List<Long> insertLagsMillis) {
+    }
+    
+    /**
+     * Один long-poll запрос getUpdates и фиксация полученной пачки вместе с offset
+     * Используется TelegramChannelListener
+     * 
+     * @return результат пачки; nextOffset - offset для следующего запроса
+     * @throws IllegalStateException если Telegram API вернул ошибку
+     */
+    public PollResult pollUpdates(int offset, int timeoutSeconds) throws InterruptedException {
+        GetUpdates getUpdates = new GetUpdates()
+                .limit(100)
+                .offset(offset)
+                .timeout(timeoutSeconds);
         
-        new Thread(() -> {
-            int lastUpdateId = 0;
+        GetUpdatesResponse updatesResponse = bot.execute(getUpdates);
+        if (!updatesResponse.isOk()) {
+            throw new IllegalStateException("getUpdates: " + updatesResponse.errorCode() + " " + updatesResponse.description());
+        }
+        List<Update> updates = updatesResponse.updates();
+        if (updates == null || updates.isEmpty()) {
+            return new PollResult(offset, 0, null);
+        }
+        
+        logger.info("Слушатель: получено {} новых обновлений", updates.size());
+        List<Map.Entry<Message, Future<Video>>> pendingVideos = new ArrayList<>();
+        for (Update update : updates) {
+            logger.debug("Слушатель: обработка обновления {}", update.updateId());
             
-            while (true) {
-                try {
-                    GetUpdates getUpdates = new GetUpdates()
-                            .limit(100)
-                            .offset(lastUpdateId + 1)
-                            .timeout(30);
-                    
-                    GetUpdatesResponse updatesResponse = bot.execute(getUpdates);
-                    List<Update> updates = updatesResponse.updates();
-                    
-                    if (updates != null && !updates.isEmpty()) {
-                        logger.info("Слушатель: получено {} новых обновлений", updates.size());
-                        for (Update update : updates) {
-                            logger.debug("Слушатель: обработка обновления {}", update.updateId());
-                            
-                            // Для каналов сообщения приходят в channel_post, а не в message
-                            Message channelPost = update.channelPost();
-                            Message message = update.message();
-                            
-                            logger.debug("  - channel_post: {}", channelPost != null ? "есть" : "нет");
-                            logger.debug("  - message: {}", message != null ? "есть" : "нет");
-                            
-                            Message msg = channelPost != null ? channelPost : message;
-                            
-                            if (msg != null) {
-                                if (msg.chat() != null) {
-                                    logger.debug("  - Chat ID: {}", msg.chat().id());
-                                    logger.debug("  - Chat title: {}", msg.chat().title());
-                                    logger.debug("  - Chat type: {}", msg.chat().type());
-                                }
-                                logger.debug("  - Has video: {}", msg.video() != null);
-                            }
-                            
-                            if (msg != null && msg.video() != null) {
-                                logger.info("Слушатель: найдено новое видео в обновлении {}", update.updateId());
-                                logger.info("Слушатель: обрабатываем видео из канала: {}", msg.chat() != null ? msg.chat().title() : "N/A");
-                                boolean added = processVideoMessage(msg);
-                                if (added) {
-                                    logger.info("Слушатель: ✅ Новое видео добавлено!");
-                                } else {
-                                    logger.info("Слушатель: видео уже существует или ошибка при обработке");
-                                }
-                            } else {
-                                if (msg == null) {
-                                    logger.debug("Слушатель: обновление {} не содержит сообщения", update.updateId());
-                                } else {
-                                    logger.debug("Слушатель: обновление {} не содержит видео", update.updateId());
-                                }
-                            }
-                            lastUpdateId = update.updateId();
-                        }
-                    }
-                    
-                    Thread.sleep(1000); // Проверяем каждую секунду
-                } catch (InterruptedException e) {
-                    logger.info("Слушатель канала остановлен");
-                    break;
-                } catch (Exception e) {
-                    logger.error("Ошибка при прослушивании канала", e);
-                    try {
-                        Thread.sleep(5000); // При ошибке ждем 5 секунд
-                    } catch (InterruptedException ie) {
-                        break;
-                    }
-                }
+            // Для каналов сообщения приходят в channel_post, а не в message
+            Message msg = update.channelPost() != null ? update.channelPost() : update.message();
+            
+            if (msg != null && msg.video() != null) {
+                logger.info("Слушатель: найдено новое видео в обновлении {}", update.updateId());
+                logger.info("Слушатель: обрабатываем видео из канала: {}", msg.chat() != null ? msg.chat().title() : "N/A");
+                pendingVideos.add(Map.entry(msg, downloadPool.submit(() -> prepareVideoMessage(msg))));
+            } else if (msg == null) {
+                logger.debug("Слушатель: обновление {} не содержит сообщения", update.updateId());
+            } else {
+                logger.debug("Слушатель: обновление {} не содержит видео", update.updateId());
             }
-        }).start();
+        }
+        
+        long lastUpdateId = updates.get(updates.size() - 1).updateId();
+        BatchResult result = commitPending(pendingVideos, lastUpdateId);
+        if (!pendingVideos.isEmpty()) {
+            logger.info("Слушатель: добавлено новых видео: {}, уже существует: {}, ошибок: {}", 
+                    result.added(), result.alreadyExists(), result.errors());
+        }
+        return new PollResult((int) lastUpdateId + 1, updates.size(), result);
     }
     
     /**
-     * Обрабатывает сообщение с видео
-     * @return true если видео было добавлено, false если уже существует
+     * Результат одного запроса getUpdates; batch == null, если обновлений не было
      */
-    private boolean processVideoMessage(Message message) {
+    public record PollResult(int nextOffset, int updates, BatchResult batch) {
+    }
+    
+    public boolean isWebhookMode() {
+        return "webhook".equalsIgnoreCase(ingestionMode);
+    }
+    
+    /**
+     * Регистрирует webhook в Telegram (режим webhook)
+     * @return true, если Telegram принял webhook
+     */
+    public boolean configureWebhook() {
+        if (webhookUrl == null || webhookUrl.isEmpty() || webhookSecretToken == null || webhookSecretToken.isEmpty()) {
+            logger.error("Для режима webhook нужны telegram.webhook.url и telegram.webhook.secret-token");
+            return false;
+        }
+        BaseResponse response = bot.execute(new SetWebhook()
+                .url(webhookUrl)
+                .secretToken(webhookSecretToken)
+                .allowedUpdates("message", "channel_post"));
+        if (!response.isOk()) {
+            logger.error("Не удалось установить webhook: {} {}", response.errorCode(), response.description());
+            return false;
+        }
+        logger.info("Webhook установлен: {}", webhookUrl);
+        return true;
+    }
+    
+    /**
+     * Снимает webhook, иначе getUpdates отвечает 409 (режим polling)
+     */
+    public void deleteWebhook() {
+        BaseResponse response = bot.execute(new DeleteWebhook());
+        if (!response.isOk()) {
+            logger.warn("Не удалось снять webhook: {} {}", response.errorCode(), response.description());
+        }
+    }
+    
+    /**
+     * Проверяет заголовок X-Telegram-Bot-Api-Secret-Token
+     */
+    public boolean isValidWebhookSecret(String secretToken) {
+        if (secretToken == null || webhookSecretToken == null || webhookSecretToken.isEmpty()) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                secretToken.getBytes(StandardCharsets.UTF_8),
+                webhookSecretToken.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Видео из обновления webhook в виде задания TELEGRAM_FILE
+     * Webhook не трогает offset getUpdates: обновление становится заданием в ingestion_jobs еще до ответа Telegram
+     * @return задание или null, если в обновлении нет видео
+     */
+    public TelegramVideoRequest webhookVideo(Update update) {
+        // Для каналов сообщения приходят в channel_post, а не в message
+        Message msg = update.channelPost() != null ? update.channelPost() : update.message();
+        if (msg == null || msg.video() == null) {
+            logger.debug("Webhook: обновление {} не содержит видео", update.updateId());
+            return null;
+        }
+        logger.info("Webhook: найдено видео в обновлении {}", update.updateId());
+        return toVideoRequest(msg);
+    }
+    
+    /**
+     * Скачивает видео из сообщения и готовит запись для вставки (вставляет TelegramUpdateStore вместе с offset)
+     * Резерв возвращенного видео не снимается здесь: его снимает commitPending после транзакции вставки,
+     * иначе параллельная доставка того же ролика не увидела бы ни резерва, ни строки в базе
+     * @return видео для вставки или null, если оно уже существует
+     * @throws IOException если видео не удалось скачать
+     */
+    private Video prepareVideoMessage(Message message) throws IOException {
+        String claimedKey = null;
+        boolean keepClaim = false;
         try {
             com.pengrad.telegrambot.model.Video telegramVideo = message.video();
             if (telegramVideo == null) {
-                return false;
+                return null;
             }
             
             String fileId = telegramVideo.fileId();
+            String fileUniqueId = telegramVideo.fileUniqueId();
             String fileName = telegramVideo.fileName();
             if (fileName == null || fileName.isEmpty()) {
                 fileName = "video_" + message.messageId() + ".mp4";
             }
             
+            // Одновременные доставки одного и того же ролика: скачивает только первая
+            claimedKey = claimFile(fileUniqueId, fileId);
+            if (claimedKey == null) {
+                logger.debug("Видео уже обрабатывается: {} (fileUniqueId: {})", fileName, fileUniqueId);
+                return null;
+            }
+            
             // Проверяем, есть ли уже это видео в базе
-            // Проверяем по telegram_file_id (самый надежный способ)
-            final String finalFileId = fileId;
+            // Сначала по telegram_file_unique_id (не меняется между ботами), затем по telegram_file_id,
+            // telegram_message_id и по имени файла и размеру (для совместимости со старыми записями)
             final Long messageId = (long) message.messageId();
-            final String finalFileName = fileName;
-            final Long fileSize = (long) telegramVideo.fileSize();
-            boolean exists = videoRepository.findAll().stream()
-                    .anyMatch(v -> {
-                        // Проверяем по telegram_file_id (если есть)
-                        if (v.getTelegramFileId() != null && v.getTelegramFileId().equals(finalFileId)) {
-                            return true;
-                        }
-                        // Проверяем по telegram_message_id (если есть)
-                        if (v.getTelegramMessageId() != null && v.getTelegramMessageId().equals(messageId)) {
-                            return true;
-                        }
-                        // Проверяем по имени файла и размеру (для совместимости со старыми записями)
-                        if (v.getFileName() != null && v.getFileName().equals(finalFileName) && 
-                            v.getSize() != null && v.getSize().equals((long) fileSize)) {
-                            return true;
-                        }
-                        return false;
-                    });
+            final Long fileSize = telegramVideo.fileSize() != null ? (long) telegramVideo.fileSize() : null;
+            boolean exists = (fileUniqueId != null && videoRepository.existsByTelegramFileUniqueId(fileUniqueId))
+                    || videoRepository.existsByTelegramFileId(fileId)
+                    || videoRepository.existsByTelegramMessageId(messageId)
+                    || (fileSize != null && videoRepository.existsByFileNameAndSize(fileName, fileSize));
             
             if (exists) {
                 logger.debug("Видео уже существует в базе: {} (fileId: {})", fileName, fileId);
-                return false;
+                return null;
             }
             
             // Определяем категорию из текста сообщения или названия канала
             VideoCategory category = detectCategoryFromMessage(message);
             
             // Скачиваем файл
-            String filePath = downloadVideoFile(fileId, fileName, category);
-            if (filePath == null) {
-                logger.error("Не удалось скачать видео: {}", fileName);
-                return false;
+            ContentStore.Blob blob = downloadVideoFile(fileId, fileUniqueId, fileName);
+            if (blob == null) {
+                throw new IOException("Не удалось скачать видео: " + fileName);
+            }
+            if (blob.existing() && videoRepository.existsByContentSha256(blob.sha256())) {
+                logger.debug("Видео с таким же содержимым уже есть в базе: {} (sha256: {})", fileName, blob.sha256());
+                return null;
             }
             
             // Создаем запись в БД
-            com.nestvision.entity.Video video = new com.nestvision.entity.Video();
+            Video video = new Video();
             video.setFileName(fileName);
-            video.setFilePath(filePath);
+            video.setFilePath(blob.path().toString());
+            video.setContentSha256(blob.sha256());
             video.setCategory(category);
             
             // Сохраняем Telegram метаданные для проверки дубликатов
             video.setTelegramFileId(fileId);
+            video.setTelegramFileUniqueId(fileUniqueId);
             video.setTelegramMessageId((long) message.messageId());
             
             // Определяем дату записи из сообщения
@@ -590,24 +832,31 @@ public class TelegramService {
             video.setUploadedAt(LocalDateTime.now());
             video.setSize((long) telegramVideo.fileSize());
             video.setDuration((long) telegramVideo.duration());
+            // Разрешение, кодек и битрейт - из самого файла (длительность из него точнее, чем у Telegram)
+            mp4MetadataReader.fill(video, blob.path());
             
-            videoRepository.save(video);
-            logger.info("Видео добавлено: {} (категория: {})", fileName, category);
-            
-            return true;
-        } catch (Exception e) {
-            logger.error("Ошибка при обработке видео сообщения", e);
-            return false;
+            keepClaim = true;
+            return video;
+        } finally {
+            if (!keepClaim) {
+                releaseFile(claimedKey);
+            }
         }
     }
     
     /**
-     * Обрабатывает видео по file_id (для вызова из Node.js скрипта)
+     * Обрабатывает видео по file_id (для вызова из Node.js скрипта через IngestionJobService)
+     * @return true если видео было добавлено, false если уже существует
+     * @throws IOException если видео не удалось скачать
+     * @throws IllegalStateException если бот не инициализирован или Telegram не отдал файл
      */
-    public boolean processVideoFromFileId(String fileId, String fileName, Long messageId, String categoryStr, String recordedDateTimeStr) {
+    public boolean processVideoFromFileId(String fileId, String fileUniqueId, String fileName, Long messageId,
+                                          String categoryStr, String recordedDateTimeStr) throws IOException {
+        String claimedKey = null;
         try {
             logger.info("=== НАЧАЛО ОБРАБОТКИ ВИДЕО ИЗ NODE.JS ===");
             logger.info("  - File ID: {}", fileId);
+            logger.info("  - File Unique ID: {}", fileUniqueId);
             logger.info("  - File Name: {}", fileName);
             logger.info("  - Message ID: {}", messageId);
             logger.info("  - Category: {}", categoryStr);
@@ -618,13 +867,29 @@ public class TelegramService {
             // Проверяем, что бот инициализирован
             if (bot == null) {
                 logger.error("Бот не инициализирован!");
+                throw new IllegalStateException("Telegram бот не инициализирован");
+            }
+            
+            // Одновременные доставки одного и того же ролика: скачивает только первая
+            claimedKey = claimFile(fileUniqueId, fileId);
+            if (claimedKey == null) {
+                logger.info("Видео уже обрабатывается: {} (fileUniqueId: {})", fileName, fileUniqueId);
+                return false;
+            }
+            
+            // Проверяем, есть ли уже это видео в базе - до запроса GetFile и скачивания
+            boolean exists = (fileUniqueId != null && videoRepository.existsByTelegramFileUniqueId(fileUniqueId))
+                    || videoRepository.existsByTelegramFileId(fileId)
+                    || (messageId != null && videoRepository.existsByTelegramMessageId(messageId));
+            
+            if (exists) {
+                logger.debug("Видео уже существует в базе: {} (fileId: {})", fileName, fileId);
                 return false;
             }
             
             // Получаем информацию о файле
             logger.info("Отправляем запрос GetFile в Telegram API...");
-            GetFile getFile = new GetFile(fileId);
-            GetFileResponse fileResponse = bot.execute(getFile);
+            GetFileResponse fileResponse = getFile(fileId);
             
             logger.info("Получен ответ от Telegram API:");
             logger.info("  - isOk: {}", fileResponse.isOk());
@@ -643,7 +908,7 @@ public class TelegramService {
                 logger.error("    3. file_id недействителен или истек");
                 logger.error("    4. Файл был удален из Telegram");
                 logger.error("    5. Неверный токен бота");
-                return false;
+                throw new IllegalStateException("GetFile: " + fileResponse.errorCode() + " " + fileResponse.description());
             }
             
             File file = fileResponse.file();
@@ -657,7 +922,7 @@ public class TelegramService {
                 logger.error("     1. Бот является администратором канала");
                 logger.error("     2. Бот имеет право 'Читать сообщения'");
                 logger.error("     3. file_id корректен и не истек");
-                return false;
+                throw new IllegalStateException("Telegram не вернул файл для file_id " + fileId);
             }
             
             logger.info("Файл получен успешно:");
@@ -670,33 +935,13 @@ public class TelegramService {
                 logger.error("  - File ID: {}", file.fileId());
                 logger.error("  - File Size: {}", file.fileSize());
                 logger.error("  - Это может означать, что файл недоступен для скачивания");
-                return false;
+                throw new IllegalStateException("Файл недоступен для скачивания: " + fileId);
             }
             
             // Получаем информацию о видео через getFile (если доступно)
             // Для получения полной информации о видео нужно использовать другой метод
             // Пока используем базовую информацию
             
-            // Проверяем, есть ли уже это видео в базе
-            final String finalFileId = fileId;
-            final String finalFileName = fileName;
-            boolean exists = videoRepository.findAll().stream()
-                    .anyMatch(v -> {
-                        if (v.getTelegramFileId() != null && v.getTelegramFileId().equals(finalFileId)) {
-                            return true;
-                        }
-                        if (messageId != null && v.getTelegramMessageId() != null && 
-                            v.getTelegramMessageId().equals(messageId)) {
-                            return true;
-                        }
-                        return false;
-                    });
-            
-            if (exists) {
-                logger.debug("Видео уже существует в базе: {} (fileId: {})", fileName, fileId);
-                return false;
-            }
-            
             // Определяем категорию
             VideoCategory category = VideoCategory.SUDDEN_EVENT; // По умолчанию
             if (categoryStr != null) {
@@ -726,20 +971,30 @@ public class TelegramService {
             
             // Скачиваем файл
             logger.info("Начинаем скачивание файла...");
-            String filePath = downloadVideoFile(fileId, fileName, category);
-            if (filePath == null) {
+            ContentStore.Blob blob = downloadVideoFile(file, fileId, fileUniqueId, fileName);
+            if (blob == null) {
                 logger.error("Не удалось скачать видео: {}", fileName);
                 logger.error("=== КОНЕЦ ОБРАБОТКИ ВИДЕО (ОШИБКА) ===");
+                throw new IOException("Не удалось скачать видео: " + fileName);
+            }
+            String filePath = blob.path().toString();
+            logger.info("Файл успешно скачан: {} (sha256: {})", filePath, blob.sha256());
+            
+            // Тот же ролик мог прийти раньше другим путем (загрузка через сайт, папка)
+            if (blob.existing() && videoRepository.existsByContentSha256(blob.sha256())) {
+                logger.info("Видео с таким же содержимым уже есть в базе: {}", fileName);
+                logger.info("=== КОНЕЦ ОБРАБОТКИ ВИДЕО (ДУБЛИКАТ) ===");
                 return false;
             }
-            logger.info("Файл успешно скачан: {}", filePath);
             
             // Создаем запись в БД
-            com.nestvision.entity.Video video = new com.nestvision.entity.Video();
+            Video video = new Video();
             video.setFileName(fileName);
             video.setFilePath(filePath);
+            video.setContentSha256(blob.sha256());
             video.setCategory(category);
             video.setTelegramFileId(fileId);
+            video.setTelegramFileUniqueId(fileUniqueId);
             if (messageId != null) {
                 video.setTelegramMessageId(messageId);
             }
@@ -748,9 +1003,16 @@ public class TelegramService {
             if (file.fileSize() != null) {
                 video.setSize((long) file.fileSize());
             }
+            mp4MetadataReader.fill(video, blob.path());
             
             logger.info("Сохранение видео в базу данных...");
-            videoRepository.save(video);
+            if (videoRepository.insertIfAbsent(video) == 0) {
+                contentStore.discardIfUnreferenced(blob);
+                logger.info("Видео уже добавлено параллельно: {} (fileUniqueId: {})", fileName, fileUniqueId);
+                logger.info("=== КОНЕЦ ОБРАБОТКИ ВИДЕО (ДУБЛИКАТ) ===");
+                return false;
+            }
+            videoCatalog.onVideoInserted(video);
             logger.info("✅ Видео успешно добавлено из Node.js скрипта:");
             logger.info("  - File Name: {}", fileName);
             logger.info("  - Category: {}", category);
@@ -761,26 +1023,68 @@ public class TelegramService {
             logger.info("=== КОНЕЦ ОБРАБОТКИ ВИДЕО (УСПЕХ) ===");
             
             return true;
+        } finally {
+            releaseFile(claimedKey);
+        }
+    }
+    
+    /**
+     * Резервирует файл за текущим потоком на время скачивания и вставки
+     * Ключ - file_unique_id, если он известен, иначе file_id
+     * @return ключ резерва или null, если файл уже обрабатывается другим потоком
+     */
+    private String claimFile(String fileUniqueId, String fileId) {
+        String key = claimKey(fileUniqueId, fileId);
+        return inFlightFiles.add(key) ? key : null;
+    }
+    
+    private String claimKey(String fileUniqueId, String fileId) {
+        return fileUniqueId != null && !fileUniqueId.isEmpty() ? fileUniqueId : fileId;
+    }
+    
+    private void releaseFile(String key) {
+        if (key != null) {
+            inFlightFiles.remove(key);
+        }
+    }
+    
+    private void releaseFile(Video video) {
+        releaseFile(claimKey(video.getTelegramFileUniqueId(), video.getTelegramFileId()));
+    }
+    
+    /**
+     * GetFile под тем же лимитом соединений с API Telegram, что и скачивание файла, и с общим интервалом вызовов API
+     */
+    private GetFileResponse getFile(String fileId) throws IOException {
+        try {
+            downloadPool.throttleApiCall(apiHost());
+            return downloadPool.withHostPermit(apiHost(), () -> bot.execute(new GetFile(fileId)));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Запрос GetFile прерван", e);
         } catch (Exception e) {
-            logger.error("Ошибка при обработке видео из Node.js скрипта", e);
-            return false;
+            throw new IOException("Ошибка запроса GetFile: " + e.getMessage(), e);
         }
     }
     
+    private String apiHost() {
+        return URI.create(apiBaseUrl).getHost();
+    }
+    
     /**
-     * Скачивает видео файл из Telegram
+     * Скачивает видео файл из Telegram в хранилище по содержимому
      */
-    private String downloadVideoFile(String fileId, String fileName, VideoCategory category) {
+    private ContentStore.Blob downloadVideoFile(String fileId, String fileUniqueId, String fileName) {
         try {
             logger.info("downloadVideoFile: Начало скачивания");
             logger.info("  - File ID: {}", fileId);
             logger.info("  - File Name: {}", fileName);
-            logger.info("  - Category: {}", category);
             
             // Получаем информацию о файле
             logger.info("  - Запрос GetFile в Telegram API...");
-            GetFile getFile = new GetFile(fileId);
-            GetFileResponse fileResponse = bot.execute(getFile);
+            GetFileResponse fileResponse = getFile(fileId);
             
             logger.info("  - Ответ получен: isOk={}, errorCode={}", fileResponse.isOk(), fileResponse.errorCode());
             
@@ -799,40 +1103,40 @@ public class TelegramService {
                 }
                 return null;
             }
-            
+            return downloadVideoFile(file, fileId, fileUniqueId, fileName);
+        } catch (IOException e) {
+            logger.error("Ошибка запроса GetFile для {}: {}", fileId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Скачивает файл, путь к которому уже получен через GetFile
+     */
+    private ContentStore.Blob downloadVideoFile(File file, String fileId, String fileUniqueId, String fileName) {
+        try {
             logger.info("  - File Path получен: {}", file.filePath());
             logger.info("  - File Size: {} bytes", file.fileSize());
             
             // Формируем URL для скачивания
-            String fileUrl = "https://api.telegram.org/file/bot" + botToken + "/" + file.filePath();
+            String fileUrl = apiBaseUrl + "/file/bot" + botToken + "/" + file.filePath();
             logger.info("  - Download URL: {}", fileUrl.replace(botToken, "TOKEN_HIDDEN"));
             
-            // Определяем папку для сохранения
-            String categoryFolder = getCategoryFolderName(category);
-            Path categoryPath = Paths.get(storagePath, categoryFolder);
-            logger.info("  - Category folder: {}", categoryFolder);
-            logger.info("  - Storage path: {}", storagePath);
-            logger.info("  - Full category path: {}", categoryPath.toAbsolutePath());
-            
-            Files.createDirectories(categoryPath);
-            logger.info("  - Директория создана/проверена");
-            
-            // Скачиваем файл
-            Path targetPath = categoryPath.resolve(fileName);
-            logger.info("  - Target path: {}", targetPath.toAbsolutePath());
             logger.info("  - Начинаем скачивание файла...");
             
             long startTime = System.currentTimeMillis();
-            try (InputStream in = new URL(fileUrl).openStream()) {
-                long fileSize = Files.copy(in, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                long duration = System.currentTimeMillis() - startTime;
-                logger.info("  - Файл скачан успешно:");
-                logger.info("     * Size: {} bytes ({} MB)", fileSize, String.format("%.2f", fileSize / 1024.0 / 1024.0));
-                logger.info("     * Duration: {} ms", duration);
-            }
+            // Пишем в .part с докачкой, хэшируем по ходу и переносим под имя хэша только целиком скачанный файл
+            Long expectedSize = file.fileSize() != null ? file.fileSize().longValue() : null;
+            String partKey = fileUniqueId != null && !fileUniqueId.isEmpty() ? fileUniqueId : fileId;
+            ContentStore.Blob blob = fileDownloader.download(URI.create(fileUrl), partKey, fileName, expectedSize);
+            long duration = System.currentTimeMillis() - startTime;
+            logger.info("  - Файл скачан успешно:");
+            logger.info("     * Size: {} bytes ({} MB)", blob.size(), String.format("%.2f", blob.size() / 1024.0 / 1024.0));
+            logger.info("     * Duration: {} ms", duration);
+            logger.info("     * SHA-256: {}{}", blob.sha256(), blob.existing() ? " (уже в хранилище)" : "");
             
-            logger.info("✅ Видео скачано: {}", targetPath.toAbsolutePath());
-            return targetPath.toAbsolutePath().toString();
+            logger.info("✅ Видео скачано: {}", blob.path());
+            return blob;
         } catch (IOException e) {
             logger.error("Ошибка при скачивании видео файла", e);
             logger.error("  - Exception type: {}", e.getClass().getName());
@@ -930,18 +1234,4 @@ public class TelegramService {
         logger.debug("  - Пропускаем: это не канал и не private чат");
         return false;
     }
-    
-    /**
-     * Возвращает имя папки для категории
-     */
-    private String getCategoryFolderName(VideoCategory category) {
-        return switch (category) {
-            case AGGRESSION_BETWEEN_CHILDREN -> "aggression_children";
-            case AGGRESSION_TEACHER -> "aggression_teacher";
-            case SUDDEN_EVENT -> "sudden_event";
-            case CHILDREN_UNATTENDED -> "children_unattended";
-        };
-    }
 }
-
-
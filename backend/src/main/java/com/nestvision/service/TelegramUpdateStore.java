@@ -0,0 +1,106 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.TelegramVideoRequest;
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.entity.Video;
+import com.nestvision.repository.IngestionJobRepository;
+import com.nestvision.repository.TelegramOffsetRepository;
+import com.nestvision.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Фиксирует видео пачки обновлений Telegram вместе с позицией getUpdates
+ *
+ * Видео и offset пишутся одной транзакцией: после перезапуска опрос продолжается
+ * с первого незафиксированного обновления, а не со всей истории. Видео, которые не удалось
+ * скачать, в той же транзакции ставятся заданиями в ingestion_jobs - offset сдвигается
+ * за них, но сами видео не теряются.
+ */
+@Service
+public class TelegramUpdateStore {
+    
+    // Позиция опроса getUpdates бота
+    private static final String UPDATES_OFFSET = "getUpdates";
+    
+    @Autowired
+    private TelegramOffsetRepository telegramOffsetRepository;
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Autowired
+    private IngestionJobRepository ingestionJobRepository;
+    
+    @Autowired
+    private VideoCatalog videoCatalog;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    /**
+     * @return offset для следующего getUpdates (0, если ничего еще не зафиксировано)
+     */
+    @Transactional(readOnly = true)
+    public int loadOffset() {
+        return telegramOffsetRepository.findById(UPDATES_OFFSET)
+                .map(offset -> (int) (offset.getLastUpdateId() + 1))
+                .orElse(0);
+    }
+    
+    /**
+     * Вставляет видео пачки, ставит в очередь заданий failed и сдвигает offset за lastUpdateId
+     * @param afterCompletion вызывается после коммита или отката (снятие резерва файлов)
+     * @return видео, которые были добавлены (остальные уже были в базе)
+     */
+    @Transactional
+    public List<Video> commitBatch(List<Video> videos, List<TelegramVideoRequest> failed, long lastUpdateId,
+                                   Runnable afterCompletion) {
+        // Регистрируем до вставок, чтобы резерв снимался и при откате
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                afterCompletion.run();
+            }
+        });
+        
+        List<Video> inserted = new ArrayList<>();
+        List<Video> skipped = new ArrayList<>();
+        for (Video video : videos) {
+            if (videoRepository.insertIfAbsent(video) > 0) {
+                inserted.add(video);
+            } else {
+                skipped.add(video);
+            }
+        }
+        
+        List<IngestionJob> retries = new ArrayList<>(failed.size());
+        for (TelegramVideoRequest request : failed) {
+            retries.add(IngestionJobService.newTelegramJob(request.getFileId(), request.getFileUniqueId(),
+                    request.getFileName(), request.getMessageId(), request.getCategory(), request.getRecordedDateTime()));
+        }
+        ingestionJobRepository.saveAll(retries);
+        
+        telegramOffsetRepository.advance(UPDATES_OFFSET, lastUpdateId, LocalDateTime.now());
+        
+        // Каталог видит видео только после коммита
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                inserted.forEach(videoCatalog::onVideoInserted);
+                // Скачанное содержимое дубликатов не нужно, если на него не ссылается другое видео
+                skipped.forEach(video -> contentStore.discardIfUnreferenced(
+                        video.getContentSha256(), Paths.get(video.getFilePath())));
+            }
+        });
+        return inserted;
+    }
+}
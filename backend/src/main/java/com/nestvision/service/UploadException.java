@@ -0,0 +1,28 @@
+package com.nestvision.service;
+
+import org.springframework.http.HttpStatusCode;
+
+/**
+ * Ошибка загрузки видео с HTTP-статусом и кодом для ответа
+ * Выбрасывается при разборе формы и в возобновляемых загрузках, в ответ превращается в GlobalExceptionHandler
+ */
+public class UploadException extends RuntimeException {
+    
+    private final HttpStatusCode status;
+    
+    private final String error;
+    
+    public UploadException(HttpStatusCode status, String error, String message) {
+        super(message);
+        this.status = status;
+        this.error = error;
+    }
+    
+    public HttpStatusCode getStatus() {
+        return status;
+    }
+    
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,381 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.UploadSession;
+import com.nestvision.entity.UploadSessionStatus;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Возобновляемая загрузка больших файлов по протоколу tus (create / HEAD / PATCH)
+ *
+ * При создании загрузки во временной папке ContentStore сразу создается файл полного размера,
+ * каждый PATCH пишет свой кусок прямо на его смещение. Принятые байты хэшируются SHA-256 по ходу
+ * записи, поэтому после обрыва загрузка продолжается с последнего сохраненного смещения, а после
+ * последнего куска файл не перечитывается. Готовый файл переносится под имя своего хэша
+ * (rename в том же разделе), так что на диске остается ровно одна копия данных.
+ *
+ * Завершение идемпотентно: хэш и путь blob записываются в сессию до переноса файла, и если
+ * перенос или создание видео оборвались, повторный PATCH с offset == length, HEAD или GET
+ * доводят его до конца вместо повторной записи.
+ */
+@Service
+public class UploadSessionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+    
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long CLEANUP_INTERVAL_MS = 60_000;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+    
+    // Код из расширения checksum протокола tus
+    public static final HttpStatusCode CHECKSUM_MISMATCH = HttpStatusCode.valueOf(460);
+    
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private VideoService videoService;
+    
+    @Value("${video.upload.max-size-mb:20480}")
+    private long maxSizeMb;
+    
+    @Value("${video.upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+    
+    // Хэш уже принятой части каждой загрузки: следующий кусок дописывается к нему без перечитывания файла
+    private final Map<String, UploadState> states = new ConcurrentHashMap<>();
+    
+    private final AtomicLong lastCleanup = new AtomicLong();
+    
+    public long getMaxSize() {
+        return maxSizeMb * 1024 * 1024;
+    }
+    
+    /**
+     * Создает загрузку и файл под нее
+     * @param expectedSha256 SHA-256 всего файла (hex) или null, если клиент его не передал
+     */
+    public UploadSession create(long length, String fileName, VideoCategory category, LocalDateTime recordedAt,
+                                String expectedSha256) {
+        if (length <= 0) {
+            throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_LENGTH", "Upload-Length must be positive");
+        }
+        if (length > getMaxSize()) {
+            throw new UploadException(HttpStatus.PAYLOAD_TOO_LARGE, "UPLOAD_TOO_LARGE",
+                    "Upload-Length exceeds " + getMaxSize() + " bytes");
+        }
+        if (category == null) {
+            throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_CATEGORY", "category is required");
+        }
+        if (expectedSha256 != null && !SHA256.matcher(expectedSha256).matches()) {
+            throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_CHECKSUM", "sha256 must be 64 hex characters");
+        }
+        removeExpired();
+        
+        Path tmp;
+        try {
+            tmp = contentStore.newTempFile();
+            // Файл сразу получает полный размер: куски пишутся на свои места, а нехватка места видна сразу
+            try (RandomAccessFile file = new RandomAccessFile(tmp.toFile(), "rw")) {
+                file.setLength(length);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating upload", e);
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setStatus(UploadSessionStatus.IN_PROGRESS);
+        session.setFileName(fileName != null && !fileName.isEmpty() ? fileName : "video_" + System.currentTimeMillis() + ".mp4");
+        session.setCategory(category);
+        session.setRecordedAt(recordedAt);
+        session.setUploadLength(length);
+        session.setUploadOffset(0);
+        session.setExpectedSha256(expectedSha256 != null ? expectedSha256.toLowerCase() : null);
+        session.setTempPath(tmp.toString());
+        session.setCreatedAt(now);
+        session.setUpdatedAt(now);
+        try {
+            return uploadSessionRepository.save(session);
+        } catch (RuntimeException e) {
+            deleteQuietly(tmp);
+            throw e;
+        }
+    }
+    
+    public UploadSession getSession(String id) {
+        return uploadSessionRepository.findById(id)
+                .orElseThrow(() -> new UploadException(HttpStatus.NOT_FOUND, "UPLOAD_NOT_FOUND", "Upload not found"));
+    }
+    
+    /**
+     * Сессия для HEAD и GET: если все байты приняты, а видео еще не создано
+     * (завершение оборвалось), сначала доводит завершение до конца
+     */
+    public UploadSession resume(String id) {
+        UploadSession session = getSession(id);
+        if (!isUnfinished(session)) {
+            return session;
+        }
+        UploadState state = states.computeIfAbsent(id, key -> new UploadState());
+        if (!state.lock.tryLock()) {
+            // Завершение уже выполняет другой запрос
+            return session;
+        }
+        try {
+            session = getSession(id);
+            return isUnfinished(session) ? finish(session, state) : session;
+        } catch (UploadException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Смещение все равно отдаем: завершение повторится при следующем запросе
+            logger.warn("Не удалось завершить загрузку {}: {}", id, e.getMessage());
+            return session;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+    
+    private boolean isUnfinished(UploadSession session) {
+        return session.getStatus() == UploadSessionStatus.IN_PROGRESS
+                && session.getUploadOffset() == session.getUploadLength();
+    }
+    
+    /**
+     * Принимает кусок, начинающийся с offset
+     * Если клиент оборвал соединение посреди куска, уже полученные байты сохраняются
+     * и следующий PATCH продолжает с нового смещения (его возвращает HEAD)
+     * @param contentLength размер куска из Content-Length или -1
+     */
+    public UploadSession patch(String id, long offset, long contentLength, InputStream in) {
+        UploadState state = states.computeIfAbsent(id, key -> new UploadState());
+        if (!state.lock.tryLock()) {
+            throw new UploadException(HttpStatus.LOCKED, "UPLOAD_LOCKED", "Upload is being written by another request");
+        }
+        try {
+            UploadSession session = getSession(id);
+            if (session.getStatus() == UploadSessionStatus.COMPLETED && offset == session.getUploadLength()) {
+                // Повтор последнего куска, ответ на который потерялся
+                return session;
+            }
+            if (session.getStatus() != UploadSessionStatus.IN_PROGRESS) {
+                throw new UploadException(HttpStatus.CONFLICT, "UPLOAD_CLOSED", "Upload is " + session.getStatus());
+            }
+            if (offset != session.getUploadOffset()) {
+                throw new UploadException(HttpStatus.CONFLICT, "OFFSET_MISMATCH",
+                        "Upload-Offset " + offset + " does not match " + session.getUploadOffset());
+            }
+            if (isUnfinished(session)) {
+                // Все байты уже приняты, но прошлое завершение оборвалось - повторяем его без записи
+                return finish(session, state);
+            }
+            if (contentLength > session.getUploadLength() - offset) {
+                throw new UploadException(HttpStatus.PAYLOAD_TOO_LARGE, "CHUNK_TOO_LARGE",
+                        "Chunk exceeds Upload-Length");
+            }
+            
+            Path tmp = Paths.get(session.getTempPath());
+            long position;
+            try {
+                position = write(tmp, offset, session.getUploadLength(), in, state.digestAt(offset, tmp));
+            } catch (IOException e) {
+                state.reset();
+                throw new RuntimeException("Error writing upload", e);
+            }
+            
+            if (position > offset) {
+                LocalDateTime now = LocalDateTime.now();
+                if (uploadSessionRepository.advanceOffset(id, offset, position, now) == 0) {
+                    state.reset();
+                    throw new UploadException(HttpStatus.CONFLICT, "OFFSET_MISMATCH", "Upload offset changed concurrently");
+                }
+                session.setUploadOffset(position);
+                session.setUpdatedAt(now);
+            }
+            state.offset = position;
+            
+            if (position == session.getUploadLength()) {
+                return finish(session, state);
+            }
+            return session;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+    
+    /**
+     * Пишет поток в файл с позиции offset, не дальше length, и хэширует те же байты
+     * @return новое смещение (все до него сброшено на диск)
+     */
+    private long write(Path tmp, long offset, long length, InputStream in, MessageDigest digest) throws IOException {
+        long position = offset;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (position < length) {
+                int read;
+                try {
+                    read = in.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+                } catch (IOException e) {
+                    // Клиент оборвал соединение - принятая часть остается, загрузка продолжится с нее
+                    logger.info("Загрузка {} прервана на {} байт: {}", tmp.getFileName(), position, e.getMessage());
+                    break;
+                }
+                if (read == -1) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                digest.update(buffer, 0, read);
+            }
+            // Смещение сохраняется в базе только после того, как данные на диске
+            channel.force(false);
+        }
+        return position;
+    }
+    
+    /**
+     * Переносит принятый файл в хранилище и создает видео
+     * Каждый шаг можно повторить: хэш и путь blob сохраняются в сессии до переноса,
+     * а повторный commit и saveUploadedBlob возвращают уже созданные blob и видео
+     */
+    private UploadSession finish(UploadSession session, UploadState state) {
+        states.remove(session.getId());
+        Path tmp = Paths.get(session.getTempPath());
+        if (session.getContentSha256() == null) {
+            String sha256;
+            try {
+                sha256 = HexFormat.of().formatHex(state.digestAt(session.getUploadLength(), tmp).digest());
+            } catch (IOException e) {
+                throw new RuntimeException("Error hashing upload", e);
+            }
+            
+            if (session.getExpectedSha256() != null && !session.getExpectedSha256().equals(sha256)) {
+                deleteQuietly(tmp);
+                session.setStatus(UploadSessionStatus.FAILED);
+                session.setUpdatedAt(LocalDateTime.now());
+                uploadSessionRepository.save(session);
+                logger.warn("Загрузка {}: SHA-256 {} не совпадает с ожидаемым {}",
+                        session.getId(), sha256, session.getExpectedSha256());
+                throw new UploadException(CHECKSUM_MISMATCH, "CHECKSUM_MISMATCH", "SHA-256 of the uploaded file does not match");
+            }
+            
+            session.setContentSha256(sha256);
+            session.setBlobPath(contentStore.pathFor(sha256, session.getFileName()).toString());
+            session.setUpdatedAt(LocalDateTime.now());
+            session = uploadSessionRepository.save(session);
+        }
+        
+        ContentStore.Blob blob;
+        try {
+            blob = contentStore.commit(tmp, session.getContentSha256(), session.getUploadLength(), session.getFileName());
+        } catch (IOException e) {
+            throw new RuntimeException("Error storing upload", e);
+        }
+        
+        VideoResponse video = videoService.saveUploadedBlob(blob, session.getFileName(), session.getCategory(),
+                session.getRecordedAt());
+        session.setStatus(UploadSessionStatus.COMPLETED);
+        session.setVideoId(video.getId());
+        session.setUpdatedAt(LocalDateTime.now());
+        logger.info("Загрузка {} завершена: {} ({} байт), видео {}",
+                session.getId(), session.getFileName(), session.getUploadLength(), video.getId());
+        return uploadSessionRepository.save(session);
+    }
+    
+    /**
+     * Удаляет загрузки, которые не обновлялись дольше session-ttl-hours, вместе с их файлами
+     * Вызывается при создании новых загрузок, не чаще раза в минуту
+     */
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        long last = lastCleanup.get();
+        if (now - last < CLEANUP_INTERVAL_MS || !lastCleanup.compareAndSet(last, now)) {
+            return;
+        }
+        for (UploadSession session : uploadSessionRepository.findByUpdatedAtBefore(LocalDateTime.now().minusHours(sessionTtlHours))) {
+            states.remove(session.getId());
+            if (session.getTempPath() != null) {
+                deleteQuietly(Paths.get(session.getTempPath()));
+            }
+            if (session.getBlobPath() != null && session.getStatus() != UploadSessionStatus.COMPLETED) {
+                // Файл перенесен, но видео так и не создано
+                contentStore.discardIfUnreferenced(session.getContentSha256(), Paths.get(session.getBlobPath()));
+            }
+            uploadSessionRepository.delete(session);
+            logger.info("Удалена устаревшая загрузка {} ({} из {} байт)",
+                    session.getId(), session.getUploadOffset(), session.getUploadLength());
+        }
+    }
+    
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Состояние загрузки в памяти экземпляра: блокировка от параллельных PATCH и хэш первых offset байт
+     */
+    private class UploadState {
+        
+        private final ReentrantLock lock = new ReentrantLock();
+        
+        private MessageDigest digest;
+        
+        private long offset = -1;
+        
+        /**
+         * Хэш первых offset байт; после перезапуска или ошибки уже принятая часть дочитывается с диска один раз
+         */
+        MessageDigest digestAt(long offset, Path tmp) throws IOException {
+            if (digest == null || this.offset != offset) {
+                digest = contentStore.newDigest();
+                if (offset > 0) {
+                    contentStore.updateDigest(digest, tmp, offset);
+                }
+                this.offset = offset;
+            }
+            return digest;
+        }
+        
+        void reset() {
+            digest = null;
+            offset = -1;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.Video;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.VideoRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Индекс метаданных видео в памяти процесса
+ *
+ * Таблица videos меняется только при добавлении видео (загрузка, сканирование папки, Telegram),
+ * поэтому списки и карточки видео можно отдавать без запросов в БД.
+ * Для каждой категории хранятся колонки примитивных массивов, отсортированные по (recordedAt, id);
+ * время хранится в микросекундах эпохи (точность timestamp в PostgreSQL, поэтому страницы и курсоры
+ * совпадают с ответами из БД), категория - ординалом enum, так что в памяти помещаются миллионы записей.
+ *
+ * Загружается после старта приложения; до окончания загрузки isReady() == false и VideoService читает из БД.
+ * Все пути добавления видео вызывают onVideoInserted(), после него публикуется VideoInsertedEvent.
+ * Видео, добавленные другими экземплярами backend, подгружаются раз в video.catalog.refresh-interval-ms.
+ */
+@Component
+public class VideoCatalog {
+    
+    private static final Logger logger = LoggerFactory.getLogger(VideoCatalog.class);
+    
+    private static final VideoCategory[] CATEGORIES = VideoCategory.values();
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Value("${video.catalog.refresh-interval-ms:10000}")
+    private long refreshIntervalMs;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private Segment[] segments = newSegments();
+    
+    private IdIndex idIndex = new IdIndex();
+    
+    private volatile boolean ready;
+    
+    private volatile Thread refreshThread;
+    
+    /**
+     * Загружает все видео из БД одним потоковым запросом (recorded_at asc, id asc),
+     * поэтому каждая запись добавляется в конец своего сегмента
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        long startTime = System.currentTimeMillis();
+        Segment[] loadedSegments = newSegments();
+        IdIndex loadedIndex = new IdIndex();
+        try (Stream<VideoResponse> videos = videoRepository.streamAllResponsesOrderByRecordedAt()) {
+            videos.forEach(video -> insert(loadedSegments, loadedIndex, video));
+        }
+        
+        lock.writeLock().lock();
+        try {
+            // Видео, добавленные во время загрузки, переносим в новый индекс
+            for (int ordinal = 0; ordinal < segments.length; ordinal++) {
+                Segment segment = segments[ordinal];
+                for (int i = 0; i < segment.size; i++) {
+                    insert(loadedSegments, loadedIndex, segment.toResponse(i, CATEGORIES[ordinal]));
+                }
+            }
+            segments = loadedSegments;
+            idIndex = loadedIndex;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Каталог видео загружен: {} записей за {} ms", loadedIndex.size(), System.currentTimeMillis() - startTime);
+        
+        if (refreshThread == null && refreshIntervalMs > 0) {
+            refreshThread = Thread.ofVirtual().name("video-catalog-refresh").start(this::refreshLoop);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        Thread thread = refreshThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /**
+     * Подгружает видео, добавленные другими экземплярами backend
+     * Видео не удаляются, поэтому отставание видно по числу строк. Обычно достаточно строк с id больше
+     * известного; если после этого строк в БД все еще больше (экземпляры берут id блоками sequence,
+     * и чужой меньший id мог закоммититься позже), каталог перечитывается целиком.
+     */
+    public void refresh() {
+        VideoRepository.CatalogStats stats = videoRepository.getCatalogStats();
+        if (stats.getCount() <= size()) {
+            return;
+        }
+        
+        long knownMaxId;
+        lock.readLock().lock();
+        try {
+            knownMaxId = idIndex.maxId();
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<VideoResponse> added = stats.getMaxId() != null && stats.getMaxId() > knownMaxId
+                ? videoRepository.findResponsesByIdGreaterThan(knownMaxId)
+                : List.of();
+        lock.writeLock().lock();
+        try {
+            added.forEach(video -> insert(segments, idIndex, video));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        if (stats.getCount() > size()) {
+            logger.info("Каталог видео отстает от БД ({} из {} записей), перечитываем целиком", size(), stats.getCount());
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> load());
+        } else if (!added.isEmpty()) {
+            logger.debug("Каталог видео: подгружено {} записей других экземпляров", added.size());
+        }
+    }
+    
+    private void refreshLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(refreshIntervalMs);
+                refresh();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.warn("Не удалось обновить каталог видео: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return idIndex.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Единая точка обновления индекса после вставки видео в БД
+     * Если id не заполнен (вставка через insertIfAbsent), он читается из БД по уникальному file_path
+     */
+    public void onVideoInserted(Video video) {
+        VideoResponse response;
+        if (video.getId() != null) {
+            response = new VideoResponse(
+                video.getId(),
+                video.getFileName(),
+                video.getFilePath(),
+                video.getCategory(),
+                video.getRecordedAt(),
+                video.getUploadedAt(),
+                video.getDuration(),
+                video.getSize(),
+                video.getWidth(),
+                video.getHeight(),
+                video.getVideoCodec(),
+                video.getBitrate()
+            );
+        } else {
+            response = videoRepository.findResponseByFilePath(video.getFilePath()).orElse(null);
+            if (response == null) {
+                return;
+            }
+        }
+        
+        lock.writeLock().lock();
+        try {
+            insert(segments, idIndex, response);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        eventPublisher.publishEvent(new VideoInsertedEvent(response));
+    }
+    
+    public List<VideoResponse> getAll() {
+        return page(null, null, null, null, null, Integer.MAX_VALUE);
+    }
+    
+    public List<VideoResponse> getByCategory(VideoCategory category) {
+        return page(category, null, null, null, null, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Видео по id; если в каталоге его нет, оно ищется в БД (могло быть добавлено другим экземпляром
+     * после последнего обновления) и найденное добавляется в каталог
+     */
+    public VideoResponse getById(Long id) {
+        VideoResponse video = find(id);
+        if (video != null) {
+            return video;
+        }
+        video = videoRepository.findResponseById(id).orElse(null);
+        if (video != null) {
+            lock.writeLock().lock();
+            try {
+                insert(segments, idIndex, video);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return video;
+    }
+    
+    private VideoResponse find(Long id) {
+        lock.readLock().lock();
+        try {
+            int slot = idIndex.slot(id);
+            if (slot < 0) {
+                return null;
+            }
+            int ordinal = idIndex.ordinal(slot);
+            Segment segment = segments[ordinal];
+            int position = segment.indexOf(idIndex.recordedAt(slot), id);
+            return position >= 0 ? segment.toResponse(position, CATEGORIES[ordinal]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Возвращает до limit видео в порядке (recordedAt desc, id desc),
+     * строго меньших курсора (cursorAt, cursorId), с recordedAt в [from, to)
+     * Любой из параметров фильтрации может быть null
+     */
+    public List<VideoResponse> page(VideoCategory category, LocalDateTime from, LocalDateTime to,
+                                    LocalDateTime cursorAt, Long cursorId, int limit) {
+        // Границы округляются до микросекунд так же, как драйвер PostgreSQL округляет параметры запроса
+        long fromMicros = from != null ? toMicros(from) : Long.MIN_VALUE;
+        long boundMicros = Long.MAX_VALUE;
+        long boundId = Long.MAX_VALUE;
+        if (to != null) {
+            boundMicros = toMicros(to);
+            boundId = Long.MIN_VALUE;
+        }
+        if (cursorAt != null) {
+            long cursorMicros = toMicros(cursorAt);
+            long cursorBoundId = cursorId != null ? cursorId : Long.MAX_VALUE;
+            if (compare(cursorMicros, cursorBoundId, boundMicros, boundId) < 0) {
+                boundMicros = cursorMicros;
+                boundId = cursorBoundId;
+            }
+        }
+        
+        lock.readLock().lock();
+        try {
+            int firstOrdinal = category != null ? category.ordinal() : 0;
+            int lastOrdinal = category != null ? category.ordinal() : segments.length - 1;
+            int[] positions = new int[segments.length];
+            Arrays.fill(positions, -1);
+            for (int ordinal = firstOrdinal; ordinal <= lastOrdinal; ordinal++) {
+                positions[ordinal] = segments[ordinal].lowerBound(boundMicros, boundId) - 1;
+            }
+            
+            // Слияние отсортированных сегментов, начиная с самых новых записей
+            List<VideoResponse> result = new ArrayList<>(Math.min(limit, idIndex.size()));
+            while (result.size() < limit) {
+                int best = -1;
+                for (int ordinal = firstOrdinal; ordinal <= lastOrdinal; ordinal++) {
+                    int position = positions[ordinal];
+                    if (position < 0) {
+                        continue;
+                    }
+                    Segment segment = segments[ordinal];
+                    if (best < 0 || compare(segment.recordedAt[position], segment.ids[position],
+                            segments[best].recordedAt[positions[best]], segments[best].ids[positions[best]]) > 0) {
+                        best = ordinal;
+                    }
+                }
+                if (best < 0 || segments[best].recordedAt[positions[best]] < fromMicros) {
+                    break;
+                }
+                result.add(segments[best].toResponse(positions[best], CATEGORIES[best]));
+                positions[best]--;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private static void insert(Segment[] segments, IdIndex idIndex, VideoResponse video) {
+        if (video.getId() == null || video.getCategory() == null || video.getRecordedAt() == null) {
+            return;
+        }
+        if (idIndex.slot(video.getId()) >= 0) {
+            return;
+        }
+        long recordedAt = toMicros(video.getRecordedAt());
+        int ordinal = video.getCategory().ordinal();
+        segments[ordinal].insert(video, recordedAt);
+        idIndex.put(video.getId(), recordedAt, ordinal);
+    }
+    
+    private static Segment[] newSegments() {
+        Segment[] result = new Segment[CATEGORIES.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new Segment();
+        }
+        return result;
+    }
+    
+    private static int compare(long recordedAt1, long id1, long recordedAt2, long id2) {
+        int result = Long.compare(recordedAt1, recordedAt2);
+        return result != 0 ? result : Long.compare(id1, id2);
+    }
+    
+    /**
+     * Микросекунды эпохи; наносекунды округляются половиной вверх, как при записи timestamp в PostgreSQL
+     */
+    static long toMicros(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + (dateTime.getNano() + 500) / 1000;
+    }
+    
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1000, ZoneOffset.UTC);
+    }
+    
+    /**
+     * Видео одной категории в виде колонок, отсортированных по (recordedAt, id) по возрастанию
+     * Новые записи почти всегда попадают в конец, поэтому вставка обычно не сдвигает данные
+     */
+    private static final class Segment {
+        
+        private static final long NO_VALUE = Long.MIN_VALUE;
+        
+        private long[] ids = new long[16];
+        private long[] recordedAt = new long[16];
+        private long[] uploadedAt = new long[16];
+        private long[] durations = new long[16];
+        private long[] sizes = new long[16];
+        private int[] widths = new int[16];
+        private int[] heights = new int[16];
+        private long[] bitrates = new long[16];
+        private String[] videoCodecs = new String[16];
+        private String[] fileNames = new String[16];
+        private String[] filePaths = new String[16];
+        private int size;
+        
+        void insert(VideoResponse video, long recordedAtMicros) {
+            if (size == ids.length) {
+                int capacity = size + (size >> 1);
+                ids = Arrays.copyOf(ids, capacity);
+                recordedAt = Arrays.copyOf(recordedAt, capacity);
+                uploadedAt = Arrays.copyOf(uploadedAt, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                widths = Arrays.copyOf(widths, capacity);
+                heights = Arrays.copyOf(heights, capacity);
+                bitrates = Arrays.copyOf(bitrates, capacity);
+                videoCodecs = Arrays.copyOf(videoCodecs, capacity);
+                fileNames = Arrays.copyOf(fileNames, capacity);
+                filePaths = Arrays.copyOf(filePaths, capacity);
+            }
+            int position = lowerBound(recordedAtMicros, video.getId());
+            int tail = size - position;
+            if (tail > 0) {
+                System.arraycopy(ids, position, ids, position + 1, tail);
+                System.arraycopy(recordedAt, position, recordedAt, position + 1, tail);
+                System.arraycopy(uploadedAt, position, uploadedAt, position + 1, tail);
+                System.arraycopy(durations, position, durations, position + 1, tail);
+                System.arraycopy(sizes, position, sizes, position + 1, tail);
+                System.arraycopy(widths, position, widths, position + 1, tail);
+                System.arraycopy(heights, position, heights, position + 1, tail);
+                System.arraycopy(bitrates, position, bitrates, position + 1, tail);
+                System.arraycopy(videoCodecs, position, videoCodecs, position + 1, tail);
+                System.arraycopy(fileNames, position, fileNames, position + 1, tail);
+                System.arraycopy(filePaths, position, filePaths, position + 1, tail);
+            }
+            ids[position] = video.getId();
+            recordedAt[position] = recordedAtMicros;
+            uploadedAt[position] = video.getUploadedAt() != null ? toMicros(video.getUploadedAt()) : NO_VALUE;
+            durations[position] = video.getDuration() != null ? video.getDuration() : NO_VALUE;
+            sizes[position] = video.getSize() != null ? video.getSize() : NO_VALUE;
+            // Размер кадра 0 - не известен
+            widths[position] = video.getWidth() != null ? video.getWidth() : 0;
+            heights[position] = video.getHeight() != null ? video.getHeight() : 0;
+            bitrates[position] = video.getBitrate() != null ? video.getBitrate() : NO_VALUE;
+            videoCodecs[position] = video.getVideoCodec();
+            fileNames[position] = video.getFileName();
+            filePaths[position] = video.getFilePath();
+            size++;
+        }
+        
+        /**
+         * Первая позиция, у которой (recordedAt, id) >= заданного ключа
+         */
+        int lowerBound(long recordedAtMicros, long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(recordedAt[middle], ids[middle], recordedAtMicros, id) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+        int indexOf(long recordedAtMicros, long id) {
+            int position = lowerBound(recordedAtMicros, id);
+            return position < size && ids[position] == id && recordedAt[position] == recordedAtMicros ? position : -1;
+        }
+        
+        VideoResponse toResponse(int position, VideoCategory category) {
+            return new VideoResponse(
+                ids[position],
+                fileNames[position],
+                filePaths[position],
+                category,
+                fromMicros(recordedAt[position]),
+                uploadedAt[position] != NO_VALUE ? fromMicros(uploadedAt[position]) : null,
+                durations[position] != NO_VALUE ? durations[position] : null,
+                sizes[position] != NO_VALUE ? sizes[position] : null,
+                widths[position] != 0 ? widths[position] : null,
+                heights[position] != 0 ? heights[position] : null,
+                videoCodecs[position],
+                bitrates[position] != NO_VALUE ? bitrates[position] : null
+            );
+        }
+    }
+    
+    /**
+     * Хэш-таблица с открытой адресацией id -> (recordedAt, ординал категории) без упаковки в объекты
+     */
+    private static final class IdIndex {
+        
+        private static final long EMPTY_KEY = 0;
+        
+        private long[] keys = new long[64];
+        private long[] recordedAts = new long[64];
+        private byte[] ordinals = new byte[64];
+        private int size;
+        private long maxId;
+        
+        int size() {
+            return size;
+        }
+        
+        long maxId() {
+            return maxId;
+        }
+        
+        /**
+         * @return слот id или -1, если его нет
+         */
+        int slot(long id) {
+            int mask = keys.length - 1;
+            for (int slot = hash(id) & mask; keys[slot] != EMPTY_KEY; slot = (slot + 1) & mask) {
+                if (keys[slot] == id) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        
+        long recordedAt(int slot) {
+            return recordedAts[slot];
+        }
+        
+        int ordinal(int slot) {
+            return ordinals[slot];
+        }
+        
+        void put(long id, long recordedAt, int ordinal) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(id) & mask;
+            while (keys[slot] != EMPTY_KEY && keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY_KEY) {
+                size++;
+            }
+            maxId = Math.max(maxId, id);
+            keys[slot] = id;
+            recordedAts[slot] = recordedAt;
+            ordinals[slot] = (byte) ordinal;
+        }
+        
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldRecordedAts = recordedAts;
+            byte[] oldOrdinals = ordinals;
+            keys = new long[oldKeys.length * 2];
+            recordedAts = new long[oldKeys.length * 2];
+            ordinals = new byte[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY_KEY) {
+                    put(oldKeys[i], oldRecordedAts[i], oldOrdinals[i]);
+                }
+            }
+        }
+        
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -5,19 +5,34 @@ import com.nestvision.entity.VideoCategory;
 import com.nestvision.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,13 +42,46 @@ public class VideoFolderScanner {
     @Autowired
     private VideoRepository videoRepository;
     
+    @Autowired
+    private VideoCatalog videoCatalog;
+    
+    @Autowired
+    private JobCoordinator jobCoordinator;
+    
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private Mp4MetadataReader mp4MetadataReader;
+    
     @Value("${video.storage.path}")
     private String storagePath;
     
+    @Value("${video.scan.batch-size:500}")
+    private int batchSize;
+    
+    @Value("${video.scan.concurrency:4}")
+    private int scanConcurrency;
+    
+    @Value("${video.scan.cooldown-seconds:30}")
+    private long cooldownSeconds;
+    
     private static final List<String> VIDEO_EXTENSIONS = Arrays.asList(
         ".mp4", ".avi", ".mov", ".mkv", ".wmv", ".flv", ".webm"
     );
     
+    /**
+     * Запускает полное сканирование папки или присоединяется к уже идущему
+     * (в течение video.scan.cooldown-seconds после завершения возвращается последний запуск)
+     */
+    public JobCoordinator.Submission requestScan() {
+        return requestScan(Duration.ofSeconds(cooldownSeconds));
+    }
+    
+    public JobCoordinator.Submission requestScan(Duration cooldown) {
+        return jobCoordinator.submit(JobCoordinator.FOLDER_SCAN, cooldown, this::scanAndAddVideos);
+    }
+    
     /**
      * Сканирует папку с видео и добавляет новые файлы в базу данных
      * Ожидает структуру папок:
@@ -43,9 +91,13 @@ public class VideoFolderScanner {
      *     ├── sudden_event/
      *     └── children_unattended/
      * 
+     * Папки категорий обходятся параллельно, атрибуты файлов читаются вместе с обходом,
+     * а новые видео проверяются и вставляются пачками по video.scan.batch-size; хэш и метаданные
+     * новых файлов пачки считаются в том же пуле (video.scan.concurrency потоков)
+     * 
      * @return количество добавленных видео
      */
-    public int scanAndAddVideos() {
+    private int scanAndAddVideos(JobCoordinator.Progress progress) {
         int addedCount = 0;
         try {
             Path folderPath = Paths.get(storagePath);
@@ -58,42 +110,33 @@ public class VideoFolderScanner {
             // Создаем папки категорий, если их нет
             createCategoryFolders(folderPath);
             
-            // Сканируем все подпапки категорий
-            File folder = folderPath.toFile();
-            File[] categoryFolders = folder.listFiles(File::isDirectory);
-            
-            if (categoryFolders == null) {
-                return 0;
-            }
-            
-            for (File categoryFolder : categoryFolders) {
-                VideoCategory category = detectCategoryFromFolderName(categoryFolder.getName());
-                if (category == null) {
-                    // Пропускаем папки, которые не соответствуют категориям
-                    continue;
+            // Сканируем все подпапки категорий параллельно
+            List<Video> foundVideos = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(scanConcurrency,
+                    Thread.ofVirtual().name("folder-scan-", 0).factory())) {
+                List<Future<List<Video>>> futures = new ArrayList<>();
+                try (DirectoryStream<Path> categoryFolders = Files.newDirectoryStream(folderPath, Files::isDirectory)) {
+                    for (Path categoryFolder : categoryFolders) {
+                        VideoCategory category = detectCategoryFromFolderName(categoryFolder.getFileName().toString());
+                        if (category == null) {
+                            // Пропускаем папки, которые не соответствуют категориям
+                            continue;
+                        }
+                        futures.add(executor.submit(() -> collectVideos(categoryFolder, category)));
+                    }
                 }
-                
-                File[] files = categoryFolder.listFiles();
-                if (files == null) {
-                    continue;
+                for (Future<List<Video>> future : futures) {
+                    List<Video> folderVideos = future.get();
+                    foundVideos.addAll(folderVideos);
+                    progress.addSeen(folderVideos.size());
                 }
                 
-                for (File file : files) {
-                    if (file.isFile() && isVideoFile(file.getName())) {
-                        // Проверяем, есть ли уже это видео в базе
-                        String fileName = file.getName();
-                        boolean exists = videoRepository.findAll().stream()
-                            .anyMatch(v -> v.getFileName().equals(fileName) && 
-                                          v.getFilePath().equals(file.getAbsolutePath()));
-                        
-                        if (!exists) {
-                            Video video = createVideoFromFile(file, category);
-                            videoRepository.save(video);
-                            addedCount++;
-                            System.out.println("Добавлено видео: " + categoryFolder.getName() + "/" + fileName + 
-                                             " (категория: " + category + ")");
-                        }
-                    }
+                for (int from = 0; from < foundVideos.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, foundVideos.size());
+                    int batchAdded = insertBatch(foundVideos.subList(from, to), executor);
+                    addedCount += batchAdded;
+                    progress.addAdded(batchAdded);
+                    progress.addSkipped(to - from - batchAdded);
                 }
             }
             
@@ -105,10 +148,149 @@ public class VideoFolderScanner {
         return addedCount;
     }
     
+    /**
+     * Добавляет в базу один файл из папки категории (используется VideoFolderWatcher)
+     * @return true, если видео добавлено; false, если файл не видео, папка не категория или видео уже есть
+     */
+    public boolean ingestFile(Path filePath) {
+        Path parent = filePath.getParent();
+        if (parent == null || !isVideoFile(filePath.getFileName().toString())) {
+            return false;
+        }
+        VideoCategory category = detectCategoryFromFolderName(parent.getFileName().toString());
+        if (category == null) {
+            return false;
+        }
+        
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!attrs.isRegularFile()) {
+            return false;
+        }
+        Video video = createVideoFromFile(filePath, attrs, category);
+        inspectContent(video);
+        return addIfAbsent(video);
+    }
+    
+    /**
+     * Видеофайлы папки категории; атрибуты приходят из обхода, без отдельного запроса на каждый файл
+     */
+    private List<Video> collectVideos(Path categoryFolder, VideoCategory category) throws IOException {
+        List<Video> videos = new ArrayList<>();
+        Files.walkFileTree(categoryFolder, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isVideoFile(file.getFileName().toString())) {
+                    videos.add(createVideoFromFile(file, attrs, category));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Недоступный файл не должен прерывать сканирование
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return videos;
+    }
+    
+    /**
+     * Вставляет новые видео пачки одной транзакцией (JDBC batch)
+     * Хэшируются и разбираются (параллельно в executor) только файлы, которых нет в базе; ролик,
+     * уже пришедший другим путем (Telegram, загрузка через сайт), пропускается
+     * @return количество добавленных видео
+     */
+    private int insertBatch(List<Video> batch, ExecutorService executor) throws InterruptedException, ExecutionException {
+        List<String> filePaths = batch.stream().map(Video::getFilePath).toList();
+        Set<String> existingPaths = new HashSet<>(videoRepository.findExistingFilePaths(filePaths));
+        List<Video> unknownVideos = batch.stream()
+                .filter(video -> !existingPaths.contains(video.getFilePath()))
+                .toList();
+        if (unknownVideos.isEmpty()) {
+            return 0;
+        }
+        
+        List<Future<?>> inspections = new ArrayList<>(unknownVideos.size());
+        for (Video video : unknownVideos) {
+            inspections.add(executor.submit(() -> inspectContent(video)));
+        }
+        for (Future<?> inspection : inspections) {
+            inspection.get();
+        }
+        List<String> hashes = unknownVideos.stream().map(Video::getContentSha256).filter(Objects::nonNull).toList();
+        Set<String> knownHashes = new HashSet<>(videoRepository.findExistingContentHashes(hashes));
+        List<Video> newVideos = new ArrayList<>();
+        for (Video video : unknownVideos) {
+            // add() отсекает и копии одного ролика внутри пачки
+            if (video.getContentSha256() == null || knownHashes.add(video.getContentSha256())) {
+                newVideos.add(video);
+            }
+        }
+        if (newVideos.isEmpty()) {
+            return 0;
+        }
+        
+        try {
+            videoRepository.saveAll(newVideos);
+        } catch (DataIntegrityViolationException e) {
+            // Часть файлов успели добавить параллельно - добавляем пачку по одному
+            int addedCount = 0;
+            for (Video video : newVideos) {
+                video.setId(null);
+                if (addIfAbsent(video)) {
+                    addedCount++;
+                }
+            }
+            return addedCount;
+        }
+        
+        newVideos.forEach(videoCatalog::onVideoInserted);
+        System.out.println("Добавлено видео пачкой: " + newVideos.size());
+        return newVideos.size();
+    }
+    
+    private boolean addIfAbsent(Video video) {
+        // Проверяем, есть ли уже это видео в базе - по пути или по содержимому
+        if (videoRepository.existsByFilePath(video.getFilePath())
+                || (video.getContentSha256() != null && videoRepository.existsByContentSha256(video.getContentSha256()))) {
+            return false;
+        }
+        
+        try {
+            video = videoRepository.save(video);
+        } catch (DataIntegrityViolationException e) {
+            // Файл успели добавить параллельно (сканирование и наблюдатель папки)
+            return false;
+        }
+        videoCatalog.onVideoInserted(video);
+        System.out.println("Добавлено видео: " + video.getFilePath() + " (категория: " + video.getCategory() + ")");
+        return true;
+    }
+    
+    /**
+     * Хэш содержимого и метаданные ролика (длительность, разрешение, кодек, битрейт)
+     * Вызывается только для файлов, которых еще нет в базе, а не в createVideoFromFile для каждого файла папки
+     */
+    private void inspectContent(Video video) {
+        Path file = Paths.get(video.getFilePath());
+        try {
+            video.setContentSha256(contentStore.hash(file));
+        } catch (IOException e) {
+            // Файл без хэша все равно добавляется - проверка дубликатов останется по пути
+            System.err.println("Не удалось вычислить хэш файла " + video.getFilePath() + ": " + e.getMessage());
+        }
+        mp4MetadataReader.fill(video, file);
+    }
+    
     /**
      * Создает папки для всех категорий, если их нет
      */
-    private void createCategoryFolders(Path basePath) {
+    void createCategoryFolders(Path basePath) {
         try {
             String[] categoryFolders = {
                 "aggression_children",
@@ -129,39 +311,32 @@ public class VideoFolderScanner {
         }
     }
     
-    private boolean isVideoFile(String fileName) {
+    boolean isVideoFile(String fileName) {
         String lowerName = fileName.toLowerCase();
         return VIDEO_EXTENSIONS.stream().anyMatch(lowerName::endsWith);
     }
     
-    private Video createVideoFromFile(File file, VideoCategory category) {
+    private Video createVideoFromFile(Path file, BasicFileAttributes attrs, VideoCategory category) {
+        String fileName = file.getFileName().toString();
         Video video = new Video();
-        video.setFileName(file.getName());
-        video.setFilePath(file.getAbsolutePath());
+        video.setFileName(fileName);
+        video.setFilePath(file.toAbsolutePath().toString());
         video.setCategory(category);
         
         // Пытаемся извлечь дату и время из имени файла
-        LocalDateTime recordedAt = parseDateTimeFromFileName(file.getName());
+        LocalDateTime recordedAt = parseDateTimeFromFileName(fileName);
         
         // Если не удалось распарсить из имени, используем дату создания файла
         if (recordedAt == null) {
-            try {
-                BasicFileAttributes attrs = Files.readAttributes(
-                    file.toPath(), 
-                    BasicFileAttributes.class
-                );
-                recordedAt = LocalDateTime.ofInstant(
-                    attrs.creationTime().toInstant(),
-                    ZoneId.systemDefault()
-                );
-            } catch (Exception e) {
-                recordedAt = LocalDateTime.now();
-            }
+            recordedAt = LocalDateTime.ofInstant(
+                attrs.creationTime().toInstant(),
+                ZoneId.systemDefault()
+            );
         }
         
         video.setRecordedAt(recordedAt);
         video.setUploadedAt(LocalDateTime.now());
-        video.setSize(file.length());
+        video.setSize(attrs.size());
         
         return video;
     }
@@ -247,7 +422,7 @@ public class VideoFolderScanner {
      * @param folderName название папки
      * @return VideoCategory или null, если папка не соответствует ни одной категории
      */
-    private VideoCategory detectCategoryFromFolderName(String folderName) {
+    VideoCategory detectCategoryFromFolderName(String folderName) {
         String lowerName = folderName.toLowerCase().trim();
         
         // Проверяем точные совпадения с названиями папок
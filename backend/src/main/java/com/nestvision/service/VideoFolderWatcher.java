@@ -0,0 +1,260 @@
+package com.nestvision.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Следит за папкой с видео и добавляет в базу только новые файлы
+ *
+ * Файл добавляется, когда его размер и время изменения перестают меняться в течение
+ * video.watcher.settle-ms (файл дописан). Полное сканирование (VideoFolderScanner)
+ * выполняется только при старте и после переполнения очереди событий (OVERFLOW).
+ * Проверки файлов выполняются в одном потоке, дописанный файл ставится в очередь заданий
+ * (IngestionJobService) и добавляется в базу ее исполнителем.
+ */
+@Component
+public class VideoFolderWatcher {
+    
+    private static final Logger logger = LoggerFactory.getLogger(VideoFolderWatcher.class);
+    
+    @Autowired
+    private VideoFolderScanner videoFolderScanner;
+    
+    @Autowired
+    private IngestionJobService ingestionJobService;
+    
+    @Value("${video.storage.path}")
+    private String storagePath;
+    
+    @Value("${video.watcher.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${video.watcher.settle-ms:2000}")
+    private long settleMs;
+    
+    private Path basePath;
+    
+    private WatchService watchService;
+    
+    private ScheduledExecutorService ingestExecutor;
+    
+    private volatile boolean running;
+    
+    private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<>();
+    
+    // Файлы, которые еще дописываются: путь -> последний замеченный размер и время изменения
+    private final Map<Path, FileState> pendingFiles = new ConcurrentHashMap<>();
+    
+    private final AtomicBoolean rescanScheduled = new AtomicBoolean();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Наблюдение за папкой с видео отключено (video.watcher.enabled=false)");
+            return;
+        }
+        
+        try {
+            // Без normalize: пути должны совпадать с путями, которые сохраняет VideoFolderScanner
+            basePath = Paths.get(storagePath).toAbsolutePath();
+            Files.createDirectories(basePath);
+            videoFolderScanner.createCategoryFolders(basePath);
+            
+            watchService = basePath.getFileSystem().newWatchService();
+            register(basePath);
+            registerCategoryFolders();
+        } catch (IOException e) {
+            logger.error("Не удалось запустить наблюдение за папкой {}", storagePath, e);
+            return;
+        }
+        
+        ingestExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "video-folder-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        
+        Thread watchThread = new Thread(this::watchLoop, "video-folder-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        
+        // Наблюдение уже запущено - догоняем файлы, появившиеся, пока приложение было остановлено
+        scheduleRescan();
+        logger.info("Наблюдение за папкой с видео запущено: {}", basePath);
+    }
+    
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+            
+            Path folder = watchedFolders.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // События потеряны - восстанавливаемся полным сканированием
+                    logger.warn("Переполнение очереди событий папки {}, выполняем полное сканирование", folder);
+                    scheduleRescan();
+                    continue;
+                }
+                if (folder == null) {
+                    continue;
+                }
+                
+                Path child = folder.resolve((Path) event.context());
+                if (folder.equals(basePath)) {
+                    onBaseFolderEvent(child);
+                } else {
+                    onCategoryFolderEvent(child);
+                }
+            }
+            
+            if (!key.reset()) {
+                watchedFolders.remove(key);
+            }
+        }
+    }
+    
+    private void onBaseFolderEvent(Path child) {
+        if (!Files.isDirectory(child) || !isCategoryFolder(child)) {
+            return;
+        }
+        try {
+            register(child);
+        } catch (IOException e) {
+            logger.warn("Не удалось начать наблюдение за папкой {}: {}", child, e.getMessage());
+        }
+        // Папку могли переместить вместе с файлами
+        scheduleRescan();
+    }
+    
+    private void onCategoryFolderEvent(Path file) {
+        if (!videoFolderScanner.isVideoFile(file.getFileName().toString())) {
+            return;
+        }
+        // Каждое событие файла лишь отмечает его; проверка запускается один раз и сама себя переносит
+        if (pendingFiles.putIfAbsent(file, FileState.UNKNOWN) == null) {
+            scheduleSettleCheck(file);
+        }
+    }
+    
+    private void scheduleSettleCheck(Path file) {
+        ingestExecutor.schedule(() -> checkSettled(file), settleMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private void checkSettled(Path file) {
+        FileState previous = pendingFiles.get(file);
+        if (previous == null) {
+            return;
+        }
+        
+        FileState current;
+        try {
+            current = new FileState(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            // Файл удален или переименован до завершения записи
+            pendingFiles.remove(file);
+            return;
+        }
+        
+        if (!current.equals(previous)) {
+            pendingFiles.put(file, current);
+            scheduleSettleCheck(file);
+            return;
+        }
+        
+        pendingFiles.remove(file);
+        try {
+            // Добавление идет через очередь заданий - переживает перезапуск и делится между экземплярами
+            ingestionJobService.submitFolderFile(file);
+        } catch (Exception e) {
+            logger.error("Ошибка при постановке видео {} в очередь", file, e);
+        }
+    }
+    
+    private void scheduleRescan() {
+        if (!rescanScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        ingestExecutor.execute(() -> {
+            rescanScheduled.set(false);
+            try {
+                registerCategoryFolders();
+                // Без cooldown: после OVERFLOW нужен свежий проход, а не результат прошлого
+                int addedCount = videoFolderScanner.requestScan(Duration.ZERO).run().await();
+                logger.info("Полное сканирование папки с видео завершено, добавлено: {}", addedCount);
+            } catch (Exception e) {
+                logger.error("Ошибка при полном сканировании папки с видео", e);
+            }
+        });
+    }
+    
+    private void registerCategoryFolders() throws IOException {
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(basePath, Files::isDirectory)) {
+            for (Path folder : folders) {
+                if (isCategoryFolder(folder)) {
+                    register(folder);
+                }
+            }
+        }
+    }
+    
+    private boolean isCategoryFolder(Path folder) {
+        return videoFolderScanner.detectCategoryFromFolderName(folder.getFileName().toString()) != null;
+    }
+    
+    private void register(Path folder) throws IOException {
+        // Повторная регистрация возвращает тот же ключ
+        WatchKey key = folder.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedFolders.put(key, folder);
+    }
+    
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Не удалось закрыть WatchService: {}", e.getMessage());
+            }
+        }
+        if (ingestExecutor != null) {
+            ingestExecutor.shutdownNow();
+        }
+    }
+    
+    private record FileState(long size, long modifiedAt) {
+        private static final FileState UNKNOWN = new FileState(-1, -1);
+    }
+}
@@ -0,0 +1,9 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoResponse;
+
+/**
+ * Видео добавлено в базу и в каталог (публикуется из VideoCatalog.onVideoInserted)
+ */
+public record VideoInsertedEvent(VideoResponse video) {
+}
@@ -1,25 +1,28 @@
 package com.nestvision.service;
 
 import com.nestvision.dto.DtoMapper;
+import com.nestvision.dto.VideoPageResponse;
 import com.nestvision.dto.VideoResponse;
 import com.nestvision.entity.Video;
 import com.nestvision.entity.VideoCategory;
 import com.nestvision.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 @Service
 public class VideoService {
@@ -30,83 +33,250 @@ public class VideoService {
     @Autowired
     private DtoMapper dtoMapper;
     
-    @Value("${video.storage.path}")
-    private String storagePath;
+    @Autowired
+    private VideoCatalog videoCatalog;
     
-    private Path getStoragePath() {
-        Path path = Paths.get(storagePath);
-        try {
-            if (!Files.exists(path)) {
-                Files.createDirectories(path);
+    @Autowired
+    private ContentStore contentStore;
+    
+    @Autowired
+    private Mp4MetadataReader mp4MetadataReader;
+    
+    @Value("${video.page.default-size:50}")
+    private int defaultPageSize;
+    
+    @Value("${video.page.max-size:500}")
+    private int maxPageSize;
+    
+    @Value("${video.upload.max-size-mb:20480}")
+    private long maxUploadSizeMb;
+    
+    // Границы, подставляемые вместо незаданных from/to/курсора, чтобы запрос не содержал проверок на null
+    private static final LocalDateTime MIN_RECORDED_AT = LocalDateTime.of(1, 1, 1, 0, 0);
+    private static final LocalDateTime MAX_RECORDED_AT = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+    
+    @Transactional(readOnly = true)
+    public List<VideoResponse> getAllVideos() {
+        if (videoCatalog.isReady()) {
+            return videoCatalog.getAll();
+        }
+        return videoRepository.findAllResponses();
+    }
+    
+    @Transactional(readOnly = true)
+    public List<VideoResponse> getVideosByCategory(VideoCategory category) {
+        if (videoCatalog.isReady()) {
+            return videoCatalog.getByCategory(category);
+        }
+        return videoRepository.findResponsesByCategory(category);
+    }
+    
+    /**
+     * Возвращает страницу видео (recorded_at desc, id desc) начиная с курсора
+     * Курсор - позиция последнего видео предыдущей страницы, поэтому стоимость
+     * любой страницы одинакова и не зависит от ее номера
+     * 
+     * @param category фильтр по категории или null
+     * @param from начало интервала recorded_at (включительно) или null
+     * @param to конец интервала recorded_at (не включительно) или null
+     * @param cursor nextCursor из предыдущей страницы или null для первой страницы
+     * @param size размер страницы или null для значения по умолчанию
+     */
+    @Transactional(readOnly = true)
+    public VideoPageResponse getVideosPage(VideoCategory category, LocalDateTime from, LocalDateTime to,
+                                           String cursor, Integer size) {
+        int pageSize = size == null || size <= 0 ? defaultPageSize : Math.min(size, maxPageSize);
+        LocalDateTime cursorAt = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            String decoded = decodeCursor(cursor);
+            int separator = decoded.lastIndexOf('|');
+            try {
+                cursorAt = LocalDateTime.parse(decoded.substring(0, separator));
+                cursorId = Long.parseLong(decoded.substring(separator + 1));
+            } catch (DateTimeParseException | IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Could not create storage directory", e);
         }
-        return path;
+        
+        // Запрашиваем на одну запись больше, чтобы узнать, есть ли следующая страница
+        List<VideoResponse> items;
+        if (videoCatalog.isReady()) {
+            items = videoCatalog.page(category, from, to, cursorAt, cursorId, pageSize + 1);
+        } else {
+            LocalDateTime rangeFrom = from != null ? from : MIN_RECORDED_AT;
+            LocalDateTime rangeTo = to != null ? to : MAX_RECORDED_AT;
+            LocalDateTime pageCursorAt = cursorAt != null ? cursorAt : MAX_RECORDED_AT;
+            long pageCursorId = cursorId != null ? cursorId : Long.MAX_VALUE;
+            Limit limit = Limit.of(pageSize + 1);
+            items = category != null
+                    ? videoRepository.findPageByCategory(category, rangeFrom, rangeTo, pageCursorAt, pageCursorId, limit)
+                    : videoRepository.findPage(rangeFrom, rangeTo, pageCursorAt, pageCursorId, limit);
+        }
+        
+        boolean hasMore = items.size() > pageSize;
+        String nextCursor = null;
+        if (hasMore) {
+            items = items.subList(0, pageSize);
+            VideoResponse last = items.get(items.size() - 1);
+            nextCursor = encodeCursor(last.getRecordedAt(), last.getId());
+        }
+        return new VideoPageResponse(items, nextCursor, hasMore);
     }
     
-    public List<VideoResponse> getAllVideos() {
-        return videoRepository.findAllByOrderByRecordedAtDesc()
-                .stream()
-                .map(dtoMapper::toVideoResponse)
-                .collect(Collectors.toList());
+    private String encodeCursor(LocalDateTime recordedAt, Long id) {
+        String raw = recordedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
     }
     
-    public List<VideoResponse> getVideosByCategory(VideoCategory category) {
-        return videoRepository.findByCategoryOrderByRecordedAtDesc(category)
-                .stream()
-                .map(dtoMapper::toVideoResponse)
-                .collect(Collectors.toList());
+    private String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
     }
     
+    @Transactional(readOnly = true)
     public VideoResponse getVideoById(Long id) {
-        Video video = videoRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Video not found"));
-        return dtoMapper.toVideoResponse(video);
+        VideoResponse video = findVideoById(id);
+        if (video == null) {
+            throw new RuntimeException("Video not found");
+        }
+        return video;
     }
     
-    public Resource getVideoResource(Long id) {
-        Video video = videoRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Video not found"));
-        
-        try {
-            Path filePath = Paths.get(video.getFilePath());
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (resource.exists() && resource.isReadable()) {
-                return resource;
-            } else {
-                throw new RuntimeException("Video file not found or not readable");
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error loading video file", e);
+    /**
+     * @return видео или null, если его нет
+     */
+    @Transactional(readOnly = true)
+    public VideoResponse findVideoById(Long id) {
+        if (videoCatalog.isReady()) {
+            return videoCatalog.getById(id);
         }
+        return videoRepository.findResponseById(id).orElse(null);
     }
     
     public VideoResponse uploadVideo(MultipartFile file, VideoCategory category, LocalDateTime recordedAt) {
         try {
-            Path storagePath = getStoragePath();
             String fileName = file.getOriginalFilename();
             if (fileName == null || fileName.isEmpty()) {
                 fileName = "video_" + System.currentTimeMillis() + ".mp4";
             }
             
-            Path targetPath = storagePath.resolve(fileName);
-            Files.copy(file.getInputStream(), targetPath, StandardCopyOption.REPLACE_EXISTING);
-            
-            Video video = new Video();
-            video.setFileName(fileName);
-            video.setFilePath(targetPath.toString());
-            video.setCategory(category);
-            video.setRecordedAt(recordedAt != null ? recordedAt : LocalDateTime.now());
-            video.setUploadedAt(LocalDateTime.now());
-            video.setSize(file.getSize());
+            // Файл хранится под хэшем содержимого: одноименные ролики не перезаписывают друг друга,
+            // а повторная загрузка того же ролика возвращает уже существующее видео
+            ContentStore.Blob blob;
+            try (InputStream in = file.getInputStream()) {
+                blob = contentStore.store(in, fileName);
+            }
+            return saveUploadedBlob(blob, fileName, category, recordedAt);
+        } catch (IOException e) {
+            throw new RuntimeException("Error uploading video", e);
+        }
+    }
+    
+    /**
+     * Загрузка из тела multipart/form-data, которое разбирается по ходу чтения
+     * Файл пишется из запроса прямо в ContentStore (с хэшированием в том же проходе), без
+     * промежуточного временного файла контейнера. Поля category и recordedAt - как в uploadVideo,
+     * порядок частей любой
+     */
+    public VideoResponse uploadVideoStream(String contentType, InputStream body) {
+        String boundary = MultipartStreamReader.boundary(contentType);
+        if (boundary == null) {
+            throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_UPLOAD",
+                    "Expected multipart/form-data with a boundary");
+        }
+        
+        MultipartStreamReader reader = new MultipartStreamReader(body, boundary, maxUploadSizeMb * 1024 * 1024);
+        ContentStore.Blob blob = null;
+        String fileName = null;
+        String categoryValue = null;
+        String recordedAtValue = null;
+        try {
+            MultipartStreamReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if ("file".equals(part.name()) && part.fileName() != null) {
+                    if (blob != null) {
+                        throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_UPLOAD",
+                                "Only one file per request is supported");
+                    }
+                    fileName = part.fileName().isEmpty() ? "video_" + System.currentTimeMillis() + ".mp4" : part.fileName();
+                    blob = contentStore.store(part.body(), fileName);
+                } else if ("category".equals(part.name())) {
+                    categoryValue = MultipartStreamReader.readText(part).trim();
+                } else if ("recordedAt".equals(part.name())) {
+                    recordedAtValue = MultipartStreamReader.readText(part).trim();
+                }
+                // Остальные части пропускаются при переходе к следующей
+            }
             
-            video = videoRepository.save(video);
-            return dtoMapper.toVideoResponse(video);
+            if (blob == null) {
+                throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_UPLOAD",
+                        "file part is required");
+            }
+            VideoCategory category;
+            try {
+                category = VideoCategory.valueOf(categoryValue != null ? categoryValue : "");
+            } catch (IllegalArgumentException e) {
+                throw new UploadException(HttpStatus.BAD_REQUEST, "INVALID_CATEGORY",
+                        "Unknown category: " + categoryValue);
+            }
+            LocalDateTime recordedAt = null;
+            if (recordedAtValue != null && !recordedAtValue.isEmpty()) {
+                try {
+                    recordedAt = LocalDateTime.parse(recordedAtValue);
+                } catch (DateTimeParseException e) {
+                    // Если не удалось распарсить, используем текущее время
+                    recordedAt = LocalDateTime.now();
+                }
+            }
+            return saveUploadedBlob(blob, fileName, category, recordedAt);
+        } catch (MultipartStreamReader.SizeLimitExceededException e) {
+            contentStore.discardIfUnreferenced(blob);
+            throw new UploadException(HttpStatus.PAYLOAD_TOO_LARGE, "UPLOAD_TOO_LARGE", e.getMessage());
         } catch (IOException e) {
+            contentStore.discardIfUnreferenced(blob);
             throw new RuntimeException("Error uploading video", e);
+        } catch (RuntimeException e) {
+            contentStore.discardIfUnreferenced(blob);
+            throw e;
+        }
+    }
+    
+    /**
+     * Создает видео для загруженного и уже сохраненного в ContentStore файла
+     * Если такое содержимое уже есть в базе, возвращается существующее видео
+     */
+    public VideoResponse saveUploadedBlob(ContentStore.Blob blob, String fileName, VideoCategory category,
+                                          LocalDateTime recordedAt) {
+        if (blob.existing()) {
+            Optional<VideoResponse> existing = videoRepository.findResponseByContentSha256(blob.sha256());
+            if (existing.isPresent()) {
+                return existing.get();
+            }
         }
+        
+        Video video = new Video();
+        video.setFileName(fileName);
+        video.setFilePath(blob.path().toString());
+        video.setContentSha256(blob.sha256());
+        video.setCategory(category);
+        video.setRecordedAt(recordedAt != null ? recordedAt : LocalDateTime.now());
+        video.setUploadedAt(LocalDateTime.now());
+        video.setSize(blob.size());
+        mp4MetadataReader.fill(video, blob.path());
+        
+        try {
+            video = videoRepository.save(video);
+        } catch (DataIntegrityViolationException e) {
+            // Тот же ролик загрузили параллельно или он уже хранится под другим расширением - новый blob лишний
+            contentStore.discardIfUnreferenced(blob);
+            return videoRepository.findResponseByContentSha256(blob.sha256()).orElseThrow(() -> e);
+        }
+        videoCatalog.onVideoInserted(video);
+        return dtoMapper.toVideoResponse(video);
     }
 }
 
@@ -0,0 +1,335 @@
+package com.nestvision.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Отдача видеофайлов с поддержкой HTTP Range (200, 206, multipart/byteranges, 416)
+ *
+ * Одиночные диапазоны отдаются через sendfile встроенного Tomcat (без копирования в user space),
+ * если коннектор его поддерживает. Иначе, как и для multipart/byteranges, байты копируются из кэша
+ * открытых каналов в поток ответа сервлета позиционным чтением через буфер в heap.
+ * Каналы читаются позиционно, поэтому один канал безопасно используется всеми зрителями файла.
+ */
+@Service
+public class VideoStreamService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(VideoStreamService.class);
+    
+    // Атрибуты запроса, через которые Tomcat выполняет sendfile после выхода из сервлета
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    
+    // Больше диапазонов в одном запросе не обслуживаем - отдаем файл целиком
+    private static final int MAX_RANGES = 16;
+    
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+        "mp4", "video/mp4",
+        "m4v", "video/mp4",
+        "mov", "video/quicktime",
+        "mkv", "video/x-matroska",
+        "webm", "video/webm",
+        "avi", "video/x-msvideo",
+        "wmv", "video/x-ms-wmv",
+        "flv", "video/x-flv"
+    );
+    
+    @Value("${video.stream.sendfile:true}")
+    private boolean sendfileEnabled;
+    
+    @Value("${video.stream.channel-cache-size:256}")
+    private int channelCacheSize;
+    
+    private final Map<Path, CachedChannel> channels = new LinkedHashMap<>(16, 0.75f, true);
+    
+    /**
+     * Отдает файл (или запрошенные диапазоны) в ответ
+     */
+    public void stream(Path filePath, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CachedChannel cached;
+        try {
+            cached = acquire(filePath);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Video file not found");
+            return;
+        }
+        try {
+            long fileSize = cached.size;
+            String contentType = getContentType(filePath);
+            boolean headOnly = "HEAD".equalsIgnoreCase(request.getMethod());
+            
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filePath.getFileName() + "\"");
+            
+            List<long[]> ranges = parseRanges(request.getHeader(HttpHeaders.RANGE), fileSize);
+            if (ranges == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+                return;
+            }
+            
+            if (ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(contentType);
+                response.setContentLengthLong(fileSize);
+                if (!headOnly) {
+                    sendRange(cached, filePath, 0, fileSize, request, response);
+                }
+                return;
+            }
+            
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (ranges.size() == 1) {
+                long start = ranges.get(0)[0];
+                long end = ranges.get(0)[1];
+                response.setContentType(contentType);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + fileSize);
+                response.setContentLengthLong(end - start);
+                if (!headOnly) {
+                    sendRange(cached, filePath, start, end, request, response);
+                }
+                return;
+            }
+            
+            sendMultipart(cached, ranges, fileSize, contentType, headOnly, response);
+        } finally {
+            release(cached);
+        }
+    }
+    
+    /**
+     * Закрывает закэшированный канал файла (например, после перезаписи файла)
+     */
+    public void evict(Path filePath) {
+        synchronized (channels) {
+            CachedChannel cached = channels.remove(filePath.toAbsolutePath().normalize());
+            if (cached != null) {
+                cached.evicted = true;
+                closeIfUnused(cached);
+            }
+        }
+    }
+    
+    public String getContentType(Path filePath) {
+        String name = filePath.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String extension = dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+    }
+    
+    private void sendRange(CachedChannel cached, Path filePath, long start, long end,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (sendfileEnabled && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // Tomcat сам отправит байты файла через sendfile после возврата из обработчика
+            request.setAttribute(SENDFILE_FILENAME_ATTR, filePath.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end);
+            return;
+        }
+        // Без sendfile - обычное копирование через буфер в поток ответа
+        OutputStream out = response.getOutputStream();
+        transfer(cached.channel, start, end, out);
+        out.flush();
+    }
+    
+    private void sendMultipart(CachedChannel cached, List<long[]> ranges, long fileSize, String contentType,
+                               boolean headOnly, HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + range[0] + "-" + (range[1] - 1) + "/" + fileSize + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + (range[1] - range[0]);
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+        
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (headOnly) {
+            return;
+        }
+        
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(partHeaders.get(i));
+            transfer(cached.channel, ranges.get(i)[0], ranges.get(i)[1], out);
+        }
+        out.write(closing);
+        out.flush();
+    }
+    
+    private void transfer(FileChannel channel, long start, long end, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, end - start));
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+    
+    /**
+     * Разбирает заголовок Range
+     * @return пустой список - отдать файл целиком; null - диапазоны невыполнимы (416);
+     *         иначе список полуоткрытых диапазонов [start, end)
+     */
+    private List<long[]> parseRanges(String header, long fileSize) {
+        List<long[]> ranges = new ArrayList<>();
+        if (header == null || !header.startsWith("bytes=")) {
+            return ranges;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return ranges;
+        }
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return new ArrayList<>();
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // bytes=-N - последние N байт
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, fileSize - suffix);
+                    end = fileSize;
+                } else {
+                    start = Long.parseLong(first);
+                    long lastByte = last.isEmpty() ? fileSize - 1 : Long.parseLong(last);
+                    if (lastByte < start && !last.isEmpty()) {
+                        // Синтаксически неверный диапазон - игнорируем заголовок целиком
+                        return new ArrayList<>();
+                    }
+                    end = Math.min(lastByte, fileSize - 1) + 1;
+                }
+                if (start < fileSize && start < end) {
+                    ranges.add(new long[] {start, end});
+                }
+            } catch (NumberFormatException e) {
+                return new ArrayList<>();
+            }
+        }
+        return ranges.isEmpty() ? null : ranges;
+    }
+    
+    private CachedChannel acquire(Path filePath) throws IOException {
+        Path key = filePath.toAbsolutePath().normalize();
+        synchronized (channels) {
+            CachedChannel cached = channels.get(key);
+            if (cached != null) {
+                cached.users++;
+                return cached;
+            }
+        }
+        
+        FileChannel channel = FileChannel.open(key, StandardOpenOption.READ);
+        CachedChannel opened = new CachedChannel(channel, channel.size());
+        
+        synchronized (channels) {
+            CachedChannel existing = channels.get(key);
+            if (existing != null) {
+                // Другой поток успел открыть тот же файл
+                closeQuietly(channel);
+                existing.users++;
+                return existing;
+            }
+            opened.users++;
+            channels.put(key, opened);
+            evictOverflow();
+            return opened;
+        }
+    }
+    
+    private void release(CachedChannel cached) {
+        synchronized (channels) {
+            cached.users--;
+            closeIfUnused(cached);
+        }
+    }
+    
+    private void evictOverflow() {
+        var iterator = channels.entrySet().iterator();
+        while (channels.size() > channelCacheSize && iterator.hasNext()) {
+            CachedChannel eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.evicted = true;
+            closeIfUnused(eldest);
+        }
+    }
+    
+    private void closeIfUnused(CachedChannel cached) {
+        if (cached.evicted && cached.users == 0) {
+            closeQuietly(cached.channel);
+        }
+    }
+    
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Не удалось закрыть канал: {}", e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void closeAll() {
+        synchronized (channels) {
+            channels.values().forEach(cached -> closeQuietly(cached.channel));
+            channels.clear();
+        }
+    }
+    
+    private static final class CachedChannel {
+        private final FileChannel channel;
+        private final long size;
+        private int users;
+        private boolean evicted;
+        
+        private CachedChannel(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+}
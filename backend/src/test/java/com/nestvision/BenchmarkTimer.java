@@ -0,0 +1,73 @@
+package com.nestvision;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Замер для *Benchmark-классов: прогрев, затем несколько раундов; печатает медиану и среднее на операцию
+ *
+ * Benchmark-классы не попадают в обычный mvn test (surefire по умолчанию берет только *Test)
+ * и запускаются явно: mvn test -Dtest='*Benchmark' или -Dtest=JwtUtilBenchmark
+ */
+public final class BenchmarkTimer {
+    
+    // Результаты операций "используются", чтобы JIT не выбросил замеряемый код
+    private static volatile int sink;
+    
+    private BenchmarkTimer() {
+    }
+    
+    public interface Operation {
+        Object run() throws Exception;
+    }
+    
+    public record Result(String name, double medianNanos, double meanNanos) {
+        
+        /**
+         * Пропускная способность по медиане, МБ/с, если одна операция передает bytes байт
+         */
+        public double megabytesPerSecond(long bytes) {
+            return bytes / medianNanos * 1e9 / (1024 * 1024);
+        }
+    }
+    
+    public static Result measure(String name, int warmupRounds, int rounds, int operationsPerRound,
+                                 Operation operation) throws Exception {
+        for (int i = 0; i < warmupRounds; i++) {
+            runRound(operationsPerRound, operation);
+        }
+        double[] samples = new double[rounds];
+        for (int i = 0; i < rounds; i++) {
+            samples[i] = (double) runRound(operationsPerRound, operation) / operationsPerRound;
+        }
+        Arrays.sort(samples);
+        Result result = new Result(name, samples[rounds / 2], Arrays.stream(samples).average().orElse(0));
+        report("%-48s median %10s   mean %10s   per op", name, format(result.medianNanos()), format(result.meanNanos()));
+        return result;
+    }
+    
+    public static void report(String format, Object... args) {
+        System.out.printf(Locale.ROOT, "[benchmark] " + format + "%n", args);
+    }
+    
+    private static long runRound(int operations, Operation operation) throws Exception {
+        int used = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            used += operation.run() != null ? 1 : 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += used;
+        return elapsed;
+    }
+    
+    private static String format(double nanos) {
+        if (nanos < 1_000) {
+            return String.format(Locale.ROOT, "%.0f ns", nanos);
+        }
+        if (nanos < 1_000_000) {
+            return String.format(Locale.ROOT, "%.1f us", nanos / 1_000);
+        }
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000);
+    }
+}
@@ -0,0 +1,69 @@
+package com.nestvision.config;
+
+import com.nestvision.repository.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Снятие check-ограничения на job_type в таблице, созданной прежней версией Hibernate
+ */
+class IngestionJobSchemaInitializerTest {
+    
+    private DataSource dataSource;
+    
+    private IngestionJobSchemaInitializer initializer;
+    
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = TestDatabase.createDatabase("legacy_ingestion_jobs");
+        initializer = new IngestionJobSchemaInitializer();
+        ReflectionTestUtils.setField(initializer, "dataSource", dataSource);
+    }
+    
+    @Test
+    void dropsLegacyCheckOnce() throws SQLException {
+        execute("create table ingestion_jobs (id bigint primary key, job_type varchar(20) not null "
+                + "constraint ingestion_jobs_job_type_check check (job_type in ('TELEGRAM_FILE')))");
+        
+        initializer.afterPropertiesSet();
+        
+        assertThat(checkExists()).isFalse();
+        execute("insert into ingestion_jobs (id, job_type) values (1, 'FASTSTART')");
+        // Повторный запуск ничего не меняет
+        initializer.afterPropertiesSet();
+        assertThat(checkExists()).isFalse();
+    }
+    
+    @Test
+    void ignoresMissingTable() throws SQLException {
+        initializer.afterPropertiesSet();
+        
+        assertThat(checkExists()).isFalse();
+    }
+    
+    private boolean checkExists() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "select count(*) from pg_constraint where conname = 'ingestion_jobs_job_type_check'")) {
+            resultSet.next();
+            return resultSet.getLong(1) > 0;
+        }
+    }
+    
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.nestvision.config;
+
+import com.nestvision.BenchmarkTimer;
+import com.nestvision.entity.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Аутентификация запроса по JWT: попадание в кэш проверенных токенов, проверка подписи с разбором claims
+ * и прежний путь фильтра - три разбора токена с новым ключом и парсером (без запроса пользователя из БД)
+ * Запуск: mvn test -Dtest=JwtUtilBenchmark
+ */
+class JwtUtilBenchmark {
+    
+    private static final String SECRET = "benchmark-secret-key-with-at-least-256-bits-length!!";
+    
+    // Число разных токенов - одновременно работающих пользователей
+    private static final int TOKENS = 1_000;
+    
+    private static final int OPERATIONS = 10_000;
+    
+    @Test
+    void cachedPrincipalVersusSignatureCheck() throws Exception {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 3_600_000L);
+        ReflectionTestUtils.setField(jwtUtil, "cacheMaxSize", 10_000);
+        jwtUtil.init();
+        
+        String[] tokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            tokens[i] = jwtUtil.generateToken(user(i));
+            jwtUtil.toPrincipal(tokens[i], jwtUtil.extractAllClaims(tokens[i]));
+        }
+        assertThat(jwtUtil.getCachedPrincipal(tokens[0]).getUsername()).isEqualTo("user0");
+        
+        int[] next = new int[1];
+        BenchmarkTimer.Result hit = BenchmarkTimer.measure("getCachedPrincipal (cache hit)", 5, 10, OPERATIONS,
+                () -> jwtUtil.getCachedPrincipal(tokens[next[0]++ % TOKENS]));
+        BenchmarkTimer.Result verify = BenchmarkTimer.measure("extractAllClaims + toPrincipal", 5, 10, OPERATIONS,
+                () -> {
+                    String token = tokens[next[0]++ % TOKENS];
+                    return jwtUtil.toPrincipal(token, jwtUtil.extractAllClaims(token));
+                });
+        BenchmarkTimer.Result previous = BenchmarkTimer.measure("previous filter: 3 parses, new key each", 5, 10, OPERATIONS,
+                () -> {
+                    String token = tokens[next[0]++ % TOKENS];
+                    String username = parseWithNewKey(token).getSubject();
+                    boolean valid = parseWithNewKey(token).getSubject().equals(username)
+                            && !parseWithNewKey(token).getExpiration().before(new Date());
+                    return valid ? username : null;
+                });
+        
+        BenchmarkTimer.report("cache hit is %.0fx faster than a signature check, %.0fx faster than the previous filter",
+                verify.medianNanos() / hit.medianNanos(), previous.medianNanos() / hit.medianNanos());
+    }
+    
+    private static Claims parseWithNewKey(String token) {
+        return Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)))
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+    }
+    
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setRole("USER");
+        user.setKindergartenName("Sunny");
+        return user;
+    }
+}
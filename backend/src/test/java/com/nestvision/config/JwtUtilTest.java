@@ -0,0 +1,126 @@
+package com.nestvision.config;
+
+import com.nestvision.entity.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Кэш проверенных токенов: срок действия, вытеснение по LRU и отдельный пользователь на каждый запрос
+ */
+class JwtUtilTest {
+    
+    private JwtUtil jwtUtil;
+    
+    @BeforeEach
+    void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "test-secret-key-with-at-least-256-bits-length!!");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 3_600_000L);
+        ReflectionTestUtils.setField(jwtUtil, "cacheMaxSize", 2);
+        jwtUtil.init();
+    }
+    
+    @Test
+    void cachesVerifiedToken() {
+        String token = jwtUtil.generateToken(user(1L, "anna"));
+        assertThat(jwtUtil.getCachedPrincipal(token)).isNull();
+        
+        User principal = jwtUtil.toPrincipal(token, jwtUtil.extractAllClaims(token));
+        
+        assertThat(principal.getId()).isEqualTo(1L);
+        assertThat(principal.getUsername()).isEqualTo("anna");
+        assertThat(principal.getRole()).isEqualTo("ADMIN");
+        assertThat(principal.getKindergartenName()).isEqualTo("Sunny");
+        User cached = jwtUtil.getCachedPrincipal(token);
+        assertThat(cached).isNotSameAs(principal);
+        assertThat(cached.getId()).isEqualTo(1L);
+        assertThat(cached.getUsername()).isEqualTo("anna");
+        assertThat(cached.getRole()).isEqualTo("ADMIN");
+        assertThat(cached.getKindergartenName()).isEqualTo("Sunny");
+    }
+    
+    @Test
+    void changesToPrincipalDoNotReachCache() {
+        jwtUtil.toPrincipal("token", claims(1L, System.currentTimeMillis() + 60_000)).setRole("ADMIN");
+        jwtUtil.getCachedPrincipal("token").setRole("ADMIN");
+        
+        assertThat(jwtUtil.getCachedPrincipal("token").getRole()).isEqualTo("USER");
+    }
+    
+    @Test
+    void dropsExpiredTokenFromCache() {
+        jwtUtil.toPrincipal("expired", claims(1L, System.currentTimeMillis() - 1));
+        
+        assertThat(jwtUtil.getCachedPrincipal("expired")).isNull();
+        assertThat(cache()).doesNotContainKey("expired");
+    }
+    
+    @Test
+    void evictsLeastRecentlyUsedTokenWhenFull() {
+        jwtUtil.toPrincipal("first", claims(1L, System.currentTimeMillis() + 60_000));
+        jwtUtil.toPrincipal("second", claims(2L, System.currentTimeMillis() + 60_000));
+        jwtUtil.getCachedPrincipal("first");
+        
+        jwtUtil.toPrincipal("new", claims(3L, System.currentTimeMillis() + 60_000));
+        
+        assertThat(cache()).containsOnlyKeys("first", "new");
+    }
+    
+    @Test
+    void neverGrowsBeyondMaxSize() {
+        for (int i = 0; i < 10; i++) {
+            jwtUtil.toPrincipal("token" + i, claims(i, System.currentTimeMillis() + 60_000));
+            assertThat(cache().size()).isLessThanOrEqualTo(2);
+        }
+        assertThat(jwtUtil.getCachedPrincipal("token9")).isNotNull();
+    }
+    
+    @Test
+    void skipsCacheWhenDisabled() {
+        ReflectionTestUtils.setField(jwtUtil, "cacheMaxSize", 0);
+        
+        User principal = jwtUtil.toPrincipal("token", claims(1L, System.currentTimeMillis() + 60_000));
+        
+        assertThat(principal).isNotNull();
+        assertThat(jwtUtil.getCachedPrincipal("token")).isNull();
+    }
+    
+    @Test
+    void ignoresTokensWithoutUserClaims() {
+        Claims claims = Jwts.claims().subject("old").expiration(new Date(System.currentTimeMillis() + 60_000)).build();
+        
+        assertThat(jwtUtil.toPrincipal("old", claims)).isNull();
+        assertThat(cache()).isEmpty();
+    }
+    
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setRole("ADMIN");
+        user.setKindergartenName("Sunny");
+        return user;
+    }
+    
+    private static Claims claims(long userId, long expiresAt) {
+        return Jwts.claims()
+                .subject("user" + userId)
+                .expiration(new Date(expiresAt))
+                .add("uid", userId)
+                .add("role", "USER")
+                .build();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> cache() {
+        return (Map<String, ?>) ReflectionTestUtils.getField(jwtUtil, "verifiedTokens");
+    }
+}
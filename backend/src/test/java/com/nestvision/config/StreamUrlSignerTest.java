@@ -0,0 +1,50 @@
+package com.nestvision.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Подписанные ссылки на поток: в токене только id и срок действия, подделка и истечение отклоняются
+ */
+class StreamUrlSignerTest {
+    
+    private StreamUrlSigner signer;
+    
+    @BeforeEach
+    void setUp() {
+        signer = new StreamUrlSigner();
+        ReflectionTestUtils.setField(signer, "secret", "stream-secret");
+        ReflectionTestUtils.setField(signer, "ttlSeconds", 3600L);
+        signer.init();
+    }
+    
+    @Test
+    void verifiesSignedId() {
+        Instant expiresAt = signer.newExpiry();
+        String token = signer.sign(42L, expiresAt);
+        
+        assertThat(signer.verify(token)).isEqualTo(42L);
+        String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))),
+                StandardCharsets.UTF_8);
+        assertThat(payload).isEqualTo("42\n" + expiresAt.getEpochSecond());
+    }
+    
+    @Test
+    void rejectsTamperedAndExpiredTokens() {
+        String token = signer.sign(42L, signer.newExpiry());
+        String forged = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("43\n" + signer.newExpiry().getEpochSecond()).getBytes(StandardCharsets.UTF_8))
+                + token.substring(token.indexOf('.'));
+        
+        assertThat(signer.verify(forged)).isNull();
+        assertThat(signer.verify(signer.sign(42L, Instant.now().minusSeconds(1)))).isNull();
+        assertThat(signer.verify("garbage")).isNull();
+    }
+}
@@ -0,0 +1,90 @@
+package com.nestvision.controller;
+
+import com.nestvision.dto.TelegramVideoRequest;
+import com.nestvision.service.IngestionJobService;
+import com.nestvision.service.TelegramService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Webhook: 200 только после того, как видео записано заданием в ingestion_jobs
+ */
+class TelegramControllerTest {
+    
+    private static final String SECRET = "secret";
+    
+    private final TelegramService telegramService = mock(TelegramService.class);
+    
+    private final IngestionJobService ingestionJobService = mock(IngestionJobService.class);
+    
+    private final TelegramVideoRequest video = new TelegramVideoRequest();
+    
+    private TelegramController telegramController;
+    
+    @BeforeEach
+    void setUp() {
+        telegramController = new TelegramController();
+        ReflectionTestUtils.setField(telegramController, "telegramService", telegramService);
+        ReflectionTestUtils.setField(telegramController, "ingestionJobService", ingestionJobService);
+        ReflectionTestUtils.setField(telegramController, "retryAfterSeconds", 7);
+        
+        when(telegramService.isWebhookMode()).thenReturn(true);
+        when(telegramService.isBotInitialized()).thenReturn(true);
+        when(telegramService.isValidWebhookSecret(SECRET)).thenReturn(true);
+        video.setFileId("file");
+    }
+    
+    @Test
+    void enqueuesVideoBeforeAnswering() {
+        when(telegramService.webhookVideo(any())).thenReturn(video);
+        when(ingestionJobService.submitTelegramBatch(List.of(video)))
+                .thenReturn(new IngestionJobService.BatchSubmission(List.of(), List.of()));
+        
+        ResponseEntity<Void> response = telegramController.receiveWebhook(SECRET, "{}");
+        
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        verify(ingestionJobService).submitTelegramBatch(List.of(video));
+    }
+    
+    @Test
+    void asksTelegramToRetryWhenQueueIsFull() {
+        when(telegramService.webhookVideo(any())).thenReturn(video);
+        when(ingestionJobService.submitTelegramBatch(anyList())).thenReturn(null);
+        
+        ResponseEntity<Void> response = telegramController.receiveWebhook(SECRET, "{}");
+        
+        assertThat(response.getStatusCode().value()).isEqualTo(429);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+    }
+    
+    @Test
+    void acknowledgesUpdatesWithoutVideo() {
+        ResponseEntity<Void> response = telegramController.receiveWebhook(SECRET, "{}");
+        
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        verify(ingestionJobService, never()).submitTelegramBatch(anyList());
+    }
+    
+    @Test
+    void rejectsInvalidRequests() {
+        assertThat(telegramController.receiveWebhook("wrong", "{}").getStatusCode().value()).isEqualTo(403);
+        assertThat(telegramController.receiveWebhook(SECRET, "not json").getStatusCode().value()).isEqualTo(400);
+        
+        when(telegramService.isWebhookMode()).thenReturn(false);
+        assertThat(telegramController.receiveWebhook(SECRET, "{}").getStatusCode().value()).isEqualTo(404);
+        verify(ingestionJobService, never()).submitTelegramBatch(anyList());
+    }
+}
@@ -0,0 +1,55 @@
+package com.nestvision.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.test.context.DynamicPropertyRegistry;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Настоящий PostgreSQL для тестов репозиториев: запускается один раз на JVM из бинарников embedded-postgres
+ * (Docker не нужен) и останавливается вместе с ней. Схему создает Hibernate, как ddl-auto=update в приложении
+ */
+public final class TestDatabase {
+    
+    private static EmbeddedPostgres postgres;
+    
+    private TestDatabase() {
+    }
+    
+    public static void register(DynamicPropertyRegistry registry) {
+        EmbeddedPostgres database = start();
+        registry.add("spring.datasource.url", () -> database.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "update");
+    }
+    
+    /**
+     * Отдельная пустая база - для тестов, которым нужна своя схема, а не созданная Hibernate
+     */
+    public static DataSource createDatabase(String name) throws SQLException {
+        EmbeddedPostgres database = start();
+        try (Connection connection = database.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("drop database if exists " + name);
+            statement.execute("create database " + name);
+        }
+        return database.getDatabase("postgres", name);
+    }
+    
+    private static synchronized EmbeddedPostgres start() {
+        if (postgres == null) {
+            try {
+                postgres = EmbeddedPostgres.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return postgres;
+    }
+}
@@ -0,0 +1,114 @@
+package com.nestvision.repository;
+
+import com.nestvision.BenchmarkTimer;
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.service.VideoCatalog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Страница списка видео: keyset-запрос и каталог в памяти против прежней выборки всей таблицы
+ * (сущности Video с преобразованием в VideoResponse) на PostgreSQL с VIDEOS записями
+ * Запуск: mvn test -Dtest=VideoPagingBenchmark
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(VideoCatalog.class)
+class VideoPagingBenchmark {
+    
+    private static final int VIDEOS = 20_000;
+    
+    private static final int PAGE_SIZE = 50;
+    
+    private static final LocalDateTime MIN = LocalDateTime.of(1970, 1, 1, 0, 0);
+    
+    private static final LocalDateTime MAX = LocalDateTime.of(3000, 1, 1, 0, 0);
+    
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        TestDatabase.register(registry);
+        registry.add("spring.jpa.show-sql", () -> "false");
+    }
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Autowired
+    private VideoCatalog videoCatalog;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @BeforeEach
+    void setUp() {
+        videoRepository.deleteAllInBatch();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        VideoCategory[] categories = VideoCategory.values();
+        List<Object[]> rows = new ArrayList<>(VIDEOS);
+        for (int i = 0; i < VIDEOS; i++) {
+            Timestamp recordedAt = Timestamp.valueOf(start.plusMinutes(i));
+            rows.add(new Object[] {"video_" + i + ".mp4", "/videos/video_" + i + ".mp4", categories[i % categories.length].name(),
+                    recordedAt, recordedAt, 60L, 10_000_000L});
+        }
+        jdbcTemplate.batchUpdate("insert into videos (id, file_name, file_path, category, recorded_at, uploaded_at, "
+                + "duration, file_size) values (nextval('videos_seq'), ?, ?, ?, ?, ?, ?, ?)", rows);
+        jdbcTemplate.execute("analyze videos");
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> videoCatalog.load());
+    }
+    
+    @Test
+    void pageVersusFullFetch() throws Exception {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        VideoResponse middle = videoRepository.findPage(MIN, MAX, MAX, Long.MAX_VALUE, Limit.of(VIDEOS / 2)).get(VIDEOS / 2 - 1);
+        
+        BenchmarkTimer.Result fullEntities = BenchmarkTimer.measure("full fetch, Video entities -> DTO", 3, 10, 1,
+                () -> readOnly.execute(status -> videoRepository.findAll(
+                        Sort.by(Sort.Direction.DESC, "recordedAt", "id")).stream()
+                        .map(video -> new VideoResponse(video.getId(), video.getFileName(), video.getFilePath(),
+                                video.getCategory(), video.getRecordedAt(), video.getUploadedAt(), video.getDuration(),
+                                video.getSize(), video.getWidth(), video.getHeight(), video.getVideoCodec(), video.getBitrate()))
+                        .toList()));
+        BenchmarkTimer.Result fullProjection = BenchmarkTimer.measure("full fetch, VideoResponse projection", 3, 10, 1,
+                () -> readOnly.execute(status -> videoRepository.findAllResponses()));
+        BenchmarkTimer.Result firstPage = BenchmarkTimer.measure("keyset page, first", 20, 20, 20,
+                () -> readOnly.execute(status -> videoRepository.findPage(MIN, MAX, MAX, Long.MAX_VALUE, Limit.of(PAGE_SIZE + 1))));
+        BenchmarkTimer.Result deepPage = BenchmarkTimer.measure("keyset page, middle of table", 20, 20, 20,
+                () -> readOnly.execute(status -> videoRepository.findPage(MIN, MAX, middle.getRecordedAt(), middle.getId(),
+                        Limit.of(PAGE_SIZE + 1))));
+        BenchmarkTimer.Result catalogPage = BenchmarkTimer.measure("in-memory catalog page, middle", 100, 20, 1000,
+                () -> videoCatalog.page(null, null, null, middle.getRecordedAt(), middle.getId(), PAGE_SIZE + 1));
+        BenchmarkTimer.report("%d videos, page of %d: keyset page is %.0fx faster than the entity full fetch, catalog %.0fx",
+                VIDEOS, PAGE_SIZE, fullEntities.medianNanos() / deepPage.medianNanos(),
+                fullEntities.medianNanos() / catalogPage.medianNanos());
+        
+        assertThat(firstPage.medianNanos()).isLessThan(fullProjection.medianNanos());
+        assertThat(deepPage.medianNanos()).isLessThan(fullProjection.medianNanos());
+        assertThat(catalogPage.medianNanos()).isLessThan(deepPage.medianNanos());
+    }
+}
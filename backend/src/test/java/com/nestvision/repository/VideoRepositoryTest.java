@@ -0,0 +1,87 @@
+package com.nestvision.repository;
+
+import com.nestvision.entity.Video;
+import com.nestvision.entity.VideoCategory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * insertIfAbsent на PostgreSQL: id из videos_seq и пропуск дубликатов по уникальным ключам
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class VideoRepositoryTest {
+    
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        TestDatabase.register(registry);
+    }
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @BeforeEach
+    void setUp() {
+        videoRepository.deleteAllInBatch();
+    }
+    
+    @Test
+    void insertsOnceAndSkipsDuplicates() {
+        Video first = video("a.mp4", "file-a", "unique-a", "sha-a");
+        
+        assertThat(videoRepository.insertIfAbsent(first)).isEqualTo(1);
+        assertThat(videoRepository.insertIfAbsent(video("a2.mp4", "file-b", "unique-a", "sha-b"))).isZero();
+        assertThat(videoRepository.insertIfAbsent(video("a3.mp4", "file-c", "unique-c", "sha-a"))).isZero();
+        assertThat(videoRepository.insertIfAbsent(video("b.mp4", "file-d", "unique-d", "sha-d"))).isEqualTo(1);
+        
+        assertThat(videoRepository.count()).isEqualTo(2);
+        assertThat(videoRepository.findAll()).allSatisfy(video -> assertThat(video.getId()).isPositive());
+    }
+    
+    @Test
+    void nativeInsertDoesNotCollideWithPooledIds() {
+        List<Video> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(video("batch-" + i + ".mp4", "batch-file-" + i, "batch-unique-" + i, "batch-sha-" + i));
+        }
+        videoRepository.saveAll(batch.subList(0, 2));
+        Video inserted = video("single.mp4", "single-file", "single-unique", "single-sha");
+        inserted.setUploadedAt(null);
+        assertThat(videoRepository.insertIfAbsent(inserted)).isEqualTo(1);
+        // Третья запись берет id из уже выделенного Hibernate блока - он не должен совпасть с id нативной вставки
+        videoRepository.save(batch.get(2));
+        
+        List<Video> all = videoRepository.findAll();
+        assertThat(all).hasSize(4);
+        assertThat(all).extracting(Video::getId).doesNotHaveDuplicates();
+        assertThat(all).filteredOn(video -> video.getFileName().equals("single.mp4"))
+            .singleElement().satisfies(video -> assertThat(video.getUploadedAt()).isNotNull());
+    }
+    
+    private static Video video(String fileName, String fileId, String fileUniqueId, String sha256) {
+        Video video = new Video();
+        video.setFileName(fileName);
+        video.setFilePath("/videos/" + fileName);
+        video.setCategory(VideoCategory.values()[0]);
+        video.setRecordedAt(LocalDateTime.now());
+        video.setUploadedAt(LocalDateTime.now());
+        video.setTelegramFileId(fileId);
+        video.setTelegramFileUniqueId(fileUniqueId);
+        video.setContentSha256(sha256);
+        return video;
+    }
+}
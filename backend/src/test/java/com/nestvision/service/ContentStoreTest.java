@@ -0,0 +1,96 @@
+package com.nestvision.service;
+
+import com.nestvision.repository.VideoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Удаление лишних blob с другим расширением и очистка брошенных временных файлов
+ */
+class ContentStoreTest {
+    
+    @TempDir
+    Path storage;
+    
+    private final VideoRepository videoRepository = mock(VideoRepository.class);
+    
+    private ContentStore contentStore;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        contentStore = newStore();
+    }
+    
+    @Test
+    void discardsExtensionVariantOfReferencedContent() throws IOException {
+        ContentStore.Blob mp4 = contentStore.store(content(), "clip.mp4");
+        ContentStore.Blob mov = contentStore.store(content(), "clip.MOV");
+        assertThat(mov.sha256()).isEqualTo(mp4.sha256());
+        assertThat(mov.path()).isNotEqualTo(mp4.path());
+        
+        // Видео с этим содержимым уже есть, но ссылается на .mp4
+        when(videoRepository.existsByContentSha256(mp4.sha256())).thenReturn(true);
+        when(videoRepository.existsByFilePath(anyString())).thenReturn(false);
+        when(videoRepository.existsByFilePath(mp4.path().toString())).thenReturn(true);
+        
+        contentStore.discardIfUnreferenced(mov);
+        contentStore.discardIfUnreferenced(mp4.sha256(), mp4.path());
+        
+        assertThat(mov.path()).doesNotExist();
+        assertThat(mp4.path()).exists();
+    }
+    
+    @Test
+    void sweepsOnlyStaleTempFiles() throws IOException {
+        Path staleTmp = contentStore.newTempFile();
+        Path stalePart = contentStore.partFile("stale");
+        Path staleRanges = stalePart.resolveSibling(stalePart.getFileName() + ".ranges");
+        Path freshPart = contentStore.partFile("fresh");
+        Path other = staleTmp.resolveSibling("keep.txt");
+        for (Path file : new Path[] {stalePart, staleRanges, freshPart, other}) {
+            Files.writeString(file, "x");
+        }
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofHours(25)));
+        for (Path file : new Path[] {staleTmp, stalePart, staleRanges, other}) {
+            Files.setLastModifiedTime(file, old);
+        }
+        
+        newStore();
+        
+        assertThat(staleTmp).doesNotExist();
+        assertThat(stalePart).doesNotExist();
+        assertThat(staleRanges).doesNotExist();
+        assertThat(freshPart).exists();
+        assertThat(other).exists();
+    }
+    
+    private ContentStore newStore() throws IOException {
+        ContentStore store = new ContentStore();
+        ReflectionTestUtils.setField(store, "videoRepository", videoRepository);
+        ReflectionTestUtils.setField(store, "storagePath", storage.toString());
+        ReflectionTestUtils.setField(store, "tmpMaxAgeHours", 24L);
+        ReflectionTestUtils.setField(store, "sessionTtlHours", 24L);
+        store.init();
+        return store;
+    }
+    
+    private static ByteArrayInputStream content() {
+        return new ByteArrayInputStream("same bytes".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,178 @@
+package com.nestvision.service;
+
+import com.nestvision.BenchmarkTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static com.nestvision.service.Mp4Fixture.box;
+import static com.nestvision.service.Mp4Fixture.ftyp;
+import static com.nestvision.service.Mp4Fixture.mvhd;
+import static com.nestvision.service.Mp4Fixture.stco;
+import static com.nestvision.service.Mp4Fixture.stsd;
+import static com.nestvision.service.Mp4Fixture.tkhd;
+import static com.nestvision.service.Mp4Fixture.trak;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Начало воспроизведения с moov в конце и после faststart: сколько нужно скачать и сколько это занимает,
+ * пока у плеера не окажется весь moov, а также стоимость самой перестановки для файла на FILE_MB МБ
+ * Запуск: mvn test -Dtest=FaststartBenchmark
+ */
+class FaststartBenchmark {
+    
+    private static final int FILE_MB = 128;
+    
+    private static final int CHUNKS = 20_000;
+    
+    // Первый Range-запрос плеера, который ищет moov по заголовкам боксов
+    private static final int PROBE_SIZE = 64 * 1024;
+    
+    @TempDir
+    Path dir;
+    
+    private Path original;
+    
+    private VideoStreamService videoStreamService;
+    
+    private FaststartRewriter faststartRewriter;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        original = dir.resolve("camera.mp4");
+        byte[] ftyp = ftyp();
+        long mdatSize = FILE_MB * 1024L * 1024;
+        long[] offsets = new long[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++) {
+            offsets[i] = ftyp.length + 8 + i * (mdatSize / CHUNKS);
+        }
+        byte[] moov = box("moov", mvhd(0, 1000, 1_800_000),
+                trak(tkhd(0, 1920, 1080, false), "vide", stsd("avc1", 1920, 1080), stco(offsets)));
+        
+        byte[] block = new byte[1024 * 1024];
+        new Random(1).nextBytes(block);
+        try (FileChannel channel = FileChannel.open(original, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(ftyp));
+            channel.write(ByteBuffer.allocate(8).putInt((int) (mdatSize + 8))
+                    .put("mdat".getBytes(StandardCharsets.ISO_8859_1)).flip());
+            for (int i = 0; i < FILE_MB; i++) {
+                channel.write(ByteBuffer.wrap(block));
+            }
+            channel.write(ByteBuffer.wrap(moov));
+        }
+        
+        ContentStore contentStore = new ContentStore();
+        ReflectionTestUtils.setField(contentStore, "storagePath", dir.resolve("storage").toString());
+        contentStore.init();
+        videoStreamService = new VideoStreamService();
+        ReflectionTestUtils.setField(videoStreamService, "channelCacheSize", 4);
+        ReflectionTestUtils.setField(videoStreamService, "sendfileEnabled", true);
+        faststartRewriter = new FaststartRewriter();
+        ReflectionTestUtils.setField(faststartRewriter, "contentStore", contentStore);
+        ReflectionTestUtils.setField(faststartRewriter, "videoStreamService", videoStreamService);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        videoStreamService.closeAll();
+    }
+    
+    @Test
+    void timeToMoovBeforeAndAfterRewrite() throws Exception {
+        Path faststart = dir.resolve("faststart.mp4");
+        Files.copy(original, faststart);
+        assertThat(faststartRewriter.rewrite(faststart)).isTrue();
+        assertThat(Files.size(faststart)).isEqualTo(Files.size(original));
+        
+        Mp4MetadataReader.TopLevelBox tailMoov = moov(original);
+        Mp4MetadataReader.TopLevelBox headMoov = moov(faststart);
+        long tailMoovEnd = tailMoov.offset() + tailMoov.size();
+        long headMoovEnd = headMoov.offset() + headMoov.size();
+        
+        try (StreamServer server = new StreamServer(dir.resolve("tomcat"),
+                (request, response) -> videoStreamService.stream(dir.resolve(request.getRequestURI().substring(1)),
+                        request, response))) {
+            BenchmarkTimer.Result sequentialTail = BenchmarkTimer.measure("sequential read to moov, moov at end",
+                    3, 9, 1, () -> fetch(server, "/camera.mp4", null, tailMoovEnd));
+            BenchmarkTimer.Result sequentialHead = BenchmarkTimer.measure("sequential read to moov, faststart",
+                    3, 9, 100, () -> fetch(server, "/faststart.mp4", null, headMoovEnd));
+            BenchmarkTimer.Result probingTail = BenchmarkTimer.measure("probe + Range for moov, moov at end",
+                    3, 9, 100, () -> {
+                        fetch(server, "/camera.mp4", "bytes=0-" + (PROBE_SIZE - 1), PROBE_SIZE);
+                        return fetch(server, "/camera.mp4", "bytes=" + tailMoov.offset() + "-", tailMoov.size());
+                    });
+            
+            BenchmarkTimer.report("moov %d KB; a sequential reader gets the whole moov after %d MB with moov at the end "
+                            + "and after %d KB with faststart (%.0fx sooner)", tailMoov.size() / 1024,
+                    tailMoovEnd / (1024 * 1024), headMoovEnd / 1024, sequentialTail.medianNanos() / sequentialHead.medianNanos());
+            // На loopback лишний запрос почти бесплатен, в сети он добавляет RTT до первого кадра
+            BenchmarkTimer.report("a probing player needs 2 requests for a moov at the end (%.2f ms on loopback), 1 after faststart",
+                    probingTail.medianNanos() / 1_000_000);
+        }
+        
+        Path copy = dir.resolve("copy.mp4");
+        BenchmarkTimer.Result copyOnly = BenchmarkTimer.measure("Files.copy (baseline)", 1, 5, 1, () -> {
+            Files.copy(original, copy, StandardCopyOption.REPLACE_EXISTING);
+            return copy;
+        });
+        BenchmarkTimer.Result copyAndRewrite = BenchmarkTimer.measure("Files.copy + FaststartRewriter.rewrite", 1, 5, 1,
+                () -> {
+                    Files.copy(original, copy, StandardCopyOption.REPLACE_EXISTING);
+                    return faststartRewriter.rewrite(copy);
+                });
+        BenchmarkTimer.report("rewrite of a %d MB file: ~%.0f ms", FILE_MB,
+                (copyAndRewrite.medianNanos() - copyOnly.medianNanos()) / 1_000_000);
+    }
+    
+    private static Mp4MetadataReader.TopLevelBox moov(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return Mp4MetadataReader.topLevelBoxes(channel).stream()
+                    .filter(box -> box.type().equals("moov"))
+                    .findFirst()
+                    .orElseThrow();
+        }
+    }
+    
+    /**
+     * GET с Range или без на отдельном соединении; читает, пока не получит bodyBytes байт тела, и закрывает соединение
+     */
+    private static Long fetch(StreamServer server, String path, String range, long bodyBytes) throws IOException {
+        URI uri = server.uri(path);
+        String request = "GET " + uri.getPath() + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + (range != null ? "Range: " + range + "\r\n" : "") + "\r\n";
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        long body = -1;
+        StringBuilder headers = new StringBuilder();
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(uri.getHost(), uri.getPort()))) {
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+            while (body < bodyBytes && channel.read(buffer.clear()) >= 0) {
+                if (body >= 0) {
+                    body += buffer.position();
+                    continue;
+                }
+                headers.append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1));
+                int end = headers.indexOf("\r\n\r\n");
+                if (end >= 0) {
+                    body = headers.length() - end - 4;
+                }
+            }
+        }
+        assertThat(body).isGreaterThanOrEqualTo(bodyBytes);
+        return body;
+    }
+}
@@ -0,0 +1,201 @@
+package com.nestvision.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.nestvision.service.Mp4Fixture.box;
+import static com.nestvision.service.Mp4Fixture.co64;
+import static com.nestvision.service.Mp4Fixture.concat;
+import static com.nestvision.service.Mp4Fixture.ftyp;
+import static com.nestvision.service.Mp4Fixture.mvhd;
+import static com.nestvision.service.Mp4Fixture.stco;
+import static com.nestvision.service.Mp4Fixture.stsd;
+import static com.nestvision.service.Mp4Fixture.tkhd;
+import static com.nestvision.service.Mp4Fixture.trak;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Перестановка moov в начало: сдвиг stco/co64 и неизменность данных, на которые они указывают
+ */
+class FaststartRewriterTest {
+    
+    private static final int CHUNK = 16;
+    
+    @TempDir
+    Path storage;
+    
+    private final VideoStreamService videoStreamService = mock(VideoStreamService.class);
+    
+    private FaststartRewriter faststartRewriter;
+    
+    private final byte[] ftyp = ftyp();
+    
+    private final byte[] mdat = box("mdat", randomBytes(4000, 1));
+    
+    private final byte[] tailMdat = box("mdat", randomBytes(1000, 2));
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        ContentStore contentStore = new ContentStore();
+        ReflectionTestUtils.setField(contentStore, "storagePath", storage.toString());
+        contentStore.init();
+        
+        faststartRewriter = new FaststartRewriter();
+        ReflectionTestUtils.setField(faststartRewriter, "contentStore", contentStore);
+        ReflectionTestUtils.setField(faststartRewriter, "videoStreamService", videoStreamService);
+    }
+    
+    @Test
+    void movesMoovFirstAndShiftsChunkOffsets() throws IOException {
+        long data = ftyp.length + 8;
+        long[] videoOffsets = {data, data + 100, data + 3000};
+        long[] audioOffsets = {data + 50, data + 3900};
+        byte[] moov = moov(stco(videoOffsets), co64(audioOffsets));
+        byte[] original = concat(ftyp, mdat, moov);
+        Path file = write(original);
+        
+        assertThat(faststartRewriter.needsRewrite(file)).isTrue();
+        assertThat(faststartRewriter.rewrite(file)).isTrue();
+        
+        byte[] rewritten = Files.readAllBytes(file);
+        assertThat(rewritten).hasSameSizeAs(original);
+        assertThat(Arrays.copyOfRange(rewritten, 0, ftyp.length)).isEqualTo(ftyp);
+        assertThat(fourcc(rewritten, ftyp.length + 4)).isEqualTo("moov");
+        assertThat(fourcc(rewritten, ftyp.length + moov.length + 4)).isEqualTo("mdat");
+        
+        long shift = moov.length;
+        assertThat(offsets(rewritten, "stco")).containsExactly(shifted(videoOffsets, shift));
+        assertThat(offsets(rewritten, "co64")).containsExactly(shifted(audioOffsets, shift));
+        // Чанки по новым смещениям - те же байты
+        for (long offset : concatOffsets(videoOffsets, audioOffsets)) {
+            assertThat(chunk(rewritten, offset + shift)).isEqualTo(chunk(original, offset));
+        }
+        assertThat(faststartRewriter.needsRewrite(file)).isFalse();
+        verify(videoStreamService).evict(file);
+    }
+    
+    @Test
+    void keepsOffsetsOutsideMovedRange() throws IOException {
+        // ftyp, mdat, moov, mdat: второй mdat после перестановки остается на своем месте
+        long data = ftyp.length + 8;
+        long tailData = ftyp.length + mdat.length + moov(stco(0, 0)).length + 8;
+        long[] offsets = {data, tailData, tailData + 500};
+        byte[] moov = moov(stco(offsets));
+        byte[] original = concat(ftyp, mdat, moov, tailMdat);
+        Path file = write(original);
+        
+        assertThat(faststartRewriter.rewrite(file)).isTrue();
+        
+        byte[] rewritten = Files.readAllBytes(file);
+        assertThat(offsets(rewritten, "stco")).containsExactly(data + moov.length, tailData, tailData + 500);
+        assertThat(chunk(rewritten, data + moov.length)).isEqualTo(chunk(original, data));
+        assertThat(chunk(rewritten, tailData)).isEqualTo(chunk(original, tailData));
+    }
+    
+    @Test
+    void leavesFaststartFileUntouched() throws IOException {
+        byte[] original = concat(ftyp, moov(stco(ftyp.length + 200)), mdat);
+        Path file = write(original);
+        
+        assertThat(faststartRewriter.needsRewrite(file)).isFalse();
+        assertThat(faststartRewriter.rewrite(file)).isFalse();
+        assertThat(Files.readAllBytes(file)).isEqualTo(original);
+        verify(videoStreamService, never()).evict(any());
+    }
+    
+    @Test
+    void skipsFilesItCannotRewriteSafely() throws IOException {
+        // Сжатый moov
+        byte[] compressed = concat(ftyp, mdat, box("moov", box("cmov", new byte[32])));
+        // Фрагментированный файл
+        byte[] fragmented = concat(ftyp, mdat, box("moof", new byte[16]), moov(stco(ftyp.length + 8)));
+        // Хвост без заголовка бокса
+        byte[] trailing = concat(ftyp, mdat, moov(stco(ftyp.length + 8)), new byte[5]);
+        
+        for (byte[] original : new byte[][] {compressed, fragmented, trailing}) {
+            Path file = write(original);
+            
+            assertThat(faststartRewriter.rewrite(file)).isFalse();
+            assertThat(Files.readAllBytes(file)).isEqualTo(original);
+        }
+        verify(videoStreamService, never()).evict(any());
+    }
+    
+    private static byte[] moov(byte[] videoChunkOffsets, byte[]... audioChunkOffsets) {
+        byte[] video = trak(tkhd(0, 640, 480, false), "vide", stsd("avc1", 640, 480), videoChunkOffsets);
+        if (audioChunkOffsets.length == 0) {
+            return box("moov", mvhd(0, 1000, 5000), video);
+        }
+        byte[] audio = trak(tkhd(0, 0, 0, false), "soun", stsd("mp4a", 0, 0), audioChunkOffsets[0]);
+        return box("moov", mvhd(0, 1000, 5000), video, audio);
+    }
+    
+    /**
+     * Смещения из первого бокса stco или co64 в файле
+     */
+    private static long[] offsets(byte[] file, String type) {
+        int at = indexOf(file, type.getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer content = ByteBuffer.wrap(file, at + 4, file.length - at - 4).slice();
+        int count = content.getInt(4);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = type.equals("co64") ? content.getLong(8 + i * 8) : content.getInt(8 + i * 4) & 0xFFFFFFFFL;
+        }
+        return offsets;
+    }
+    
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("Box not found: " + new String(pattern, StandardCharsets.ISO_8859_1));
+    }
+    
+    private static long[] shifted(long[] offsets, long shift) {
+        return Arrays.stream(offsets).map(offset -> offset + shift).toArray();
+    }
+    
+    private static long[] concatOffsets(long[] first, long[] second) {
+        long[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+    
+    private static byte[] chunk(byte[] file, long offset) {
+        return Arrays.copyOfRange(file, (int) offset, (int) offset + CHUNK);
+    }
+    
+    private static String fourcc(byte[] file, int offset) {
+        return new String(file, offset, 4, StandardCharsets.ISO_8859_1);
+    }
+    
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+    
+    private Path write(byte[] content) throws IOException {
+        return Files.write(Files.createTempFile(storage, "clip", ".mp4"), content);
+    }
+}
@@ -0,0 +1,74 @@
+package com.nestvision.service;
+
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.entity.IngestionJobStatus;
+import com.nestvision.entity.IngestionJobType;
+import com.nestvision.repository.IngestionJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.EnumSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Лимит очереди заданий Telegram: считается только по ним и под блокировкой транзакции
+ */
+class IngestionJobServiceTest {
+    
+    private final IngestionJobRepository ingestionJobRepository = mock(IngestionJobRepository.class);
+    
+    private IngestionJobService ingestionJobService;
+    
+    @BeforeEach
+    void setUp() {
+        ingestionJobService = new IngestionJobService();
+        ReflectionTestUtils.setField(ingestionJobService, "ingestionJobRepository", ingestionJobRepository);
+        ReflectionTestUtils.setField(ingestionJobService, "maxPending", 10);
+        when(ingestionJobRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        // Постановка выполняется в транзакции: исполнитель будится после коммита
+        TransactionSynchronizationManager.initSynchronization();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+    
+    @Test
+    void countsOnlyTelegramJobsUnderLock() {
+        when(ingestionJobRepository.countByTypeAndStatusIn(eq(IngestionJobType.TELEGRAM_FILE), any())).thenReturn(9L);
+        
+        IngestionJob job = ingestionJobService.submitTelegramJob("file", "unique", "clip.mp4", 1L, "MORNING", null);
+        
+        assertThat(job).isNotNull();
+        assertThat(job.getType()).isEqualTo(IngestionJobType.TELEGRAM_FILE);
+        InOrder order = inOrder(ingestionJobRepository);
+        order.verify(ingestionJobRepository).lockTransaction(anyLong());
+        order.verify(ingestionJobRepository).countByTypeAndStatusIn(IngestionJobType.TELEGRAM_FILE,
+                EnumSet.of(IngestionJobStatus.QUEUED, IngestionJobStatus.RUNNING));
+        order.verify(ingestionJobRepository).save(job);
+    }
+    
+    @Test
+    void rejectsWhenTelegramQueueIsFull() {
+        when(ingestionJobRepository.countByTypeAndStatusIn(eq(IngestionJobType.TELEGRAM_FILE), any())).thenReturn(10L);
+        
+        IngestionJob job = ingestionJobService.submitTelegramJob("file", "unique", "clip.mp4", 1L, "MORNING", null);
+        
+        assertThat(job).isNull();
+        verify(ingestionJobRepository, never()).save(any());
+    }
+}
@@ -0,0 +1,48 @@
+package com.nestvision.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JobCoordinatorTest {
+    
+    private final JobCoordinator coordinator = new JobCoordinator();
+    
+    @Test
+    void errorInTaskFailsRunAndReleasesWaiters() throws Exception {
+        JobCoordinator.Submission submission = coordinator.submit("test", Duration.ofHours(1), progress -> {
+            throw new AssertionError("boom");
+        });
+        
+        CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> submission.run().await());
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS)).hasRootCauseInstanceOf(AssertionError.class);
+        assertThat(submission.run().toMap())
+                .containsEntry("state", JobCoordinator.Run.State.FAILED)
+                .containsEntry("error", "boom");
+        
+        // После ошибки новый запуск стартует сразу, а не присоединяется к упавшему
+        JobCoordinator.Submission retry = coordinator.submit("test", Duration.ofHours(1), progress -> 7);
+        assertThat(retry.coalesced()).isFalse();
+        assertThat(retry.run().await()).isEqualTo(7);
+    }
+    
+    @Test
+    void concurrentSubmitJoinsRunningRun() {
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        JobCoordinator.Submission first = coordinator.submit("test", Duration.ZERO, progress -> {
+            gate.join();
+            return 3;
+        });
+        JobCoordinator.Submission second = coordinator.submit("test", Duration.ZERO, progress -> 5);
+        gate.complete(null);
+        
+        assertThat(second.coalesced()).isTrue();
+        assertThat(second.run().getId()).isEqualTo(first.run().getId());
+        assertThat(second.run().await()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,115 @@
+package com.nestvision.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Сборка синтетических MP4 для тестов: только те поля боксов, которые читают Mp4MetadataReader и FaststartRewriter
+ */
+final class Mp4Fixture {
+    
+    private static final int[] IDENTITY = {0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000};
+    private static final int[] ROTATE_90 = {0, 0x10000, 0, -0x10000, 0, 0, 0, 0, 0x40000000};
+    
+    private Mp4Fixture() {
+    }
+    
+    static byte[] box(String type, byte[]... children) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.writeBytes(child);
+        }
+        return ByteBuffer.allocate(8 + content.size())
+                .putInt(8 + content.size())
+                .put(type.getBytes(StandardCharsets.ISO_8859_1))
+                .put(content.toByteArray())
+                .array();
+    }
+    
+    /**
+     * Бокс с 64-битным размером (size = 1)
+     */
+    static byte[] largeBox(String type, byte[] content) {
+        return ByteBuffer.allocate(16 + content.length)
+                .putInt(1)
+                .put(type.getBytes(StandardCharsets.ISO_8859_1))
+                .putLong(16 + content.length)
+                .put(content)
+                .array();
+    }
+    
+    static byte[] ftyp() {
+        return box("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), new byte[4],
+                "isomavc1".getBytes(StandardCharsets.ISO_8859_1));
+    }
+    
+    static byte[] mvhd(int version, long timescale, long duration) {
+        ByteBuffer content = ByteBuffer.allocate(version == 1 ? 112 : 100);
+        content.put((byte) version);
+        if (version == 1) {
+            content.putInt(20, (int) timescale).putLong(24, duration);
+        } else {
+            content.putInt(12, (int) timescale).putInt(16, (int) duration);
+        }
+        return box("mvhd", content.array());
+    }
+    
+    static byte[] tkhd(int version, int width, int height, boolean rotated) {
+        int matrixOffset = version == 1 ? 52 : 40;
+        ByteBuffer content = ByteBuffer.allocate(matrixOffset + 44);
+        content.put((byte) version);
+        content.position(matrixOffset);
+        for (int value : rotated ? ROTATE_90 : IDENTITY) {
+            content.putInt(value);
+        }
+        content.putInt(width << 16).putInt(height << 16);
+        return box("tkhd", content.array());
+    }
+    
+    static byte[] hdlr(String handlerType) {
+        ByteBuffer content = ByteBuffer.allocate(25);
+        content.position(8);
+        content.put(handlerType.getBytes(StandardCharsets.ISO_8859_1));
+        return box("hdlr", content.array());
+    }
+    
+    /**
+     * stsd с одной записью VisualSampleEntry
+     */
+    static byte[] stsd(String format, int width, int height) {
+        ByteBuffer entry = ByteBuffer.allocate(78);
+        entry.putShort(6, (short) 1).putShort(24, (short) width).putShort(26, (short) height);
+        return box("stsd", ByteBuffer.allocate(8).putInt(4, 1).array(), box(format, entry.array()));
+    }
+    
+    static byte[] stco(long... offsets) {
+        ByteBuffer content = ByteBuffer.allocate(8 + offsets.length * 4).putInt(4, offsets.length);
+        content.position(8);
+        for (long offset : offsets) {
+            content.putInt((int) offset);
+        }
+        return box("stco", content.array());
+    }
+    
+    static byte[] co64(long... offsets) {
+        ByteBuffer content = ByteBuffer.allocate(8 + offsets.length * 8).putInt(4, offsets.length);
+        content.position(8);
+        for (long offset : offsets) {
+            content.putLong(offset);
+        }
+        return box("co64", content.array());
+    }
+    
+    static byte[] trak(byte[] tkhd, String handlerType, byte[]... stblChildren) {
+        return box("trak", tkhd, box("mdia", hdlr(handlerType), box("minf", box("stbl", stblChildren))));
+    }
+    
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
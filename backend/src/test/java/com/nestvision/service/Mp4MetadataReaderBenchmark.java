@@ -0,0 +1,90 @@
+package com.nestvision.service;
+
+import com.nestvision.BenchmarkTimer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.nestvision.service.Mp4Fixture.box;
+import static com.nestvision.service.Mp4Fixture.ftyp;
+import static com.nestvision.service.Mp4Fixture.mvhd;
+import static com.nestvision.service.Mp4Fixture.stco;
+import static com.nestvision.service.Mp4Fixture.stsd;
+import static com.nestvision.service.Mp4Fixture.tkhd;
+import static com.nestvision.service.Mp4Fixture.trak;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Чтение метаданных при загрузке: файл на 1 ГБ (mdat разреженный) с moov в начале и в конце,
+ * moov с аудио- и видеодорожкой и таблицей чанков на CHUNKS записей, как у получасовой записи
+ * Запуск: mvn test -Dtest=Mp4MetadataReaderBenchmark
+ */
+class Mp4MetadataReaderBenchmark {
+    
+    private static final long MDAT_SIZE = 1024L * 1024 * 1024;
+    
+    private static final int CHUNKS = 50_000;
+    
+    private static final int OPERATIONS = 1_000;
+    
+    @TempDir
+    Path dir;
+    
+    private final Mp4MetadataReader reader = new Mp4MetadataReader();
+    
+    @Test
+    void readsMetadataWithoutTouchingSamples() throws Exception {
+        byte[] moov = moov();
+        Path moovFirst = write("moov-first.mp4", moov, true);
+        Path moovLast = write("moov-last.mp4", moov, false);
+        assertThat(reader.read(moovFirst).width()).isEqualTo(1920);
+        assertThat(reader.read(moovLast).durationSeconds()).isEqualTo(1800L);
+        
+        BenchmarkTimer.measure("read, moov before mdat", 5, 10, OPERATIONS, () -> reader.read(moovFirst));
+        BenchmarkTimer.Result last = BenchmarkTimer.measure("read, moov after 1 GB mdat", 5, 10, OPERATIONS,
+                () -> reader.read(moovLast));
+        BenchmarkTimer.report("moov %d KB, %d files per second with moov at the end",
+                moov.length / 1024, Math.round(1e9 / last.medianNanos()));
+    }
+    
+    private static byte[] moov() {
+        long[] offsets = new long[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++) {
+            offsets[i] = 48 + (long) i * (MDAT_SIZE / CHUNKS);
+        }
+        return box("moov", mvhd(0, 1000, 1_800_000),
+                trak(tkhd(0, 0, 0, false), "soun", stco(offsets)),
+                trak(tkhd(0, 1920, 1080, false), "vide", stsd("avc1", 1920, 1080), stco(offsets)));
+    }
+    
+    /**
+     * ftyp, заголовок mdat и moov до или после него; содержимое mdat не записывается (разреженный файл)
+     */
+    private Path write(String name, byte[] moov, boolean moovFirst) throws IOException {
+        Path file = dir.resolve(name);
+        ByteBuffer mdatHeader = ByteBuffer.allocate(8)
+                .putInt((int) (MDAT_SIZE + 8))
+                .put("mdat".getBytes(StandardCharsets.ISO_8859_1))
+                .flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(ftyp()));
+            if (moovFirst) {
+                channel.write(ByteBuffer.wrap(moov));
+            }
+            channel.write(mdatHeader);
+            channel.position(channel.position() + MDAT_SIZE);
+            if (!moovFirst) {
+                channel.write(ByteBuffer.wrap(moov));
+            } else {
+                channel.write(ByteBuffer.allocate(1), channel.position() - 1);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,134 @@
+package com.nestvision.service;
+
+import com.nestvision.entity.Video;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.nestvision.service.Mp4Fixture.box;
+import static com.nestvision.service.Mp4Fixture.concat;
+import static com.nestvision.service.Mp4Fixture.ftyp;
+import static com.nestvision.service.Mp4Fixture.largeBox;
+import static com.nestvision.service.Mp4Fixture.mvhd;
+import static com.nestvision.service.Mp4Fixture.stco;
+import static com.nestvision.service.Mp4Fixture.stsd;
+import static com.nestvision.service.Mp4Fixture.tkhd;
+import static com.nestvision.service.Mp4Fixture.trak;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Длительность, размер кадра, кодек и битрейт из синтетических MP4
+ */
+class Mp4MetadataReaderTest {
+    
+    @TempDir
+    Path dir;
+    
+    private final Mp4MetadataReader reader = new Mp4MetadataReader();
+    
+    @Test
+    void readsVideoTrack() throws IOException {
+        Path file = write(ftyp(), box("mdat", new byte[5000]),
+                box("moov", mvhd(0, 1000, 12_500), videoTrak(0, 1920, 1080, false, "avc1")));
+        
+        Mp4MetadataReader.Metadata metadata = reader.read(file);
+        
+        assertThat(metadata.durationSeconds()).isEqualTo(13L);
+        assertThat(metadata.width()).isEqualTo(1920);
+        assertThat(metadata.height()).isEqualTo(1080);
+        assertThat(metadata.videoCodec()).isEqualTo("avc1");
+        assertThat(metadata.bitrate()).isEqualTo(Math.round(Files.size(file) * 8.0 * 1000 / 12_500));
+    }
+    
+    @Test
+    void readsVersion1BoxesAndLargeMdat() throws IOException {
+        Path file = write(ftyp(), largeBox("mdat", new byte[1000]),
+                box("moov", mvhd(1, 90_000, 90_000L * 61), videoTrak(1, 1280, 720, false, "hvc1")));
+        
+        Mp4MetadataReader.Metadata metadata = reader.read(file);
+        
+        assertThat(metadata.durationSeconds()).isEqualTo(61L);
+        assertThat(metadata.width()).isEqualTo(1280);
+        assertThat(metadata.height()).isEqualTo(720);
+        assertThat(metadata.videoCodec()).isEqualTo("hvc1");
+    }
+    
+    @Test
+    void swapsDimensionsOfRotatedVideo() throws IOException {
+        Path file = write(ftyp(), box("moov", mvhd(0, 600, 6000), videoTrak(0, 1920, 1080, true, "avc1")),
+                box("mdat", new byte[100]));
+        
+        Mp4MetadataReader.Metadata metadata = reader.read(file);
+        
+        assertThat(metadata.width()).isEqualTo(1080);
+        assertThat(metadata.height()).isEqualTo(1920);
+    }
+    
+    @Test
+    void skipsAudioTrackAndFallsBackToSampleEntrySize() throws IOException {
+        byte[] audio = trak(tkhd(0, 0, 0, false), "soun", stsd("mp4a", 0, 0), stco(8));
+        byte[] video = trak(tkhd(0, 0, 0, false), "vide", stsd("avc1", 640, 480), stco(8));
+        Path file = write(ftyp(), box("moov", mvhd(0, 1000, 2000), audio, video), box("mdat", new byte[10]));
+        
+        Mp4MetadataReader.Metadata metadata = reader.read(file);
+        
+        assertThat(metadata.width()).isEqualTo(640);
+        assertThat(metadata.height()).isEqualTo(480);
+        assertThat(metadata.videoCodec()).isEqualTo("avc1");
+    }
+    
+    @Test
+    void leavesUnknownDurationEmpty() throws IOException {
+        Path file = write(ftyp(), box("moov", mvhd(0, 1000, 0), videoTrak(0, 320, 240, false, "avc1")));
+        
+        Mp4MetadataReader.Metadata metadata = reader.read(file);
+        
+        assertThat(metadata.durationSeconds()).isNull();
+        assertThat(metadata.bitrate()).isNull();
+        assertThat(metadata.width()).isEqualTo(320);
+    }
+    
+    @Test
+    void returnsNullForFilesWithoutMetadata() throws IOException {
+        // Не MP4
+        assertThat(reader.read(write("not a video file at all".getBytes(StandardCharsets.US_ASCII)))).isNull();
+        // Запись не закончена: moov еще нет
+        assertThat(reader.read(write(ftyp(), box("mdat", new byte[100])))).isNull();
+        // Файл обрезан посреди moov
+        byte[] full = concat(ftyp(), box("moov", mvhd(0, 1000, 1000), videoTrak(0, 320, 240, false, "avc1")));
+        assertThat(reader.read(write(Arrays.copyOf(full, full.length - 10)))).isNull();
+        // Файла нет
+        assertThat(reader.read(dir.resolve("missing.mp4"))).isNull();
+    }
+    
+    @Test
+    void fillKeepsFieldsWhenFileIsUnreadable() throws IOException {
+        Video video = new Video();
+        video.setDuration(5L);
+        
+        reader.fill(video, write("garbage".getBytes(StandardCharsets.US_ASCII)));
+        
+        assertThat(video.getDuration()).isEqualTo(5L);
+        assertThat(video.getWidth()).isNull();
+        
+        reader.fill(video, write(ftyp(), box("moov", mvhd(0, 1000, 3000), videoTrak(0, 1920, 1080, false, "avc1"))));
+        
+        assertThat(video.getDuration()).isEqualTo(3L);
+        assertThat(video.getWidth()).isEqualTo(1920);
+        assertThat(video.getVideoCodec()).isEqualTo("avc1");
+        assertThat(video.getBitrate()).isPositive();
+    }
+    
+    private static byte[] videoTrak(int version, int width, int height, boolean rotated, String codec) {
+        return trak(tkhd(version, width, height, rotated), "vide", stsd(codec, width, height), stco(8));
+    }
+    
+    private Path write(byte[]... parts) throws IOException {
+        return Files.write(Files.createTempFile(dir, "clip", ".mp4"), concat(parts));
+    }
+}
@@ -0,0 +1,163 @@
+package com.nestvision.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Разбор формы при разделителе, попадающем на границу буфера или на границу чтения из сокета
+ */
+class MultipartStreamReaderTest {
+    
+    private static final String BOUNDARY = "----NestVisionBoundary7MA4YWxk";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    @Test
+    void splitsPartsWhenDelimiterStraddlesBufferBoundary() throws IOException {
+        byte[] prefix = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"clip.mp4\"\r\n"
+                + "Content-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        int delimiterLength = ("\r\n--" + BOUNDARY).length();
+        // Разделитель после файла начинается в каждой позиции вокруг конца первого и второго заполнения буфера
+        for (int boundaryAt : new int[] {BUFFER_SIZE, 2 * BUFFER_SIZE - delimiterLength}) {
+            for (int shift = -delimiterLength - 2; shift <= delimiterLength + 2; shift++) {
+                byte[] file = randomBytes(boundaryAt - prefix.length + shift, shift);
+                byte[] body = form(file, "MORNING");
+                
+                Parsed parsed = parse(new ChunkedInputStream(body, BUFFER_SIZE));
+                
+                assertThat(parsed.file).as("shift %d", shift).isEqualTo(file);
+                assertThat(parsed.category).isEqualTo("MORNING");
+            }
+        }
+    }
+    
+    @Test
+    void splitsPartsWhenReadsReturnFewBytes() throws IOException {
+        byte[] file = randomBytes(10_000, 1);
+        byte[] body = form(file, "EVENING");
+        for (int chunk : new int[] {1, 2, 3, 7, 13, 37}) {
+            Parsed parsed = parse(new ChunkedInputStream(body, chunk));
+            
+            assertThat(parsed.file).as("chunk %d", chunk).isEqualTo(file);
+            assertThat(parsed.category).isEqualTo("EVENING");
+            assertThat(parsed.fileName).isEqualTo("clip.mp4");
+        }
+    }
+    
+    @Test
+    void keepsDelimiterPrefixInsideFileData() throws IOException {
+        // Начало разделителя без продолжения - это данные файла
+        byte[] tail = ("\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "X\r\n--").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] file = new byte[BUFFER_SIZE + tail.length];
+        System.arraycopy(randomBytes(BUFFER_SIZE, 3), 0, file, 0, BUFFER_SIZE);
+        System.arraycopy(tail, 0, file, BUFFER_SIZE, tail.length);
+        
+        Parsed parsed = parse(new ChunkedInputStream(form(file, "DAY"), 5));
+        
+        assertThat(parsed.file).isEqualTo(file);
+        assertThat(parsed.category).isEqualTo("DAY");
+    }
+    
+    @Test
+    void stopsAtSizeLimit() {
+        byte[] body = form(randomBytes(200_000, 4), "DAY");
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY, 100_000);
+        
+        assertThatThrownBy(() -> {
+            MultipartStreamReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                part.body().transferTo(OutputStream.nullOutputStream());
+            }
+        }).isInstanceOf(MultipartStreamReader.SizeLimitExceededException.class);
+    }
+    
+    @Test
+    void failsOnTruncatedBody() {
+        byte[] body = form(randomBytes(5_000, 5), "DAY");
+        byte[] truncated = Arrays.copyOf(body, body.length - 60);
+        
+        assertThatThrownBy(() -> parse(new ByteArrayInputStream(truncated))).isInstanceOf(IOException.class);
+    }
+    
+    @Test
+    void readsBoundaryFromContentType() {
+        assertThat(MultipartStreamReader.boundary("multipart/form-data; boundary=" + BOUNDARY)).isEqualTo(BOUNDARY);
+        assertThat(MultipartStreamReader.boundary("Multipart/Form-Data; charset=utf-8; boundary=\"a b\"")).isEqualTo("a b");
+        assertThat(MultipartStreamReader.boundary("application/json")).isNull();
+        assertThat(MultipartStreamReader.boundary("multipart/form-data")).isNull();
+    }
+    
+    private static Parsed parse(InputStream in) throws IOException {
+        MultipartStreamReader reader = new MultipartStreamReader(in, BOUNDARY, Long.MAX_VALUE);
+        Parsed parsed = new Parsed();
+        MultipartStreamReader.Part part;
+        while ((part = reader.nextPart()) != null) {
+            if ("file".equals(part.name())) {
+                parsed.fileName = part.fileName();
+                parsed.file = part.body().readAllBytes();
+            } else if ("category".equals(part.name())) {
+                parsed.category = MultipartStreamReader.readText(part);
+            }
+        }
+        return parsed;
+    }
+    
+    private static byte[] form(byte[] file, String category) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"clip.mp4\"\r\n"
+                + "Content-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        body.writeBytes(file);
+        body.writeBytes(("\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"category\"\r\n\r\n"
+                + category
+                + "\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return body.toByteArray();
+    }
+    
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+    
+    private static class Parsed {
+        
+        private String fileName;
+        
+        private byte[] file;
+        
+        private String category;
+    }
+    
+    /**
+     * Отдает не больше chunk байт за одно чтение, как сокет с медленным клиентом
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+        
+        private final int chunk;
+        
+        ChunkedInputStream(byte[] data, int chunk) {
+            super(new ByteArrayInputStream(data));
+            this.chunk = chunk;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
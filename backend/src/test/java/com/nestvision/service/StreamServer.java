@@ -0,0 +1,49 @@
+package com.nestvision.service;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Встроенный Tomcat (NIO-коннектор с sendfile, как в приложении) с одним обработчиком - для замеров отдачи файлов
+ */
+final class StreamServer implements AutoCloseable {
+    
+    interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+    }
+    
+    private final Tomcat tomcat = new Tomcat();
+    
+    StreamServer(Path baseDir, Handler handler) throws LifecycleException {
+        tomcat.setBaseDir(baseDir.toString());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "stream", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                handler.handle(request, response);
+            }
+        });
+        context.addServletMappingDecoded("/*", "stream");
+        tomcat.start();
+    }
+    
+    URI uri(String path) {
+        return URI.create("http://localhost:" + tomcat.getConnector().getLocalPort() + path);
+    }
+    
+    @Override
+    public void close() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+}
@@ -0,0 +1,53 @@
+package com.nestvision.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Интервал между вызовами Bot API общий для всех потоков
+ */
+class TelegramDownloadPoolTest {
+    
+    @Test
+    void spacesApiCallsAcrossThreads() throws InterruptedException {
+        TelegramDownloadPool pool = new TelegramDownloadPool();
+        ReflectionTestUtils.setField(pool, "apiMinIntervalMs", 50L);
+        
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    pool.throttleApiCall("api.telegram.org");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        // Первый вызов сразу, остальные три - через 50, 100 и 150 мс
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(150);
+    }
+    
+    @Test
+    void doesNotWaitWhenDisabled() throws InterruptedException {
+        TelegramDownloadPool pool = new TelegramDownloadPool();
+        ReflectionTestUtils.setField(pool, "apiMinIntervalMs", 0L);
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            pool.throttleApiCall("api.telegram.org");
+        }
+        
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(50);
+    }
+}
@@ -0,0 +1,241 @@
+package com.nestvision.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Докачка через Range, параллельные диапазоны и атомарная фиксация на заглушке HTTP-сервера
+ */
+class TelegramFileDownloaderTest {
+    
+    private static final int SIZE = 1024 * 1024;
+    
+    @TempDir
+    Path storage;
+    
+    private final byte[] data = new byte[SIZE];
+    
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    
+    private final AtomicInteger active = new AtomicInteger();
+    
+    private final AtomicInteger maxActive = new AtomicInteger();
+    
+    // Какие запросы (по заголовку Range) обрывать и после скольких байт
+    private volatile Predicate<String> drop = range -> false;
+    
+    private volatile int dropAfter;
+    
+    private volatile long stallMillis;
+    
+    private HttpServer server;
+    
+    private ContentStore contentStore;
+    
+    private TelegramFileDownloader downloader;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(42).nextBytes(data);
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/file", this::serve);
+        server.start();
+        
+        contentStore = new ContentStore();
+        ReflectionTestUtils.setField(contentStore, "storagePath", storage.toString());
+        contentStore.init();
+        
+        TelegramDownloadPool pool = new TelegramDownloadPool();
+        ReflectionTestUtils.setField(pool, "concurrency", 4);
+        ReflectionTestUtils.setField(pool, "queueCapacity", 4);
+        ReflectionTestUtils.setField(pool, "perHostLimit", 4);
+        pool.init();
+        
+        downloader = new TelegramFileDownloader();
+        ReflectionTestUtils.setField(downloader, "downloadPool", pool);
+        ReflectionTestUtils.setField(downloader, "contentStore", contentStore);
+        ReflectionTestUtils.setField(downloader, "maxRetries", 3);
+        ReflectionTestUtils.setField(downloader, "retryDelayMs", 10L);
+        ReflectionTestUtils.setField(downloader, "connectTimeoutSeconds", 5);
+        ReflectionTestUtils.setField(downloader, "readTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(downloader, "parallelRanges", 1);
+        ReflectionTestUtils.setField(downloader, "parallelThresholdMb", 0L);
+        downloader.init();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        downloader.shutdown();
+        server.stop(0);
+    }
+    
+    @Test
+    void resumesWithRangeAfterConnectionDrop() throws Exception {
+        dropOnce(range -> range == null, 100 * 1024);
+        
+        ContentStore.Blob blob = downloader.download(uri(), "seq", "video.mp4", null);
+        
+        assertThat(ranges).hasSize(2);
+        assertThat(ranges.get(0)).isNull();
+        assertThat(ranges.get(1)).startsWith("bytes=").endsWith("-");
+        assertThat(rangeStart(ranges.get(1))).isPositive();
+        assertCommitted(blob, "seq");
+    }
+    
+    @Test
+    void abortsStalledBodyAndResumes() throws Exception {
+        ReflectionTestUtils.setField(downloader, "readTimeoutSeconds", 1);
+        stallMillis = 10_000;
+        dropOnce(range -> range == null, 50 * 1024);
+        
+        long started = System.nanoTime();
+        ContentStore.Blob blob = downloader.download(uri(), "stall", "video.mp4", null);
+        
+        assertThat((System.nanoTime() - started) / 1_000_000).isLessThan(5_000);
+        assertThat(ranges).hasSize(2);
+        assertThat(rangeStart(ranges.get(1))).isPositive();
+        assertCommitted(blob, "stall");
+    }
+    
+    @Test
+    void downloadsParallelRanges() throws Exception {
+        ReflectionTestUtils.setField(downloader, "parallelRanges", 4);
+        
+        ContentStore.Blob blob = downloader.download(uri(), "parallel", "video.mp4", (long) SIZE);
+        
+        int rangeSize = SIZE / 4;
+        assertThat(ranges).containsExactlyInAnyOrder(
+                "bytes=0-" + (rangeSize - 1),
+                "bytes=" + rangeSize + "-" + (2 * rangeSize - 1),
+                "bytes=" + 2 * rangeSize + "-" + (3 * rangeSize - 1),
+                "bytes=" + 3 * rangeSize + "-" + (SIZE - 1));
+        assertCommitted(blob, "parallel");
+    }
+    
+    @Test
+    void retryRequestsOnlyMissingRangeBytes() throws Exception {
+        ReflectionTestUtils.setField(downloader, "parallelRanges", 4);
+        ReflectionTestUtils.setField(downloader, "maxRetries", 0);
+        int rangeSize = SIZE / 4;
+        String third = "bytes=" + 2 * rangeSize + "-" + (3 * rangeSize - 1);
+        dropOnce(third::equals, 100 * 1024);
+        
+        assertThatThrownBy(() -> downloader.download(uri(), "resume", "video.mp4", (long) SIZE))
+                .isInstanceOf(IOException.class);
+        assertThat(contentStore.partFile("resume")).exists();
+        assertThat(ranges).hasSize(4);
+        
+        ranges.clear();
+        ContentStore.Blob blob = downloader.download(uri(), "resume", "video.mp4", (long) SIZE);
+        
+        // Готовые диапазоны не перекачиваются, оборванный продолжается с сохраненной позиции
+        assertThat(ranges).hasSize(1);
+        assertThat(rangeStart(ranges.get(0))).isGreaterThan(2L * rangeSize).isLessThan(3L * rangeSize);
+        assertThat(ranges.get(0)).endsWith("-" + (3 * rangeSize - 1));
+        assertCommitted(blob, "resume");
+    }
+    
+    @Test
+    void hostLimitCoversWholeBodyTransfer() throws Exception {
+        TelegramDownloadPool pool = (TelegramDownloadPool) ReflectionTestUtils.getField(downloader, "downloadPool");
+        ReflectionTestUtils.setField(pool, "perHostLimit", 1);
+        ReflectionTestUtils.setField(downloader, "parallelRanges", 4);
+        
+        ContentStore.Blob blob = downloader.download(uri(), "limited", "video.mp4", (long) SIZE);
+        
+        assertThat(ranges).hasSize(4);
+        assertThat(maxActive.get()).isEqualTo(1);
+        assertCommitted(blob, "limited");
+    }
+    
+    private void assertCommitted(ContentStore.Blob blob, String key) throws IOException {
+        assertThat(blob.size()).isEqualTo(SIZE);
+        assertThat(Files.readAllBytes(blob.path())).isEqualTo(data);
+        assertThat(blob.sha256()).isEqualTo(contentStore.hash(blob.path()));
+        // .part перенесен под имя хэша, во временной папке ничего не осталось
+        assertThat(contentStore.partFile(key)).doesNotExist();
+        try (Stream<Path> tmp = Files.list(contentStore.partFile(key).getParent())) {
+            assertThat(tmp).isEmpty();
+        }
+    }
+    
+    private void dropOnce(Predicate<String> requests, int afterBytes) {
+        dropAfter = afterBytes;
+        AtomicInteger dropped = new AtomicInteger();
+        drop = range -> requests.test(range) && dropped.getAndIncrement() == 0;
+    }
+    
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/file");
+    }
+    
+    private static long rangeStart(String range) {
+        return Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+    }
+    
+    private void serve(HttpExchange exchange) throws IOException {
+        int now = active.incrementAndGet();
+        maxActive.accumulateAndGet(now, Math::max);
+        try {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(range);
+            
+            int start = 0;
+            int end = SIZE - 1;
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Integer.parseInt(bounds[1]);
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + SIZE);
+            }
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+            
+            OutputStream body = exchange.getResponseBody();
+            if (drop.test(range)) {
+                body.write(data, start, dropAfter);
+                body.flush();
+                if (stallMillis > 0) {
+                    Thread.sleep(stallMillis);
+                }
+                // Закрытие до отправки Content-Length байт обрывает соединение
+                exchange.close();
+                return;
+            }
+            body.write(data, start, length);
+            body.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            exchange.close();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.nestvision.service;
+
+import com.nestvision.entity.IngestionJob;
+import com.nestvision.entity.IngestionJobType;
+import com.nestvision.entity.Video;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.IngestionJobRepository;
+import com.nestvision.repository.TestDatabase;
+import com.nestvision.repository.VideoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * commitBatch на PostgreSQL: после коммита пачки для нового видео из ContentStore появляется задание FASTSTART
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({TelegramUpdateStore.class, VideoCatalog.class, IngestionJobService.class})
+// Исполнитель заданий при остановке пишет в БД - контекст закрывается, пока PostgreSQL еще работает
+@DirtiesContext
+class TelegramUpdateStoreTest {
+    
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        TestDatabase.register(registry);
+    }
+    
+    @Autowired
+    private TelegramUpdateStore telegramUpdateStore;
+    
+    @Autowired
+    private VideoRepository videoRepository;
+    
+    @Autowired
+    private IngestionJobRepository ingestionJobRepository;
+    
+    @MockitoBean
+    private ContentStore contentStore;
+    
+    @MockitoBean
+    private FaststartRewriter faststartRewriter;
+    
+    @MockitoBean
+    private TelegramService telegramService;
+    
+    @MockitoBean
+    private VideoFolderScanner videoFolderScanner;
+    
+    @BeforeEach
+    void setUp() {
+        ingestionJobRepository.deleteAllInBatch();
+        videoRepository.deleteAllInBatch();
+        when(contentStore.contains(any(Path.class))).thenReturn(true);
+        when(faststartRewriter.needsRewrite(any(Path.class))).thenReturn(true);
+    }
+    
+    @Test
+    void enqueuesFaststartAfterCommit() throws InterruptedException {
+        Video video = new Video();
+        video.setFileName("clip.mp4");
+        video.setFilePath("/content/ab/abcdef.mp4");
+        video.setCategory(VideoCategory.values()[0]);
+        video.setRecordedAt(LocalDateTime.now());
+        video.setUploadedAt(LocalDateTime.now());
+        video.setTelegramFileId("file-1");
+        video.setTelegramFileUniqueId("unique-1");
+        video.setContentSha256("abcdef");
+        
+        List<Video> inserted = telegramUpdateStore.commitBatch(List.of(video), List.of(), 1, () -> { });
+        
+        assertThat(inserted).hasSize(1);
+        assertThat(awaitJobs()).singleElement().satisfies(job -> {
+            assertThat(job.getType()).isEqualTo(IngestionJobType.FASTSTART);
+            assertThat(job.getFilePath()).isEqualTo(Path.of("/content/ab/abcdef.mp4").toString());
+        });
+    }
+    
+    // Задание пишется в потоке исполнителя после коммита
+    private List<IngestionJob> awaitJobs() throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        List<IngestionJob> jobs = ingestionJobRepository.findAll();
+        while (jobs.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            jobs = ingestionJobRepository.findAll();
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,163 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.UploadSession;
+import com.nestvision.entity.UploadSessionStatus;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.UploadSessionRepository;
+import com.nestvision.repository.VideoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Повтор оборванного завершения загрузки: без повторной записи и без второй копии файла
+ */
+class UploadSessionServiceTest {
+    
+    private static final int SIZE = 64 * 1024;
+    
+    @TempDir
+    Path storage;
+    
+    private final byte[] data = new byte[SIZE];
+    
+    // Сессии "в базе"
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    
+    private final UploadSessionRepository uploadSessionRepository = mock(UploadSessionRepository.class);
+    
+    private final VideoService videoService = mock(VideoService.class);
+    
+    private ContentStore contentStore;
+    
+    private UploadSessionService uploadSessionService;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(7).nextBytes(data);
+        
+        when(uploadSessionRepository.save(any())).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.getId(), copy(session));
+            return session;
+        });
+        when(uploadSessionRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<String>getArgument(0))).map(this::copy));
+        when(uploadSessionRepository.advanceOffset(anyString(), anyLong(), anyLong(), any())).thenAnswer(invocation -> {
+            UploadSession session = sessions.get(invocation.<String>getArgument(0));
+            if (session.getUploadOffset() != invocation.<Long>getArgument(1)) {
+                return 0;
+            }
+            session.setUploadOffset(invocation.getArgument(2));
+            return 1;
+        });
+        
+        contentStore = new ContentStore();
+        ReflectionTestUtils.setField(contentStore, "videoRepository", mock(VideoRepository.class));
+        ReflectionTestUtils.setField(contentStore, "storagePath", storage.toString());
+        contentStore.init();
+        
+        uploadSessionService = new UploadSessionService();
+        ReflectionTestUtils.setField(uploadSessionService, "uploadSessionRepository", uploadSessionRepository);
+        ReflectionTestUtils.setField(uploadSessionService, "contentStore", contentStore);
+        ReflectionTestUtils.setField(uploadSessionService, "videoService", videoService);
+        ReflectionTestUtils.setField(uploadSessionService, "maxSizeMb", 1L);
+        ReflectionTestUtils.setField(uploadSessionService, "sessionTtlHours", 24L);
+    }
+    
+    @Test
+    void retriedFinalPatchResumesFinish() throws IOException {
+        when(videoService.saveUploadedBlob(any(), anyString(), any(), any()))
+                .thenThrow(new RuntimeException("database is down"))
+                .thenReturn(video(42L));
+        UploadSession session = create();
+        
+        assertThatThrownBy(() -> patch(session.getId(), 0, data)).hasMessage("database is down");
+        
+        // Хэш и путь сохранены до создания видео, файл уже перенесен в хранилище
+        UploadSession stored = sessions.get(session.getId());
+        assertThat(stored.getStatus()).isEqualTo(UploadSessionStatus.IN_PROGRESS);
+        assertThat(stored.getUploadOffset()).isEqualTo(SIZE);
+        assertThat(stored.getContentSha256()).isNotNull();
+        Path blobPath = Paths.get(stored.getBlobPath());
+        assertThat(Files.readAllBytes(blobPath)).isEqualTo(data);
+        
+        // Повтор с offset == length ничего не пишет и доводит завершение до конца
+        UploadSession finished = patch(session.getId(), SIZE, new byte[0]);
+        
+        assertThat(finished.getStatus()).isEqualTo(UploadSessionStatus.COMPLETED);
+        assertThat(finished.getVideoId()).isEqualTo(42L);
+        assertThat(sessions.get(session.getId()).getStatus()).isEqualTo(UploadSessionStatus.COMPLETED);
+        verify(videoService, times(2)).saveUploadedBlob(any(), anyString(), any(), any());
+        assertThat(Files.readAllBytes(blobPath)).isEqualTo(data);
+    }
+    
+    @Test
+    void headResumesFinishAfterRestart() throws IOException {
+        when(videoService.saveUploadedBlob(any(), anyString(), any(), any()))
+                .thenThrow(new RuntimeException("database is down"))
+                .thenReturn(video(7L));
+        UploadSession session = create();
+        assertThatThrownBy(() -> patch(session.getId(), 0, data)).hasMessage("database is down");
+        
+        // Новый экземпляр сервиса без состояния в памяти
+        UploadSessionService restarted = new UploadSessionService();
+        ReflectionTestUtils.setField(restarted, "uploadSessionRepository", uploadSessionRepository);
+        ReflectionTestUtils.setField(restarted, "contentStore", contentStore);
+        ReflectionTestUtils.setField(restarted, "videoService", videoService);
+        
+        UploadSession resumed = restarted.resume(session.getId());
+        
+        assertThat(resumed.getStatus()).isEqualTo(UploadSessionStatus.COMPLETED);
+        assertThat(resumed.getVideoId()).isEqualTo(7L);
+        // Файл уже в хранилище: повтор берет тот же blob
+        verify(videoService).saveUploadedBlob(
+                eq(new ContentStore.Blob(resumed.getContentSha256(), Paths.get(resumed.getBlobPath()), SIZE, true)),
+                anyString(), any(), any());
+    }
+    
+    private UploadSession create() {
+        return uploadSessionService.create(SIZE, "clip.mp4", VideoCategory.values()[0], LocalDateTime.now(), null);
+    }
+    
+    private UploadSession patch(String id, long offset, byte[] chunk) {
+        return uploadSessionService.patch(id, offset, chunk.length, new ByteArrayInputStream(chunk));
+    }
+    
+    private static VideoResponse video(long id) {
+        VideoResponse video = new VideoResponse();
+        video.setId(id);
+        return video;
+    }
+    
+    private UploadSession copy(UploadSession session) {
+        return new UploadSession(session.getId(), session.getStatus(), session.getFileName(), session.getCategory(),
+                session.getRecordedAt(), session.getUploadLength(), session.getUploadOffset(),
+                session.getExpectedSha256(), session.getTempPath(), session.getContentSha256(), session.getBlobPath(),
+                session.getVideoId(), session.getCreatedAt(), session.getUpdatedAt());
+    }
+}
@@ -0,0 +1,130 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.VideoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VideoCatalogTest {
+    
+    private static final LocalDateTime NOON = LocalDateTime.of(2025, 7, 7, 12, 0);
+    
+    private final VideoRepository videoRepository = mock(VideoRepository.class);
+    
+    private final VideoCatalog catalog = new VideoCatalog();
+    
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(catalog, "videoRepository", videoRepository);
+        ReflectionTestUtils.setField(catalog, "eventPublisher", mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(catalog, "refreshIntervalMs", 0L);
+    }
+    
+    @Test
+    void keepsSubSecondPrecisionForBoundsAndResponses() {
+        VideoResponse early = video(1, NOON.plusNanos(250_000_000));
+        VideoResponse late = video(2, NOON.plusNanos(750_123_000));
+        VideoResponse next = video(3, NOON.plusSeconds(1));
+        load(early, late, next);
+        
+        // to исключается: видео позже границы в той же секунде не попадает в страницу
+        assertThat(ids(catalog.page(null, null, NOON.plusNanos(500_000_000), null, null, 10))).containsExactly(1L);
+        assertThat(ids(catalog.page(null, NOON.plusNanos(500_000_000), null, null, null, 10))).containsExactly(3L, 2L);
+        assertThat(catalog.getById(2L).getRecordedAt()).isEqualTo(late.getRecordedAt());
+        assertThat(catalog.getById(2L).getUploadedAt()).isEqualTo(late.getUploadedAt());
+    }
+    
+    @Test
+    void cursorWalksRowsOfOneSecondWithoutGapsOrRepeats() {
+        load(video(1, NOON.plusNanos(100_000)), video(2, NOON.plusNanos(100_000)),
+                video(3, NOON.plusNanos(900_000_000)), video(4, NOON));
+        
+        List<Long> walked = new ArrayList<>();
+        LocalDateTime cursorAt = null;
+        Long cursorId = null;
+        for (int i = 0; i < 10; i++) {
+            List<VideoResponse> page = catalog.page(VideoCategory.SUDDEN_EVENT, null, null, cursorAt, cursorId, 1);
+            if (page.isEmpty()) {
+                break;
+            }
+            walked.add(page.get(0).getId());
+            cursorAt = page.get(0).getRecordedAt();
+            cursorId = page.get(0).getId();
+        }
+        assertThat(walked).containsExactly(3L, 2L, 1L, 4L);
+    }
+    
+    @Test
+    void missingIdFallsBackToDatabaseOnce() {
+        load();
+        VideoResponse other = video(7, NOON);
+        when(videoRepository.findResponseById(7L)).thenReturn(Optional.of(other));
+        
+        assertThat(catalog.getById(7L)).isNotNull();
+        assertThat(catalog.getById(7L).getId()).isEqualTo(7L);
+        assertThat(ids(catalog.getAll())).containsExactly(7L);
+        verify(videoRepository, times(1)).findResponseById(7L);
+    }
+    
+    @Test
+    void refreshLoadsRowsInsertedElsewhere() {
+        load(video(1, NOON));
+        when(videoRepository.getCatalogStats()).thenReturn(stats(3, 5L));
+        when(videoRepository.findResponsesByIdGreaterThan(1L))
+                .thenReturn(List.of(video(4, NOON.plusMinutes(1)), video(5, NOON.minusMinutes(1))));
+        
+        catalog.refresh();
+        
+        assertThat(ids(catalog.getAll())).containsExactly(4L, 1L, 5L);
+        
+        // Каталог не отстает - лишних запросов нет
+        catalog.refresh();
+        verify(videoRepository, times(1)).findResponsesByIdGreaterThan(anyLong());
+        verify(videoRepository, never()).findResponseById(anyLong());
+    }
+    
+    private void load(VideoResponse... videos) {
+        when(videoRepository.streamAllResponsesOrderByRecordedAt()).thenReturn(Stream.of(videos));
+        catalog.load();
+    }
+    
+    private static VideoResponse video(long id, LocalDateTime recordedAt) {
+        return new VideoResponse(id, "video" + id + ".mp4", "/videos/" + id + ".mp4", VideoCategory.SUDDEN_EVENT,
+                recordedAt, recordedAt.plusNanos(123_456_000), 10L, 1000L, 1920, 1080, "avc1", 800_000L);
+    }
+    
+    private static List<Long> ids(List<VideoResponse> videos) {
+        return videos.stream().map(VideoResponse::getId).toList();
+    }
+    
+    private static VideoRepository.CatalogStats stats(long count, Long maxId) {
+        return new VideoRepository.CatalogStats() {
+            @Override
+            public long getCount() {
+                return count;
+            }
+            
+            @Override
+            public Long getMaxId() {
+                return maxId;
+            }
+        };
+    }
+}
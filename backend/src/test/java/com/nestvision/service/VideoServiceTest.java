@@ -0,0 +1,121 @@
+package com.nestvision.service;
+
+import com.nestvision.dto.VideoPageResponse;
+import com.nestvision.dto.VideoResponse;
+import com.nestvision.entity.VideoCategory;
+import com.nestvision.repository.VideoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Постраничная выдача по курсору (recorded_at desc, id desc) из базы и из каталога
+ */
+class VideoServiceTest {
+    
+    private static final LocalDateTime MIN = LocalDateTime.of(1, 1, 1, 0, 0);
+    private static final LocalDateTime MAX = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+    
+    private final VideoRepository videoRepository = mock(VideoRepository.class);
+    
+    private final VideoCatalog videoCatalog = mock(VideoCatalog.class);
+    
+    private VideoService videoService;
+    
+    @BeforeEach
+    void setUp() {
+        videoService = new VideoService();
+        ReflectionTestUtils.setField(videoService, "videoRepository", videoRepository);
+        ReflectionTestUtils.setField(videoService, "videoCatalog", videoCatalog);
+        ReflectionTestUtils.setField(videoService, "defaultPageSize", 2);
+        ReflectionTestUtils.setField(videoService, "maxPageSize", 3);
+    }
+    
+    @Test
+    void pagesThroughDatabaseWithCursor() {
+        LocalDateTime at = LocalDateTime.of(2024, 5, 1, 10, 30, 15, 123_456_000);
+        when(videoRepository.findPage(MIN, MAX, MAX, Long.MAX_VALUE, Limit.of(3)))
+                .thenReturn(videos(at, 30L, 20L, 10L));
+        
+        VideoPageResponse first = videoService.getVideosPage(null, null, null, null, null);
+        
+        assertThat(first.getItems()).extracting(VideoResponse::getId).containsExactly(30L, 20L);
+        assertThat(first.isHasMore()).isTrue();
+        assertThat(first.getNextCursor()).isNotNull();
+        
+        // Следующая страница начинается строго после последнего видео первой
+        when(videoRepository.findPage(MIN, MAX, at, 20L, Limit.of(3))).thenReturn(videos(at, 10L));
+        
+        VideoPageResponse second = videoService.getVideosPage(null, null, null, first.getNextCursor(), null);
+        
+        assertThat(second.getItems()).extracting(VideoResponse::getId).containsExactly(10L);
+        assertThat(second.isHasMore()).isFalse();
+        assertThat(second.getNextCursor()).isNull();
+    }
+    
+    @Test
+    void filtersByCategoryAndRange() {
+        LocalDateTime from = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2024, 2, 1, 0, 0);
+        VideoCategory category = VideoCategory.values()[0];
+        when(videoRepository.findPageByCategory(category, from, to, MAX, Long.MAX_VALUE, Limit.of(4)))
+                .thenReturn(videos(from, 1L));
+        
+        VideoPageResponse page = videoService.getVideosPage(category, from, to, null, 1000);
+        
+        // Размер страницы ограничен max-size
+        verify(videoRepository).findPageByCategory(category, from, to, MAX, Long.MAX_VALUE, Limit.of(4));
+        assertThat(page.getItems()).hasSize(1);
+    }
+    
+    @Test
+    void readsPagesFromCatalogWhenReady() {
+        LocalDateTime at = LocalDateTime.of(2024, 3, 3, 3, 3);
+        when(videoCatalog.isReady()).thenReturn(true);
+        when(videoCatalog.page(null, null, null, null, null, 3)).thenReturn(videos(at, 5L, 4L, 3L));
+        
+        VideoPageResponse page = videoService.getVideosPage(null, null, null, null, 0);
+        
+        assertThat(page.getItems()).extracting(VideoResponse::getId).containsExactly(5L, 4L);
+        when(videoCatalog.page(null, null, null, at, 4L, 3)).thenReturn(videos(at, 3L));
+        assertThat(videoService.getVideosPage(null, null, null, page.getNextCursor(), null).getItems())
+                .extracting(VideoResponse::getId).containsExactly(3L);
+    }
+    
+    @Test
+    void rejectsInvalidCursor() {
+        for (String cursor : new String[] {"%%%", "bm90LWEtY3Vyc29y", "MjAyNC0wMS0wMVQwMDowMHx4"}) {
+            assertThatThrownBy(() -> videoService.getVideosPage(null, null, null, cursor, null))
+                    .as(cursor)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid cursor");
+        }
+        verify(videoRepository, never()).findPage(any(), any(), any(), anyLong(), eq(Limit.of(3)));
+    }
+    
+    private static List<VideoResponse> videos(LocalDateTime recordedAt, Long... ids) {
+        List<VideoResponse> videos = new ArrayList<>();
+        for (Long id : ids) {
+            VideoResponse video = new VideoResponse();
+            video.setId(id);
+            video.setRecordedAt(recordedAt);
+            videos.add(video);
+        }
+        return videos;
+    }
+}
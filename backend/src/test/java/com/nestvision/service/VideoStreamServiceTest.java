@@ -0,0 +1,185 @@
+package com.nestvision.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Разбор Range и ответы 200 / 206 / multipart/byteranges / 404 / 416
+ */
+class VideoStreamServiceTest {
+    
+    private static final int SIZE = 1000;
+    
+    @TempDir
+    Path dir;
+    
+    private final byte[] data = new byte[SIZE];
+    
+    private Path file;
+    
+    private VideoStreamService videoStreamService;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        file = Files.write(dir.resolve("clip.mp4"), data);
+        
+        videoStreamService = new VideoStreamService();
+        ReflectionTestUtils.setField(videoStreamService, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(videoStreamService, "channelCacheSize", 4);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        videoStreamService.closeAll();
+    }
+    
+    @Test
+    void sendsWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = stream(null);
+        
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentType()).isEqualTo("video/mp4");
+        assertThat(response.getHeader("Accept-Ranges")).isEqualTo("bytes");
+        assertThat(response.getContentLengthLong()).isEqualTo(SIZE);
+        assertThat(response.getContentAsByteArray()).isEqualTo(data);
+    }
+    
+    @Test
+    void sendsSingleRanges() throws IOException {
+        assertPartial(stream("bytes=0-99"), 0, 100);
+        assertPartial(stream("bytes=900-"), 900, SIZE);
+        // Последние N байт
+        assertPartial(stream("bytes=-100"), 900, SIZE);
+        assertPartial(stream("bytes=-5000"), 0, SIZE);
+        // Конец за пределами файла обрезается
+        assertPartial(stream("bytes=990-5000"), 990, SIZE);
+        assertPartial(stream("bytes= 10 - 19 "), 10, 20);
+    }
+    
+    @Test
+    void rejectsUnsatisfiableRanges() throws IOException {
+        for (String range : new String[] {"bytes=1000-", "bytes=2000-3000", "bytes=-0", "bytes=1000-1100,1200-"}) {
+            MockHttpServletResponse response = stream(range);
+            
+            assertThat(response.getStatus()).as(range).isEqualTo(416);
+            assertThat(response.getHeader("Content-Range")).isEqualTo("bytes */" + SIZE);
+            assertThat(response.getContentAsByteArray()).isEmpty();
+        }
+    }
+    
+    @Test
+    void ignoresMalformedRange() throws IOException {
+        for (String range : new String[] {"items=0-10", "bytes=abc", "bytes=20-10", "bytes=5", "bytes=x-10"}) {
+            MockHttpServletResponse response = stream(range);
+            
+            assertThat(response.getStatus()).as(range).isEqualTo(200);
+            assertThat(response.getContentAsByteArray()).isEqualTo(data);
+        }
+    }
+    
+    @Test
+    void skipsUnsatisfiablePartsOfMultiRange() throws IOException {
+        assertPartial(stream("bytes=0-9,5000-6000"), 0, 10);
+    }
+    
+    @Test
+    void sendsMultipleRangesAsMultipart() throws IOException {
+        MockHttpServletResponse response = stream("bytes=0-9,500-509,-10");
+        
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String boundary = response.getContentType().substring("multipart/byteranges; boundary=".length());
+        byte[] body = response.getContentAsByteArray();
+        assertThat(response.getContentLengthLong()).isEqualTo(body.length);
+        
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        assertThat(text).endsWith("\r\n--" + boundary + "--\r\n");
+        assertPart(text, boundary, 0, 10);
+        assertPart(text, boundary, 500, 510);
+        assertPart(text, boundary, 990, 1000);
+    }
+    
+    @Test
+    void headSendsHeadersOnly() throws IOException {
+        MockHttpServletRequest request = request("bytes=0-99");
+        request.setMethod("HEAD");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        
+        videoStreamService.stream(file, request, response);
+        
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentLengthLong()).isEqualTo(100);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+    
+    @Test
+    void handsSingleRangeToSendfile() throws IOException {
+        MockHttpServletRequest request = request("bytes=100-199");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        
+        videoStreamService.stream(file, request, response);
+        
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(file.toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(100L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(200L);
+    }
+    
+    @Test
+    void respondsNotFoundForMissingFile() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        
+        videoStreamService.stream(dir.resolve("missing.mp4"), request(null), response);
+        
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+    
+    private MockHttpServletResponse stream(String range) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        videoStreamService.stream(file, request(range), response);
+        return response;
+    }
+    
+    private static MockHttpServletRequest request(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/videos/1/stream");
+        if (range != null) {
+            request.addHeader("Range", range);
+        }
+        return request;
+    }
+    
+    private void assertPartial(MockHttpServletResponse response, int start, int end) {
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).isEqualTo("video/mp4");
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes " + start + "-" + (end - 1) + "/" + SIZE);
+        assertThat(response.getContentLengthLong()).isEqualTo(end - start);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(data, start, end));
+    }
+    
+    private void assertPart(String body, String boundary, int start, int end) {
+        String header = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: video/mp4\r\n"
+                + "Content-Range: bytes " + start + "-" + (end - 1) + "/" + SIZE + "\r\n\r\n";
+        int at = body.indexOf(header);
+        assertThat(at).as("part %d-%d", start, end).isNotNegative();
+        String content = body.substring(at + header.length(), at + header.length() + end - start);
+        assertThat(content.getBytes(StandardCharsets.ISO_8859_1)).isEqualTo(Arrays.copyOfRange(data, start, end));
+    }
+}
@@ -14,6 +14,12 @@ const YOUR_USER_ID = process.env.USER_ID || '1956288165'; // Ваш ID
 // URL Java backend для автоматической обработки
 const BACKEND_URL = process.env.BACKEND_URL || 'http://localhost:8080/api/telegram/process-video';
 
+// Сколько раз повторять отправку, если backend перегружен (HTTP 429)
+const BACKEND_MAX_RETRIES = parseInt(process.env.BACKEND_MAX_RETRIES || '5', 10);
+
+// Пакетный endpoint: при догрузке канала видео отправляются одной пачкой на страницу getUpdates
+const BACKEND_BATCH_URL = process.env.BACKEND_BATCH_URL || BACKEND_URL.replace(/process-video$/, 'process-videos');
+
 // ID бота (для пересылки напрямую боту)
 // Боты не могут писать самим себе, поэтому пересылаем в ваш личный чат
 // Оттуда вы можете переслать боту, или настроить автоматическую пересылку
@@ -31,6 +37,60 @@ console.log('   3. Backend скачивает и добавляет в базу
 console.log('   4. Видео появляется на сайте автоматически');
 console.log('═══════════════════════════════════════════════════');
 
+// Данные видео для backend: категория по хэштегу и дата записи из подписи
+function describeVideo(post) {
+    const video = post.video;
+    
+    // Определяем категорию по хэштегу из подписи
+    let category = 'SUDDEN_EVENT'; // По умолчанию
+    let recordedDateTime = null; // Дата и время записи
+    
+    if (post.caption) {
+        const caption = post.caption;
+        const captionLower = caption.toLowerCase();
+        
+        // Ищем хэштеги для определения категории
+        const hashtagRegex = /#(\w+)/g;
+        const hashtags = caption.match(hashtagRegex) || [];
+        
+        for (const hashtag of hashtags) {
+            const tag = hashtag.toLowerCase().replace('#', '');
+            if (tag === 'aggression_children' || tag === 'aggressionchildren') {
+                category = 'AGGRESSION_BETWEEN_CHILDREN';
+                break;
+            } else if (tag === 'aggression_teacher' || tag === 'aggressionteacher') {
+                category = 'AGGRESSION_TEACHER';
+                break;
+            } else if (tag === 'children_unattended' || tag === 'childrenunattended') {
+                category = 'CHILDREN_UNATTENDED';
+                break;
+            } else if (tag === 'sudden_event' || tag === 'suddenevent') {
+                category = 'SUDDEN_EVENT';
+                break;
+            }
+        }
+        
+        // Парсим дату и время из формата: DD-MM-YYYY_HH-MM-SS
+        // Пример: "07-07-2025_12-12-12"
+        const dateTimeRegex = /(\d{2}-\d{2}-\d{4}_\d{2}-\d{2}-\d{2})/;
+        const dateTimeMatch = caption.match(dateTimeRegex);
+        
+        if (dateTimeMatch) {
+            recordedDateTime = dateTimeMatch[1];
+            console.log(`   📅 Найдена дата записи: ${recordedDateTime}`);
+        }
+    }
+    
+    return {
+        fileId: video.file_id,
+        fileUniqueId: video.file_unique_id || null,
+        fileName: video.file_name || `video_${post.message_id}.mp4`,
+        messageId: post.message_id,
+        category,
+        recordedDateTime
+    };
+}
+
 // Функция для обработки видео из channel_post
 async function processVideo(post, chatId) {
     if (!post.video) return false;
@@ -57,48 +117,13 @@ async function processVideo(post, chatId) {
     try {
         const formData = new URLSearchParams();
         formData.append('fileId', fileId);
+        if (video.file_unique_id) {
+            formData.append('fileUniqueId', video.file_unique_id);
+        }
         formData.append('fileName', fileName);
         formData.append('messageId', post.message_id.toString());
         
-        // Определяем категорию по хэштегу из подписи
-        let category = 'SUDDEN_EVENT'; // По умолчанию
-        let recordedDateTime = null; // Дата и время записи
-        
-        if (post.caption) {
-            const caption = post.caption;
-            const captionLower = caption.toLowerCase();
-            
-            // Ищем хэштеги для определения категории
-            const hashtagRegex = /#(\w+)/g;
-            const hashtags = caption.match(hashtagRegex) || [];
-            
-            for (const hashtag of hashtags) {
-                const tag = hashtag.toLowerCase().replace('#', '');
-                if (tag === 'aggression_children' || tag === 'aggressionchildren') {
-                    category = 'AGGRESSION_BETWEEN_CHILDREN';
-                    break;
-                } else if (tag === 'aggression_teacher' || tag === 'aggressionteacher') {
-                    category = 'AGGRESSION_TEACHER';
-                    break;
-                } else if (tag === 'children_unattended' || tag === 'childrenunattended') {
-                    category = 'CHILDREN_UNATTENDED';
-                    break;
-                } else if (tag === 'sudden_event' || tag === 'suddenevent') {
-                    category = 'SUDDEN_EVENT';
-                    break;
-                }
-            }
-            
-            // Парсим дату и время из формата: DD-MM-YYYY_HH-MM-SS
-            // Пример: "07-07-2025_12-12-12"
-            const dateTimeRegex = /(\d{2}-\d{2}-\d{4}_\d{2}-\d{2}-\d{2})/;
-            const dateTimeMatch = caption.match(dateTimeRegex);
-            
-            if (dateTimeMatch) {
-                recordedDateTime = dateTimeMatch[1];
-                console.log(`   📅 Найдена дата записи: ${recordedDateTime}`);
-            }
-        }
+        const { category, recordedDateTime } = describeVideo(post);
         
         formData.append('category', category);
         if (recordedDateTime) {
@@ -117,7 +142,7 @@ async function processVideo(post, chatId) {
             }
         };
         
-        return new Promise((resolve, reject) => {
+        const send = () => new Promise((resolve, reject) => {
             console.log(`\n   📤 ОТПРАВКА В BACKEND:`);
             console.log(`   - URL: ${BACKEND_URL}`);
             console.log(`   - File ID: ${fileId}`);
@@ -137,16 +162,27 @@ async function processVideo(post, chatId) {
                 res.on('end', () => {
                     try {
                         console.log(`   - Response Body: ${data}`);
+                        
+                        // Backend перегружен - повторим после паузы из Retry-After
+                        if (res.statusCode === 429) {
+                            const retryAfter = parseInt(res.headers['retry-after'] || '5', 10);
+                            console.log(`\n⏳ Backend перегружен, повтор через ${retryAfter} сек\n`);
+                            resolve({ retryAfter });
+                            return;
+                        }
+                        
                         const response = JSON.parse(data);
                         
-                        if (response.success) {
-                            console.log('\n✅ Видео автоматически обработано Java backend!');
+                        if (res.statusCode === 202 && response.success) {
+                            // Видео принято в обработку, backend скачает его в фоне
+                            console.log('\n✅ Видео принято Java backend в обработку!');
+                            console.log(`   🆔 Задание: ${response.jobId}`);
                             console.log(`   📁 Файл: ${fileName}`);
                             console.log(`   📂 Категория: ${category}`);
                             if (recordedDateTime) {
                                 console.log(`   📅 Дата записи: ${recordedDateTime}`);
                             }
-                            console.log('   💾 Добавлено в базу данных\n');
+                            console.log(`   🔎 Статус: GET /api/telegram/jobs/${response.jobId}\n`);
                             resolve(true);
                         } else {
                             console.log('\n⚠️  Видео не обработано:');
@@ -177,12 +213,74 @@ async function processVideo(post, chatId) {
             req.write(formDataString);
             req.end();
         });
+        
+        for (let attempt = 1; ; attempt++) {
+            const result = await send();
+            if (typeof result === 'boolean') {
+                return result;
+            }
+            if (attempt > BACKEND_MAX_RETRIES) {
+                console.error(`\n❌ Backend перегружен, видео не отправлено после ${attempt} попыток\n`);
+                return false;
+            }
+            await new Promise((r) => setTimeout(r, result.retryAfter * 1000));
+        }
     } catch (error) {
         console.error('❌ Ошибка при автоматической обработке:', error.message);
         return false;
     }
 }
 
+// Отправляет пачку видео в Java backend одним запросом
+async function sendBatch(posts) {
+    const body = JSON.stringify(posts.map(describeVideo));
+    const url = new URL(BACKEND_BATCH_URL);
+    const options = {
+        hostname: url.hostname,
+        port: url.port || (url.protocol === 'https:' ? 443 : 80),
+        path: url.pathname,
+        method: 'POST',
+        headers: {
+            'Content-Type': 'application/json',
+            'Content-Length': Buffer.byteLength(body)
+        }
+    };
+    
+    try {
+        for (let attempt = 1; ; attempt++) {
+            const res = await new Promise((resolve, reject) => {
+                const req = (url.protocol === 'https:' ? https : http).request(options, (res) => {
+                    let data = '';
+                    res.on('data', (chunk) => { data += chunk; });
+                    res.on('end', () => resolve({ statusCode: res.statusCode, headers: res.headers, data }));
+                });
+                req.on('error', reject);
+                req.write(body);
+                req.end();
+            });
+            
+            if (res.statusCode === 429 && attempt <= BACKEND_MAX_RETRIES) {
+                const retryAfter = parseInt(res.headers['retry-after'] || '5', 10);
+                console.log(`⏳ Backend перегружен, повтор пачки через ${retryAfter} сек`);
+                await new Promise((r) => setTimeout(r, retryAfter * 1000));
+                continue;
+            }
+            
+            if (res.statusCode === 202) {
+                const response = JSON.parse(res.data);
+                console.log(`✅ Пачка принята: в обработку ${response.jobs.length}, уже есть ${response.duplicates.length}`);
+                return response.jobs.length;
+            }
+            
+            console.error(`❌ Пачка не принята (HTTP ${res.statusCode}): ${res.data}`);
+            return 0;
+        }
+    } catch (error) {
+        console.error('❌ Ошибка при отправке пачки в Java backend:', error.message);
+        return 0;
+    }
+}
+
 // Функция для загрузки всех видео из канала при старте
 async function loadAllVideosFromChannel() {
     console.log('\n📥 Загружаю все существующие видео из канала...\n');
@@ -233,6 +331,7 @@ async function loadAllVideosFromChannel() {
             const updates = data.result;
             console.log(`Получено обновлений: ${updates.length}, offset: ${offset}`);
             
+            const batch = [];
             for (const update of updates) {
                 if (update.channel_post) {
                     const post = update.channel_post;
@@ -245,7 +344,7 @@ async function loadAllVideosFromChannel() {
                         console.log(`   Message ID: ${post.message_id}`);
                         console.log(`   Chat ID: ${chatId}`);
                         console.log(`   Chat Title: ${post.chat?.title || 'N/A'}`);
-                        await processVideo(post, chatId);
+                        batch.push(post);
                     }
                 }
                 
@@ -253,6 +352,10 @@ async function loadAllVideosFromChannel() {
                 totalProcessed++;
             }
             
+            if (batch.length > 0) {
+                await sendBatch(batch);
+            }
+            
             // Если получили меньше 100 обновлений, значит это последняя партия
             if (updates.length < 100) {
                 break;